@@ -20,6 +20,9 @@ import core.cell.plugins.CellPluginSimple;
 import core.cell.plugins.CellPluginThresholding;
 import evaluation.Evaluator;
 import core.image.BinaryImage;
+import core.image.IBinaryImage;
+import core.image.CroppedBinaryImage;
+import core.image.RunLengthImage;
 import core.image.ImageWrapper;
 import core.settings.Pre;
 import core.settings.Config;
@@ -358,7 +361,13 @@ public class PreprocessingFilterQueue extends AbstractControl {
                                 getMainController().getModel().getStackModel().getStackOrig().getEntryList().get(i).getShape().getAggregatedArea() == null) {
                             return null;
                         }
-                        BinaryImage aggArea = (BinaryImage) getMainController().getModel().getStackModel().getStackOrig().getEntryList().get(i).getShape().getAggregatedArea().clone();
+                        IBinaryImage aggregated = getMainController().getModel().getStackModel().getStackOrig().getEntryList().get(i).getShape().getAggregatedArea();
+                        BinaryImage aggArea;
+                        if (aggregated instanceof RunLengthImage)
+                            aggArea = ((RunLengthImage) aggregated).toBinaryImage();
+                        else if (aggregated instanceof CroppedBinaryImage)
+                            aggArea = ((CroppedBinaryImage) aggregated).toBinaryImage();
+                        else aggArea = (BinaryImage) aggregated.clone();
                         if (aggArea != null) aggArea.exitMemoryState();
                         return aggArea;
                     },
@@ -4,8 +4,14 @@ import core.*;
 import core.cell.ShapeContainer;
 import core.filaments.AbstractFilament;
 import core.image.Entry;
+import core.tracers.BitField;
 import core.tracers.CurveTracer;
+import core.tracers.IntField;
+import core.tracers.LineSensor;
+import core.tracers.SpokeTable;
 import core.tracers.Tracer;
+import core.tracers.TracerCache;
+import core.tracers.WidthMapCalculator;
 import filters.*;
 import focaladhesion.DataExtractor;
 import focaladhesion.FocalAdhesionProcessor;
@@ -17,6 +23,7 @@ import ij.gui.HistogramWindow;
 import ij.gui.ImageWindow;
 import ij.gui.StackWindow;
 import ij.process.AutoThresholder;
+import ij.process.ByteProcessor;
 import ij.process.ImageConverter;
 import ij.process.ImageProcessor;
 import javafx.application.Platform;
@@ -43,17 +50,22 @@ import core.settings.*;
 
 
 import util.*;
+import util.fuzzy.matrix.Boolean2D;
 
 import javax.imageio.ImageIO;
 import javax.swing.*;
 import java.awt.*;
+import java.awt.geom.Line2D;
+import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
 import java.beans.XMLDecoder;
 import java.beans.XMLEncoder;
 import java.io.*;
+import java.lang.ref.SoftReference;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.file.Files;
 import java.util.*;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
@@ -62,7 +74,9 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static main.Main.*;
 
@@ -258,6 +272,1665 @@ public class Development {
     }
 
 
+    /**
+     * Throughput of the default pre processing and line sensor queues on Test24hSet for different chunk sizes.
+     * Chunk size 1 runs the images one after another, larger chunks run their images through the queues in parallel
+     * (like the chunks of BatchProcessor).
+     */
+    public static void benchmarkFilterQueue(Settings dp) {
+        ProjectData project = getProject(dp, "Test24hSet");
+        List<File> files = project.getImageFiles();
+        for (int chunkSize : new int[]{1, 4, 16, 60}) {
+            long time = System.currentTimeMillis();
+            try {
+                for (int i = 0; i < files.size(); i += chunkSize) {
+                    ImageWrapper wrapper = new ImageWrapper(new ArrayList<>(files.subList(i, Math.min(i + chunkSize, files.size()))), dp);
+                    ProcessingUtils.preProcess(wrapper, ProcessingUtils.getDefaultPreprocessingFilterQueue(dp), f -> {
+                    });
+                    ProcessingUtils.lineSensor(wrapper, wrapper, ProcessingUtils.getDefaultLineSensorQueue(dp, false), f -> {
+                    });
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+                return;
+            }
+            double seconds = (double) (System.currentTimeMillis() - time) / 1000;
+            System.out.println("chunk size " + chunkSize + ": " + files.size() + " images in " + seconds + "s (" + (files.size() / seconds) + " images/s)");
+        }
+    }
+
+
+    /**
+     * Binary line images of a test set as the tracers get them, every frame runs through the default pre processing
+     * and line sensor queues on its own. Files ImageJ can't open (like the Git LFS pointers of a checkout without
+     * the test data) are skipped; if no frame of the test set opens, synthetic frames (syntheticFrames) are used, so
+     * the tests never pass on zero frames.
+     */
+    private static List<ImageProcessor> getLineImages(Settings dp, String testSet) {
+        List<ImageProcessor> images = new ArrayList<>();
+        for (File file : getProject(dp, testSet).getImageFiles()) {
+            if (IJ.openImage(file.getAbsolutePath()) == null) {
+                System.out.println("skipped " + file.getName() + ", not an image");
+                continue;
+            }
+            try {
+                images.add(lineImage(new ImageWrapper(new ArrayList<>(Collections.singletonList(file)), dp), dp));
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        if (images.isEmpty()) {
+            List<ImagePlus> frames = syntheticFrames(3, 400);
+            System.out.println("no frame of " + testSet + " opened, using " + frames.size() + " synthetic frames");
+            for (ImagePlus frame : frames) {
+                images.add(lineImage(new ImageWrapper(frame, dp), dp));
+            }
+        }
+        return images;
+    }
+
+    private static ImageProcessor lineImage(ImageWrapper wrapper, Settings dp) {
+        ProcessingUtils.preProcess(wrapper, ProcessingUtils.getDefaultPreprocessingFilterQueue(dp), f -> {
+        });
+        ProcessingUtils.lineSensor(wrapper, wrapper, ProcessingUtils.getDefaultLineSensorQueue(dp, false), f -> {
+        });
+        return wrapper.getEntryList().get(0).getProcessor().duplicate();
+    }
+
+    /**
+     * Cell like frames with random straight filaments of width 1 to 4: a noisy background, a brighter ellipse as
+     * cell area and lines of random brightness, smoothed by a gaussian blur.
+     */
+    private static List<ImagePlus> syntheticFrames(int count, int size) {
+        Random random = new Random(7);
+        List<ImagePlus> frames = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ByteProcessor processor = new ByteProcessor(size, size);
+            for (int p = 0; p < size * size; p++) processor.set(p, 20 + random.nextInt(25));
+            processor.setColor(60);
+            processor.fillOval(size / 8, size / 8, 3 * size / 4, 3 * size / 4);
+            for (int k = 0; k < size / 6; k++) {
+                processor.setLineWidth(1 + random.nextInt(4));
+                processor.setColor(120 + random.nextInt(120));
+                int x = size / 4 + random.nextInt(size / 2), y = size / 4 + random.nextInt(size / 2);
+                double angle = random.nextDouble() * Math.PI, length = 20 + random.nextInt(size / 3);
+                processor.drawLine(x, y, (int) (x + length * Math.cos(angle)), (int) (y + length * Math.sin(angle)));
+            }
+            processor.blurGaussian(1.0);
+            frames.add(new ImagePlus("synthetic_" + i, processor));
+        }
+        return frames;
+    }
+
+
+    /**
+     * Regression test of WidthMapCalculator on TestSmallSet:
+     * the width maps and maximal diameters have to be identical to the circle growing the tracers used before
+     * (widthMapReference), and the distance transform has to tell the circle masks free of black pixels:
+     * Calc.circleMask(d) around a white pixel holds no black pixel exactly if (d^2 + d + 3) / 4 is not above the
+     * squared distance to the nearest black pixel.
+     * The circle growing of LineSensor additionally clipped the masks to a window symmetric around the pixel at the
+     * image border (and never ended in a white corner pixel), the widths of pixels with masks reaching the border
+     * follow CurveTracer instead. On a frame without black pixels the circle growing never ends, the width has to be
+     * the largest mask inside of the image.
+     */
+    public static void testWidthMap(Settings dp) {
+        long pixels = 0, mismatches = 0, masks = 0, maskMismatches = 0;
+        List<boolean[][]> circleMasks = new ArrayList<>();
+        for (ImageProcessor image : getLineImages(dp, "TestSmallSet")) {
+            boolean[][] bin = new BinaryImage(image.getIntArray(), 254).toBoolean();
+            final int width = bin.length, height = bin[0].length;
+            for (double tolerance : new double[]{0, dp.getValue(Trace.tolerance) / 100.0, 0.2}) {
+                WidthMapCalculator calculator = new WidthMapCalculator(bin, tolerance);
+                int[][] reference = widthMapReference(bin, tolerance, circleMasks);
+                int maxDiameter = 0;
+                for (int x = 0; x < width; x++) {
+                    for (int y = 0; y < height; y++) {
+                        pixels++;
+                        if (reference[x][y] != calculator.getWidthMap().get(x, y)) mismatches++;
+                        if (!bin[x][y]) maxDiameter = Math.max(maxDiameter, reference[x][y] + 1);
+                    }
+                }
+                if (maxDiameter != calculator.getMaxDiameter()) {
+                    System.out.println("max diameter " + calculator.getMaxDiameter() + " instead of " + maxDiameter);
+                    mismatches++;
+                }
+            }
+
+            int[][] distance = Calc.squaredDistanceTransform(bin);
+            for (int x = 0; x < width; x++) {
+                for (int y = 0; y < height; y++) {
+                    if (bin[x][y]) continue;
+                    //the masks are nested, grow until the first one that holds a black pixel or reaches the border
+                    int border = Math.min(Math.min(x, width - 1 - x), Math.min(y, height - 1 - y));
+                    for (int diameter = 1; diameter / 2 <= border; diameter++) {
+                        boolean clear = isClear(bin, x, y, circleMask(circleMasks, diameter));
+                        masks++;
+                        if (clear != ((diameter * diameter + diameter + 3) / 4 <= distance[x][y])) maskMismatches++;
+                        if (!clear) break;
+                    }
+                }
+            }
+        }
+        System.out.println("width maps: " + pixels + " pixels, " + mismatches + " mismatches");
+        System.out.println("circle masks: " + masks + " masks, " + maskMismatches + " mismatches");
+        if (pixels == 0 || masks == 0) throw new IllegalStateException("no width map checked");
+
+        //the circle growing never ends without black pixels, WidthMapCalculator stops at the largest clear mask
+        boolean[][] white = new boolean[301][257];
+        long time = System.nanoTime();
+        WidthMapCalculator calculator = new WidthMapCalculator(white, dp.getValue(Trace.tolerance) / 100.0);
+        time = System.nanoTime() - time;
+        long whiteMismatches = 0;
+        for (int x = 0; x < white.length; x++) {
+            for (int y = 0; y < white[0].length; y++) {
+                int border = Math.min(Math.min(x, white.length - 1 - x), Math.min(y, white[0].length - 1 - y));
+                if (calculator.getWidthMap().get(x, y) != 2 * border + 1) whiteMismatches++;
+            }
+        }
+        System.out.println("white frame: " + time / 1000000 + "ms, max diameter " + calculator.getMaxDiameter() + ", " +
+                whiteMismatches + " mismatches");
+    }
+
+    //circle growing width map of the tracers before WidthMapCalculator (CurveTracer.getWidthMap)
+    private static int[][] widthMapReference(boolean[][] bin, double tolerance, List<boolean[][]> circleMasks) {
+        final int width = bin.length, height = bin[0].length;
+        int[][] widthMap = new int[width][height];
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                if (bin[x][y]) continue;
+                int diameter = 1, count = 0, misses = 0;
+                double ratio = 0.0;
+                while (ratio <= tolerance) {
+                    diameter++;
+                    boolean[][] mask = circleMask(circleMasks, diameter);
+                    int range = mask.length / 2;
+                    for (int dx = -range; dx < range + 1; dx++) {
+                        if (x + dx < 0 || x + dx > width - 1) continue;
+                        for (int dy = -range; dy < range + 1; dy++) {
+                            if (!mask[range + dx][range + dy] || y + dy < 0 || y + dy > height - 1) continue;
+                            count++;
+                            if (bin[x + dx][y + dy]) misses++;
+                        }
+                    }
+                    ratio = (double) misses / (double) count;
+                }
+                widthMap[x][y] = diameter - 1;
+            }
+        }
+        return widthMap;
+    }
+
+    //Calc.circleMask(diameter), kept in circleMasks
+    private static boolean[][] circleMask(List<boolean[][]> circleMasks, int diameter) {
+        while (circleMasks.size() <= diameter) circleMasks.add(Calc.circleMask(circleMasks.size()));
+        return circleMasks.get(diameter);
+    }
+
+    private static boolean isClear(boolean[][] bin, int x, int y, boolean[][] mask) {
+        int range = mask.length / 2;
+        for (int dx = -range; dx <= range; dx++) {
+            for (int dy = -range; dy <= range; dy++) {
+                if (mask[range + dx][range + dy] && bin[x + dx][y + dy]) return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Micro benchmark of the LineSensor spoke walks on the line images of TestFilm: the lengths of all 360 spokes of
+     * every white pixel with SpokeTable and with the Point by Point walk LineSensor.LineInfo used before
+     * (spokeLengthReference). The lengths have to be the same, otherwise the line candidates change.
+     */
+    public static void benchmarkSpokeTable(Settings dp) {
+        final int directions = 360;
+        Point[][] lattice = TracerCache.getSpokeLattice(directions, 500);
+        long checked = 0;
+        for (ImageProcessor image : getLineImages(dp, "TestFilm")) {
+            boolean[][] bin = new BinaryImage(image.getIntArray(), 254).toBoolean();
+            List<Point> white = new ArrayList<>();
+            for (int x = 0; x < bin.length; x++) {
+                for (int y = 0; y < bin[0].length; y++) {
+                    if (!bin[x][y]) white.add(new Point(x, y));
+                }
+            }
+            int[] lengths = new int[white.size() * directions];
+            long mismatches = 0;
+            for (int run = 0; run < 3; run++) {
+                long time = System.nanoTime();
+                for (int i = 0; i < white.size(); i++) {
+                    for (int k = 0; k < directions; k++) {
+                        lengths[i * directions + k] = spokeLengthReference(lattice, bin, white.get(i), k);
+                    }
+                }
+                long walker = System.nanoTime() - time;
+
+                time = System.nanoTime();
+                SpokeTable table = new SpokeTable(lattice, bin);
+                mismatches = 0;
+                for (int i = 0; i < white.size(); i++) {
+                    Point p = white.get(i);
+                    for (int k = 0; k < directions; k++) {
+                        if (table.length(k, p.x, p.y) != lengths[i * directions + k]) mismatches++;
+                    }
+                }
+                long tabled = System.nanoTime() - time;
+                System.out.println(white.size() + " white pixels, walker " + walker / 1000000 + "ms, spoke table " +
+                        tabled / 1000000 + "ms (" + String.format("%.1f", (double) walker / tabled) + "x), " + mismatches + " mismatches");
+            }
+            checked += white.size();
+        }
+        if (checked == 0) throw new IllegalStateException("no spoke checked");
+    }
+
+    //spoke length of LineSensor.LineInfo before SpokeTable
+    private static int spokeLengthReference(Point[][] lattice, boolean[][] bin, Point point, int k) {
+        Point test_point = new Point(-1, -1);
+        int m = 0;
+        while (m < lattice[k].length) {
+            test_point.x = point.x + lattice[k][m].x;
+            test_point.y = point.y + lattice[k][m].y;
+            if (test_point.x >= 0 && test_point.x < bin.length && test_point.y >= 0 && test_point.y < bin[0].length
+                    && !bin[test_point.x][test_point.y]) {
+                m++;
+                //LineInfo copied the end point on every step
+                Point line_end_point = new Point(test_point);
+            } else {
+                break;
+            }
+        }
+        return m;
+    }
+
+
+    /**
+     * Equivalence test of the filament width measurement on the line images of TestSmallSet, with the filaments of
+     * LineSensor and CurveTracer: the measurement of every filament point (measureInPoint) has to be bit for bit the
+     * one of the implementation with Boolean2D, Point2D and lists it replaced (getMeasurementsReference), the widths
+     * updateFilamentWidth sets (trimmedAverage) have to be the rounded averages of filamentWidthReference.
+     */
+    public static void testFilamentWidth(Settings dp) {
+        long points = 0, pointMismatches = 0, filaments = 0, widthMismatches = 0;
+        WidthProbe probe = new WidthProbe();
+        for (ImageProcessor image : getLineImages(dp, "TestSmallSet")) {
+            boolean[][] bin = new BinaryImage(image.getIntArray(), 254).toBoolean();
+            for (Tracer tracer : new Tracer[]{new LineSensor(), new CurveTracer()}) {
+                List<AbstractFilament> traced = tracer.scanFilaments(image, dp.getValue(Trace.tolerance) / 100.0,
+                        dp.getValue(Trace.minlen), dp.getValue(Trace.minangle), dp.getValue(Trace.step));
+                //the measurement depends on the traced width, the references run before updateFilamentWidth
+                List<Double> widths = new ArrayList<>();
+                for (AbstractFilament filament : traced) {
+                    List<Double> reference = getMeasurementsReference(filament, bin);
+                    double[] measured = probe.measure(filament, bin);
+                    points += reference.size();
+                    if (measured[0] != reference.size()) {
+                        pointMismatches += reference.size();
+                    } else {
+                        for (int i = 0; i < reference.size(); i++) {
+                            if (Double.doubleToLongBits(measured[i + 1]) != Double.doubleToLongBits(reference.get(i))) pointMismatches++;
+                        }
+                    }
+                    widths.add(filamentWidthReference(reference, filament.getWidth()));
+                }
+                tracer.updateFilamentWidth(bin);
+                for (int i = 0; i < traced.size(); i++) {
+                    filaments++;
+                    //null marks a possible error, the width is kept then
+                    boolean error = widths.get(i) == null;
+                    if (traced.get(i).isPossibleError() != error || (!error && !roundsTo(widths.get(i), traced.get(i).getWidth()))) widthMismatches++;
+                }
+            }
+        }
+        System.out.println("measureInPoint: " + points + " points, " + pointMismatches + " mismatches");
+        System.out.println("updateFilamentWidth: " + filaments + " filaments, " + widthMismatches + " mismatches");
+        if (points == 0 || filaments == 0) throw new IllegalStateException("no filament width checked");
+    }
+
+    //exposes AbstractTracer.getMeasurements for testFilamentWidth
+    private static class WidthProbe extends LineSensor {
+        private double[] measure(AbstractFilament filament, boolean[][] bin) {
+            return getMeasurements(filament, bin, new double[16]);
+        }
+    }
+
+    //AbstractTracer.getMeasurements and measureInPoint before the allocation free measurement
+    private static List<Double> getMeasurementsReference(AbstractFilament filament, boolean[][] binImage) {
+        double assumedWidth = ((double) filament.getWidth() / Const.MF);
+        List<Double> listWidth = new ArrayList<>();
+        List<Point> points = filament.getPoints();
+        for (int i = 0; i < points.size(); i++) {
+            Point end = points.get(i + 1 < points.size() ? i + 1 : i - 1);
+            LineIterator iterator = new LineIterator(new Line2D.Double(points.get(i), end));
+            while (iterator.hasNext()) {
+                Point2D start = iterator.next();
+                double angleRAD = PointUtils.getAngleRAD(start, end);
+                double scanAngleOne = (Math.toRadians(90) + angleRAD);
+                if (scanAngleOne > Math.PI * 2) scanAngleOne -= Math.PI * 2;
+                double scanAngleTwo = (angleRAD - Math.toRadians(90));
+                if (scanAngleTwo < 0) scanAngleTwo += Math.PI * 2;
+                Boolean2D fuzzyBinImage = new Boolean2D(binImage);
+                boolean interruptOne = false, interruptTwo = false;
+                int distance = 1;
+                double width = 0;
+                while ((!interruptOne || !interruptTwo) && distance <= assumedWidth) {
+                    Point2D nextOne = new Point2D.Double(start.getX() + distance * Math.cos(scanAngleOne), start.getY() + distance * Math.sin(scanAngleOne));
+                    Point2D nextTwo = new Point2D.Double(start.getX() + distance * Math.cos(scanAngleTwo), start.getY() + distance * Math.sin(scanAngleTwo));
+                    if (!interruptOne) {
+                        double isSet = fuzzyBinImage.get(nextOne.getX(), nextOne.getY());
+                        width += (1 - isSet);
+                        if (isSet > 0.5) {
+                            interruptOne = true;
+                            width -= (1 - isSet);
+                        }
+                    }
+                    if (!interruptTwo) {
+                        double isSet = fuzzyBinImage.get(nextTwo.getX(), nextTwo.getY());
+                        width += (1 - isSet);
+                        if (isSet > 0.5) {
+                            interruptTwo = true;
+                            width -= (1 - isSet);
+                        }
+                    }
+                    distance++;
+                }
+                width += (1 - fuzzyBinImage.get(start.getX(), start.getY())) * 0.7d;
+                listWidth.add(width);
+            }
+        }
+        return listWidth;
+    }
+
+    //width AbstractTracer.updateFilamentWidth set before the trimmed average without sorting, null for a possible error
+    private static Double filamentWidthReference(List<Double> measurements, long width) {
+        List<Double> listWidth = new ArrayList<>(measurements);
+        double[] values = listWidth.stream().filter(s -> s > 0).mapToDouble(s -> s).sorted().toArray();
+        if (values.length == 0) return null;
+        double max = listWidth.stream().mapToDouble(s -> s).max().orElse(0);
+        double min = listWidth.stream().mapToDouble(s -> s).min().orElse(0);
+        listWidth.remove(max);
+        listWidth.remove(min);
+        return listWidth.stream().filter(s -> s > 0).mapToDouble(s -> s).average().orElse(1) * Const.MF;
+    }
+
+    /**
+     * The compensated sums of trimmedAverage and DoubleStream.average() agree up to rounding errors, the rounded
+     * width may then differ where the reference lies next to a half.
+     */
+    private static boolean roundsTo(double reference, long width) {
+        return Math.abs(reference - width) <= 0.5 + 1e-12 * Math.max(1, Math.abs(reference));
+    }
+
+
+    /**
+     * Benchmark of FilterLineGauss on the frames of TestSmallSet against the filter before the offset tables and the
+     * parallel rows (lineGaussReference), for several sigmas (range = ceil(3 sigma)) with and without a cell area.
+     * The sums are taken in the same order, the results have to be identical.
+     */
+    public static void benchmarkFilterLineGauss(Settings dp) {
+        for (File file : getProject(dp, "TestSmallSet").getImageFiles()) {
+            ImagePlus plus = IJ.openImage(file.getAbsolutePath());
+            if (plus == null) {
+                System.out.println("skipped " + file.getName() + ", not an image");
+                continue;
+            }
+            ImageProcessor image = plus.getProcessor().convertToByte(true);
+            //cell area: everything above the mean
+            IBinaryImage area = new BinaryImage(image.getIntArray(), (int) image.getStatistics().mean);
+            for (double sigma : new double[]{1, 2.5, 5, 10}) {
+                FilterLineGauss filter = new FilterLineGauss(sigma);
+                filter.preCalc();
+                for (IBinaryImage m_cell_area : Arrays.asList(null, area)) {
+                    for (int run = 0; run < 3; run++) {
+                        ImageProcessor expected = image.duplicate(), actual = image.duplicate();
+                        long time = System.nanoTime();
+                        lineGaussReference(expected, filter, m_cell_area);
+                        long reference = System.nanoTime() - time;
+
+                        time = System.nanoTime();
+                        filter.run(actual, m_cell_area);
+                        long current = System.nanoTime() - time;
+
+                        long mismatches = 0;
+                        for (int i = 0; i < image.getPixelCount(); i++) {
+                            if (expected.get(i) != actual.get(i)) mismatches++;
+                        }
+                        System.out.println(file.getName() + " sigma " + sigma + " range " + filter.getRange() +
+                                (m_cell_area == null ? "" : " cell area") + ": before " + reference / 1000000 + "ms, now " +
+                                current / 1000000 + "ms (" + String.format("%.1f", (double) reference / current) + "x), " +
+                                mismatches + " mismatches");
+                    }
+                }
+            }
+        }
+    }
+
+    //FilterLineGauss.run before the offset tables and the parallel rows
+    private static void lineGaussReference(ImageProcessor image, FilterLineGauss filter, IBinaryImage m_cell_area) {
+        final int width = image.getWidth(), height = image.getHeight(), range = filter.getRange();
+        final double[][] mask = filter.getMask();
+        final Point[][] lines = filter.getLines();
+        int[][] img = image.getIntArray();
+        int[][] imgExtended = new int[width + 2 * range][height + 2 * range];
+        for (int x = 0; x < width; x++) {
+            System.arraycopy(img[x], 0, imgExtended[x + range], range, height);
+        }
+        int[][] tmp = new int[width][];
+        for (int x = 0; x < width; x++) {
+            tmp[x] = img[x].clone();
+        }
+        for (int x = range; x < width + range; x++) {
+            for (int y = range; y < height + range; y++) {
+                if (m_cell_area == null || m_cell_area.getPixel(x - range, y - range)) {
+                    double max_ori_mean = -1;
+                    for (int ori = 0; ori < 4 * range; ori++) {
+                        double mean = imgExtended[x][y] * mask[0][0], gauss_sum = mask[0][0];
+                        for (int dist = 1; dist <= range; dist++) {
+                            int dx = lines[ori][dist].x, dy = lines[ori][dist].y;
+                            int mx = Math.abs(dx), my = Math.abs(dy);
+                            mean += (imgExtended[x + dx][y + dy] + imgExtended[x - dx][y - dy]) * mask[mx][my];
+                            gauss_sum += 2 * mask[mx][my];
+                        }
+                        mean /= gauss_sum;
+                        if (mean > max_ori_mean) {
+                            max_ori_mean = mean;
+                        }
+                    }
+                    tmp[x - range][y - range] = (max_ori_mean >= 0 ? (int) max_ori_mean : imgExtended[x][y]);
+                }
+            }
+        }
+        image.setIntArray(tmp);
+    }
+
+
+    //largest error of the separable and the fft sums relative to the largest direct sum of a mask
+    private static final double MASK_CORRELATOR_TOLERANCE = 1e-12;
+
+    /**
+     * Equivalence test of the MaskCorrelator backends on the frames of TestSmallSet and on a random image:
+     * for the masks of FilterCrossCorrelation with the sizes 1 to 15, the SEPARABLE and FFT cross sums have to
+     * match the DIRECT sums (the window sums before the backends) within MASK_CORRELATOR_TOLERANCE.
+     */
+    public static void testMaskCorrelator(Settings dp) {
+        List<int[][]> images = new ArrayList<>();
+        for (File file : getProject(dp, "TestSmallSet").getImageFiles()) {
+            ImagePlus plus = IJ.openImage(file.getAbsolutePath());
+            if (plus == null) {
+                System.out.println("skipped " + file.getName() + ", not an image");
+                continue;
+            }
+            images.add(plus.getProcessor().convertToByte(true).getIntArray());
+        }
+        images.add(randomImage(new Random(14), 301, 257));
+
+        int failures = 0;
+        for (int[][] image : images) {
+            for (int size = 1; size <= 15; size++) {
+                double[][][] masks = FilterCrossCorrelation.makeMasks(1, size);
+                double[][] direct = crossSums(new MaskCorrelator(masks, MaskCorrelator.Backend.DIRECT), image, masks.length);
+                for (MaskCorrelator.Backend backend : Arrays.asList(MaskCorrelator.Backend.SEPARABLE, MaskCorrelator.Backend.FFT)) {
+                    double[][] cross = crossSums(new MaskCorrelator(masks, backend), image, masks.length);
+                    double worst = 0;
+                    for (int m = 0; m < masks.length; m++) {
+                        double scale = 0, error = 0;
+                        for (int i = 0; i < direct[m].length; i++) {
+                            scale = Math.max(scale, Math.abs(direct[m][i]));
+                            error = Math.max(error, Math.abs(cross[m][i] - direct[m][i]));
+                        }
+                        worst = Math.max(worst, (scale > 0) ? error / scale : error);
+                    }
+                    boolean ok = worst <= MASK_CORRELATOR_TOLERANCE;
+                    if (!ok) failures++;
+                    System.out.println(image.length + "x" + image[0].length + " size " + size + " " + backend + ": " +
+                            String.format("%.2e", worst) + " relative error" + (ok ? "" : " FAILED"));
+                }
+            }
+        }
+
+        //masks of range 130 leave no inner part in the largest fft tile, forced and chosen backends must not be FFT
+        Random random = new Random(14);
+        double[][][] wide = new double[2][261][261];
+        for (double[][] mask : wide) {
+            for (double[] column : mask) {
+                for (int b = 0; b < column.length; b++) column[b] = random.nextDouble() - 0.5;
+            }
+        }
+        int[][] image = randomImage(random, 300, 280);
+        double[][] direct = crossSums(new MaskCorrelator(wide, MaskCorrelator.Backend.DIRECT), image, wide.length);
+        for (MaskCorrelator.Backend backend : Arrays.asList(MaskCorrelator.Backend.FFT, null)) {
+            MaskCorrelator correlator = new MaskCorrelator(wide, backend);
+            boolean ok = correlator.getBackend(0) != MaskCorrelator.Backend.FFT && correlator.getBackend(1) != MaskCorrelator.Backend.FFT;
+            double[][] cross = crossSums(correlator, image, wide.length);
+            for (int m = 0; m < wide.length; m++) {
+                for (int i = 0; i < direct[m].length; i++) {
+                    ok &= Math.abs(cross[m][i] - direct[m][i]) <= MASK_CORRELATOR_TOLERANCE * Math.max(1, Math.abs(direct[m][i]));
+                }
+            }
+            if (!ok) failures++;
+            System.out.println("range 130 " + backend + " gives " + correlator.getBackend(0) + (ok ? "" : " FAILED"));
+        }
+        System.out.println(failures + " failures");
+    }
+
+    /**
+     * Benchmark of the MaskCorrelator backends on a random 2048x2048 image. DIRECT and SEPARABLE (forced on masks
+     * of full rank) are only run up to size 6, the larger sizes take minutes.
+     */
+    public static void benchmarkMaskCorrelator(Settings dp) {
+        int[][] image = randomImage(new Random(14), 2048, 2048);
+        for (int size : new int[]{3, 6, 10, 15}) {
+            double[][][] masks = FilterCrossCorrelation.makeMasks(1, size);
+            for (MaskCorrelator.Backend backend : Arrays.asList(MaskCorrelator.Backend.DIRECT, MaskCorrelator.Backend.SEPARABLE,
+                    MaskCorrelator.Backend.FFT, null)) {
+                if (backend != MaskCorrelator.Backend.FFT && backend != null && size > 6) continue;
+                MaskCorrelator correlator = new MaskCorrelator(masks, backend);
+                String name = (backend == null) ? "auto " + Arrays.stream(MaskCorrelator.Backend.values()).map(b ->
+                        b + "=" + IntStream.range(0, masks.length).filter(m -> correlator.getBackend(m) == b).count())
+                        .collect(Collectors.joining(",", "(", ")")) : backend.toString();
+                long time = System.nanoTime();
+                crossSums(correlator, image, masks.length);
+                System.out.println("size " + size + " " + name + ": " + (System.nanoTime() - time) / 1000000 + "ms");
+            }
+        }
+    }
+
+    //cross sums of every mask, indexed x * height + y, 0 outside of the pixels the correlator reports
+    private static double[][] crossSums(MaskCorrelator correlator, int[][] image, int masks) {
+        final int height = image[0].length;
+        double[][] sums = new double[masks][image.length * height];
+        correlator.correlate(image, (m, cross, x0, x1, y0, y1) -> {
+            for (int x = x0; x < x1; x++) {
+                System.arraycopy(cross, x * height + y0, sums[m], x * height + y0, y1 - y0);
+            }
+        });
+        return sums;
+    }
+
+    private static int[][] randomImage(Random random, int width, int height) {
+        int[][] image = new int[width][height];
+        for (int[] column : image) {
+            for (int y = 0; y < height; y++) {
+                column[y] = random.nextInt(256);
+            }
+        }
+        return image;
+    }
+
+
+    /**
+     * Randomized equivalence test of Calc.dilate, erode, close, open and dilateAndErode against the stamping loops
+     * before the morphology engine (dilateReference, ...): noise, inverted noise and blobs in several image sizes,
+     * with circle masks, squares, diamonds, ellipses and rings. The results have to be pixel exact, where the old
+     * loops throw, the new ones have to throw the same exception.
+     * Images smaller than about three mask ranges are left out, the old loops do not end on them.
+     */
+    public static void testMorphology(Settings dp) {
+        Random random = new Random(20);
+        List<boolean[][]> masks = new ArrayList<>();
+        for (int d = 1; d <= 61; d += (d < 12 ? 1 : 7)) {
+            masks.add(Calc.circleMask(d));
+        }
+        for (int r = 1; r <= 4; r++) {
+            boolean[][] square = new boolean[2 * r + 1][2 * r + 1], diamond = new boolean[2 * r + 1][2 * r + 1],
+                    ellipse = new boolean[2 * r + 1][2 * r + 1], ring = Calc.circleMask(2 * r + 1);
+            for (int a = 0; a <= 2 * r; a++) {
+                for (int b = 0; b <= 2 * r; b++) {
+                    square[a][b] = true;
+                    diamond[a][b] = Math.abs(a - r) + Math.abs(b - r) <= r;
+                    ellipse[a][b] = 4 * (a - r) * (a - r) + (b - r) * (b - r) <= r * r;
+                }
+            }
+            ring[r][r] = false;
+            masks.addAll(Arrays.asList(square, diamond, ellipse, ring));
+        }
+
+        int cases = 0, failures = 0;
+        for (int[] size : new int[][]{{40, 30}, {7, 9}, {120, 90}, {300, 200}}) {
+            for (int kind = 0; kind < 3; kind++) {
+                for (int i = 0; i < masks.size(); i++) {
+                    boolean[][] mask = masks.get(i), mask2 = masks.get((i * 7 + 3) % masks.size());
+                    if (Math.min(size[0], size[1]) < 3 * (Math.max(mask.length, mask2.length) / 2) + 2) continue;
+                    boolean[][] image = randomBinary(random, size[0], size[1], kind);
+                    Map<String, Boolean> results = new LinkedHashMap<>();
+                    results.put("dilate", sameResult(() -> dilateReference(copy(image), mask), () -> Calc.dilate(copy(image), mask)));
+                    results.put("erode", sameResult(() -> erodeReference(copy(image), mask), () -> Calc.erode(copy(image), mask)));
+                    results.put("close", sameResult(() -> closeReference(copy(image), mask), () -> Calc.close(copy(image), mask)));
+                    results.put("open", sameResult(() -> openReference(copy(image), mask), () -> Calc.open(copy(image), mask)));
+                    results.put("dilateAndErode", sameResult(() -> dilateAndErodeReference(copy(image), mask, mask2),
+                            () -> Calc.dilateAndErode(copy(image), mask, mask2)));
+                    results.put("dilateAndErode swapped", sameResult(() -> dilateAndErodeReference(copy(image), mask2, mask),
+                            () -> Calc.dilateAndErode(copy(image), mask2, mask)));
+                    for (Map.Entry<String, Boolean> result : results.entrySet()) {
+                        cases++;
+                        if (!result.getValue()) {
+                            failures++;
+                            System.out.println(result.getKey() + " differs: " + size[0] + "x" + size[1] + " kind " + kind +
+                                    " mask " + i + " (" + mask.length + "), mask2 " + mask2.length);
+                        }
+                    }
+                }
+            }
+        }
+        System.out.println(cases + " cases, " + failures + " failures");
+    }
+
+    //same image, or the same exception type for the images the old loops fail on
+    private static boolean sameResult(Supplier<boolean[][]> reference, Supplier<boolean[][]> current) {
+        boolean[][] expected;
+        try {
+            expected = reference.get();
+        } catch (RuntimeException e) {
+            try {
+                current.get();
+                return false;
+            } catch (RuntimeException f) {
+                return e.getClass() == f.getClass();
+            }
+        }
+        return Arrays.deepEquals(expected, current.get());
+    }
+
+    //kind 0: sparse noise, 1: dense noise, 2: overlapping discs
+    private static boolean[][] randomBinary(Random random, int width, int height, int kind) {
+        boolean[][] image = new boolean[width][height];
+        if (kind < 2) {
+            for (int x = 0; x < width; x++) {
+                for (int y = 0; y < height; y++) {
+                    image[x][y] = (random.nextInt(10) == 0) == (kind == 0);
+                }
+            }
+        } else {
+            for (int k = 0; k < 6; k++) {
+                int cx = random.nextInt(width), cy = random.nextInt(height);
+                int radius = 1 + random.nextInt(Math.max(1, Math.min(width, height) / 3));
+                for (int x = 0; x < width; x++) {
+                    for (int y = 0; y < height; y++) {
+                        if ((x - cx) * (x - cx) + (y - cy) * (y - cy) < radius * radius) image[x][y] = !image[x][y];
+                    }
+                }
+            }
+        }
+        return image;
+    }
+
+    private static boolean[][] copy(boolean[][] image) {
+        boolean[][] copy = new boolean[image.length][];
+        for (int x = 0; x < image.length; x++) {
+            copy[x] = image[x].clone();
+        }
+        return copy;
+    }
+
+    //Calc.dilate, erode, close, open and dilateAndErode before the morphology engine
+
+    private static boolean[][] dilateReference(boolean[][] binary_image, boolean[][] mask) {
+        final int width = binary_image.length,
+                height = binary_image[0].length,
+                range = mask.length / 2;
+
+        boolean[][] out = new boolean[width][height];
+
+        // Dilation
+        for (int x = 0; x < width; x++) {
+            if (x == range) {
+                x = width - range;
+            }
+            for (int y = 0; y < height; y++) {
+                if (binary_image[x][y]) {
+                    int x_min = -Math.min(x, range),
+                            x_max = Math.min(width - x - 1, range),
+                            y_min = -Math.min(y, range),
+                            y_max = Math.min(height - y - 1, range);
+
+                    for (int a = x_min; a <= x_max; a++) {
+                        for (int b = y_min; b <= y_max; b++) {
+                            out[x + a][y + b] = mask[a + range][b + range] || out[x + a][y + b];
+                        }
+                    }
+                }
+            }
+        }
+
+        for (int y = 0; y < height; y++) {
+            if (y == range) {
+                y = height - range;
+            }
+            for (int x = 0; x < width; x++) {
+
+                if (binary_image[x][y]) {
+                    int x_min = -Math.min(x, range),
+                            x_max = Math.min(width - x - 1, range),
+                            y_min = -Math.min(y, range),
+                            y_max = Math.min(height - y - 1, range);
+
+                    for (int a = x_min; a <= x_max; a++) {
+                        for (int b = y_min; b <= y_max; b++) {
+                            out[x + a][y + b] = mask[a + range][b + range] || out[x + a][y + b];
+                        }
+                    }
+                }
+            }
+        }
+        for (int x = range; x < width - range; x++) {
+            for (int y = range; y < height - range; y++) {
+                if (binary_image[x][y]) {
+                    if (!binary_image[x - 1][y] || !binary_image[x + 1][y] ||
+                            !binary_image[x][y - 1] || !binary_image[x][y + 1]) {
+                        for (int a = -range; a <= range; a++) {
+                            for (int b = -range; b <= range; b++) {
+                                out[x + a][y + b] = mask[a + range][b + range] || out[x + a][y + b];
+                            }
+                        }
+                    } else {
+                        out[x][y] = true;
+                    }
+                }
+            }
+        }
+        return out;
+    }
+
+    private static boolean[][] erodeReference(boolean[][] binary_image, boolean[][] mask) {
+        final int width = binary_image.length,
+                height = binary_image[0].length,
+                range = mask.length / 2;
+
+        boolean[][] tmp = new boolean[width][height], out = new boolean[width][height];
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                tmp[x][y] = binary_image[x][y];
+                out[x][y] = binary_image[x][y];
+            }
+        }
+
+        for (int x = 0; x < width; x++) {
+            if (x == 2 * range) {
+                x = width - range;
+            }
+            for (int y = 0; y < height; y++) {
+                // Left and right boundary
+                if (!tmp[x][y] &&
+                        ((x > 0 && tmp[x - 1][y]) || (x < width - 1 && tmp[x + 1][y]) ||
+                                (y > 0 && tmp[x][y - 1]) || (y < height - 1 && tmp[x][y + 1]))) {
+                    for (int a = 0; a <= 2 * range; a++) {
+                        int x_a = x + a - range;
+                        if (x_a >= 0 && x_a < width) {
+                            for (int b = 0; b <= 2 * range; b++) {
+                                int y_b = y + b - range;
+                                if (y_b >= 0 && y_b < height && mask[a][b]) {
+                                    out[x_a][y_b] = false;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        for (int y = 0; y < height; y++) {
+            if (y == range) {
+                y = height - range;
+            }
+            for (int x = 0; x < width; x++) {
+                // Upper and lower boundary
+                if (!tmp[x][y] &&
+                        ((x > 0 && tmp[x - 1][y]) || (x < width - 1 && tmp[x + 1][y]) ||
+                                (y > 0 && tmp[x][y - 1]) || (y < height - 1 && tmp[x][y + 1]))) {
+                    for (int b = 0; b <= 2 * range; b++) {
+                        int y_b = y + b - range;
+                        if (y_b >= 0 && y_b < height) {
+                            for (int a = 0; a <= 2 * range; a++) {
+                                int x_a = x + a - range;
+                                if (x_a >= 0 && x_a < width && mask[a][b]) {
+                                    out[x_a][y_b] = false;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        // Interior
+        for (int x = range; x < width - range; x++) {
+            for (int y = range; y < height - range; y++) {
+                if (!tmp[x][y] &&
+                        (tmp[x - 1][y] || tmp[x + 1][y] || tmp[x][y - 1] || tmp[x][y + 1])) {
+                    for (int a = 0; a <= 2 * range; a++) {
+                        for (int b = 0; b <= 2 * range; b++) {
+                            int x_a = x + a - range, y_b = y + b - range;
+                            out[x_a][y_b] = out[x_a][y_b] && !mask[a][b];
+                        }
+                    }
+                }
+            }
+        }
+        return out;
+    }
+
+    private static boolean[][] closeReference(boolean[][] binary_image, boolean[][] mask) {
+        final int width = binary_image.length,
+                height = binary_image[0].length,
+                range = mask.length / 2,
+                width_plus = width + 2 * range,
+                height_plus = height + 2 * range;
+
+        boolean[][] tmp = new boolean[width_plus][height_plus];
+
+        // Dilation
+        for (int x = 0; x < width; x++) {
+            if (binary_image[x][0]) {
+                for (int a = 0; a <= 2 * range; a++) {
+                    for (int b = 0; b <= 2 * range; b++) {
+                        tmp[x + a][b] = mask[a][b] || tmp[x + a][b];
+                    }
+                }
+            }
+            if (binary_image[x][height - 1]) {
+                for (int a = 0; a <= 2 * range; a++) {
+                    for (int b = 0; b <= 2 * range; b++) {
+                        tmp[x + a][height - 1 + b] = mask[a][b] || tmp[x + a][height - 1 + b];
+                    }
+                }
+            }
+        }
+        for (int y = 0; y < height; y++) {
+            if (binary_image[0][y]) {
+                for (int a = 0; a <= 2 * range; a++) {
+                    for (int b = 0; b <= 2 * range; b++) {
+                        tmp[a][y + b] = mask[a][b] || tmp[a][y + b];
+                    }
+                }
+            }
+            if (binary_image[width - 1][y]) {
+                for (int a = 0; a <= 2 * range; a++) {
+                    for (int b = 0; b <= 2 * range; b++) {
+                        tmp[width - 1 + a][y + b] = mask[a][b] || tmp[width - 1 + a][y + b];
+                    }
+                }
+            }
+        }
+
+        for (int x = 1; x < width - 1; x++) {
+            for (int y = 1; y < height - 1; y++) {
+                if (binary_image[x][y]) {
+                    if (!binary_image[x - 1][y] || !binary_image[x + 1][y] ||
+                            !binary_image[x][y - 1] || !binary_image[x][y + 1]) {
+                        for (int a = 0; a <= 2 * range; a++) {
+                            for (int b = 0; b <= 2 * range; b++) {
+                                tmp[x + a][y + b] = mask[a][b] || tmp[x + a][y + b];
+                            }
+                        }
+                    } else {
+                        tmp[x + range + 1][y + range + 1] = true;
+                    }
+                }
+            }
+        }
+
+        // Copy dilated image to original
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                binary_image[x][y] = tmp[x + range][y + range];
+            }
+        }
+
+        // Erosion
+        for (int x = 0; x < width_plus; x++) {
+            if (x == 2 * range) {
+                x = width;
+            }
+            for (int y = 0; y < height_plus; y++) {
+                // Left and right boundary
+                if (!tmp[x][y] &&
+                        ((x > 0 && tmp[x - 1][y]) || (x < width_plus - 1 && tmp[x + 1][y]) ||
+                                (y > 0 && tmp[x][y - 1]) || (y < height_plus - 1 && tmp[x][y + 1]))) {
+                    for (int a = 0; a <= 2 * range; a++) {
+                        if (x - a >= 0 && x - a < width) {
+                            for (int b = 0; b <= 2 * range; b++) {
+                                if (y - b >= 0 && y - b < height && mask[a][b]) {
+                                    binary_image[x - a][y - b] = false;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        for (int y = 0; y < height_plus; y++) {
+            if (y == 2 * range) {
+                y = height;
+            }
+            for (int x = 0; x < width_plus; x++) {
+                // Upper and lower boundary
+                if (!tmp[x][y] &&
+                        ((x > 0 && tmp[x - 1][y]) || (x < width_plus - 1 && tmp[x + 1][y]) ||
+                                (y > 0 && tmp[x][y - 1]) || (y < height_plus - 1 && tmp[x][y + 1]))) {
+                    for (int b = 0; b <= 2 * range; b++) {
+                        if (y - b >= 0 && y - b < height) {
+                            for (int a = 0; a <= 2 * range; a++) {
+                                if (x - a >= 0 && x - a < width && mask[a][b]) {
+                                    binary_image[x - a][y - b] = false;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        // Interior
+        for (int x = 2 * range; x < width; x++) {
+            for (int y = 2 * range; y < height; y++) {
+                if (!tmp[x][y] &&
+                        (tmp[x - 1][y] || tmp[x + 1][y] || tmp[x][y - 1] || tmp[x][y + 1])) {
+                    for (int a = 0; a <= 2 * range; a++) {
+                        for (int b = 0; b <= 2 * range; b++) {
+                            binary_image[x - a][y - b] = binary_image[x - a][y - b] && !mask[a][b];
+                        }
+                    }
+                }
+            }
+        }
+        return binary_image;
+    }
+
+    private static boolean[][] openReference(boolean[][] binary_image, boolean[][] mask) {
+        return dilateReference(erodeReference(binary_image, mask), mask);
+    }
+
+    private static boolean[][] dilateAndErodeReference(boolean[][] binary_image, boolean[][] mask1, boolean[][] mask2) {
+        final int width = binary_image.length,
+                height = binary_image[0].length,
+                range1 = mask1.length / 2,
+                range2 = mask2.length / 2,
+                width_plus = width + 2 * range1,
+                height_plus = height + 2 * range1;
+
+        boolean[][] tmp = new boolean[width_plus][height_plus];
+
+        // Dilation
+        for (int x = 0; x < width; x++) {
+            if (binary_image[x][0]) {
+                for (int a = 0; a <= 2 * range1; a++) {
+                    for (int b = 0; b <= 2 * range1; b++) {
+                        tmp[x + a][b] = mask1[a][b] || tmp[x + a][b];
+                    }
+                }
+            }
+            if (binary_image[x][height - 1]) {
+                for (int a = 0; a <= 2 * range1; a++) {
+                    for (int b = 0; b <= 2 * range1; b++) {
+                        tmp[x + a][height - 1 + b] = mask1[a][b] || tmp[x + a][height - 1 + b];
+                    }
+                }
+            }
+        }
+        for (int y = 0; y < height; y++) {
+            if (binary_image[0][y]) {
+                for (int a = 0; a <= 2 * range1; a++) {
+                    for (int b = 0; b <= 2 * range1; b++) {
+                        tmp[a][y + b] = mask1[a][b] || tmp[a][y + b];
+                    }
+                }
+            }
+            if (binary_image[width - 1][y]) {
+                for (int a = 0; a <= 2 * range1; a++) {
+                    for (int b = 0; b <= 2 * range1; b++) {
+                        tmp[width - 1 + a][y + b] = mask1[a][b] || tmp[width - 1 + a][y + b];
+                    }
+                }
+            }
+        }
+
+        for (int x = 1; x < width - 1; x++) {
+            for (int y = 1; y < height - 1; y++) {
+                if (binary_image[x][y]) {
+                    if (!binary_image[x - 1][y] || !binary_image[x + 1][y] ||
+                            !binary_image[x][y - 1] || !binary_image[x][y + 1]) {
+                        for (int a = 0; a <= 2 * range1; a++) {
+                            for (int b = 0; b <= 2 * range1; b++) {
+                                tmp[x + a][y + b] = mask1[a][b] || tmp[x + a][y + b];
+                            }
+                        }
+                    } else {
+                        tmp[x + range1 + 1][y + range1 + 1] = true;
+                    }
+                }
+            }
+        }
+
+        // Copy dilated image to original
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                binary_image[x][y] = tmp[x + range1][y + range1];
+            }
+        }
+
+        // Erosion
+        int d = range1 - range2,
+                xy_lo = range1 + range2,
+                x_hi = width + d,
+                y_hi = height + d;
+        if (d < 0) {
+            // Left and right boundary
+            for (int x = 0; x < -d; x++) {
+                for (int y = 0; y < height; y++) {
+                    binary_image[x][y] = false;
+                    binary_image[width - 1 - x][y] = false;
+                }
+            }
+            // Upper and lower boundary
+            for (int y = 0; y < -d; y++) {
+                for (int x = 0; x < width; x++) {
+                    binary_image[x][y] = false;
+                    binary_image[x][height - 1 - y] = false;
+                }
+            }
+        }
+        for (int x = 0; x < width_plus; x++) {
+            if (x == xy_lo) {
+                x = x_hi;
+            }
+            for (int y = 0; y < height_plus; y++) {
+                // Left and right boundary
+                // If point is black but has a white neighbor, blacken everything inside the mask.
+                if (!tmp[x][y] &&
+                        ((x > 0 && tmp[x - 1][y]) || (x < width_plus - 1 && tmp[x + 1][y]) ||
+                                (y > 0 && tmp[x][y - 1]) || (y < height_plus - 1 && tmp[x][y + 1]))) {
+                    int xd = x - d, yd = y - d;
+                    for (int a = 0; a <= 2 * range2; a++) {
+                        if (xd - a >= 0 && xd - a < width) {
+                            for (int b = 0; b <= 2 * range2; b++) {
+                                if (yd - b >= 0 && yd - b < height && mask2[a][b]) {
+                                    binary_image[xd - a][yd - b] = false;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        for (int y = 0; y < height_plus; y++) {
+            if (y == xy_lo) {//possible infinite loop
+                y = y_hi;
+            }
+            for (int x = 0; x < width_plus; x++) {
+                // Upper and lower boundary
+                if (!tmp[x][y] &&
+                        ((x > 0 && tmp[x - 1][y]) || (x < width_plus - 1 && tmp[x + 1][y]) ||
+                                (y > 0 && tmp[x][y - 1]) || (y < height_plus - 1 && tmp[x][y + 1]))) {
+                    int xd = x - d, yd = y - d;
+                    for (int b = 0; b <= 2 * range2; b++) {
+                        if (yd - b >= 0 && yd - b < height) {
+                            for (int a = 0; a <= 2 * range2; a++) {
+                                if (xd - a >= 0 && xd - a < width && mask2[a][b]) {
+                                    binary_image[xd - a][yd - b] = false;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        // Interior
+        for (int x = xy_lo; x < x_hi; x++) {
+            for (int y = xy_lo; y < y_hi; y++) {
+                if (!tmp[x][y] &&
+                        (tmp[x - 1][y] || tmp[x + 1][y] || tmp[x][y - 1] || tmp[x][y + 1])) {
+                    int xd = x - d, yd = y - d;
+                    for (int a = 0; a <= 2 * range2; a++) {
+                        for (int b = 0; b <= 2 * range2; b++) {
+                            binary_image[xd - a][yd - b] = binary_image[xd - a][yd - b] && !mask2[a][b];
+                        }
+                    }
+                }
+            }
+        }
+        return binary_image;
+    }
+
+
+    /**
+     * Equivalence test of BinaryImage (PackedBits kernels) against the per pixel implementation before
+     * (LegacyBinaryImage) for every IBinaryImage method and the BinaryImage methods that changed, on noise, inverted
+     * noise and blobs in sizes below, at and across word boundaries, with both Prefs.blackBackground settings.
+     */
+    public static void testBinaryImage(Settings dp) throws IOException {
+        final boolean blackBackground = Prefs.blackBackground;
+        Random random = new Random(21);
+        List<IBinaryImage> masks = new ArrayList<>();
+        //no 1x1 mask, Calc.dilate runs out of the image on it (before and now)
+        for (int d : new int[]{3, 5, 8, 13}) {
+            masks.add(Calc.circleMaskBinary(d));
+        }
+        boolean[][] ring = Calc.circleMask(7);
+        ring[3][3] = false;
+        masks.add(new BinaryImage(ring));
+
+        File stored = File.createTempFile("binary", ".png"), storedLegacy = File.createTempFile("legacy", ".png");
+        int cases = 0, failures = 0;
+        try {
+            for (boolean black : new boolean[]{false, true}) {
+                Prefs.blackBackground = black;
+                for (int[] size : new int[][]{{7, 9}, {64, 64}, {65, 33}, {130, 97}}) {
+                    for (int kind = 0; kind < 3; kind++) {
+                        boolean[][] pixels = randomBinary(random, size[0], size[1], kind),
+                                others = randomBinary(random, size[0], size[1], (kind + 1) % 3);
+                        Map<String, Boolean> results = new LinkedHashMap<>();
+                        BinaryImage image = new BinaryImage(pixels), other = new BinaryImage(others);
+                        LegacyBinaryImage legacy = new LegacyBinaryImage(pixels), legacyOther = new LegacyBinaryImage(others);
+
+                        results.put("toBoolean", Arrays.deepEquals(image.toBoolean(), legacy.toBoolean()) &&
+                                Arrays.deepEquals(image.toBoolean(true), legacy.toBoolean(true)));
+                        results.put("getPixelSetCount", image.getPixelSetCount() == legacy.getPixelSetCount());
+                        results.put("getPoints", image.getPoints().equals(legacy.getPoints()));
+                        results.put("compare", image.compare(other) == legacy.compare(legacyOther) &&
+                                image.compare(image.clone()) == legacy.compare(legacy.clone()));
+                        results.put("getByteProcessor", Arrays.equals((byte[]) image.getByteProcessor().getPixels(),
+                                (byte[]) legacy.getByteProcessor().getPixels()));
+                        results.put("getBufferedImage", sameRGB(image.getBufferedImage(), legacy.getBufferedImage()));
+
+                        //changes on the open processor have to arrive in the bits, including the inversion of big areas
+                        for (IBinaryImage img : Arrays.asList(image, legacy)) {
+                            ByteProcessor processor = img.getByteProcessor();
+                            processor.setRoi(size[0] / 4, size[1] / 4, size[0] / 2 + 1, size[1] / 2 + 1);
+                            processor.invert();
+                            img.flush();
+                            img.close();
+                        }
+                        results.put("open/flush/close", same(image, legacy));
+                        image.close();
+                        legacy.close();
+                        results.put("getBufferedImage closed", sameRGB(image.getBufferedImage(), legacy.getBufferedImage()));
+
+                        ImageExporter.exportImage(image, stored);
+                        ImageExporter.exportImage(legacy, storedLegacy);
+                        results.put("store", Arrays.equals(Files.readAllBytes(stored.toPath()), Files.readAllBytes(storedLegacy.toPath())));
+
+                        for (int i = 0; i < masks.size(); i++) {
+                            //the old loops do not work on images smaller than about three mask ranges
+                            if (Math.min(size[0], size[1]) < 3 * (masks.get(i).getWidth() / 2) + 2) continue;
+                            IBinaryImage dilated = image.clone(), dilatedLegacy = legacy.cloneLegacy();
+                            dilated.dilate(masks.get(i));
+                            dilatedLegacy.dilate(masks.get(i));
+                            results.put("dilate mask " + i, same(dilated, dilatedLegacy));
+                            IBinaryImage eroded = image.clone(), erodedLegacy = legacy.cloneLegacy();
+                            eroded.erode(masks.get(i));
+                            erodedLegacy.erode(masks.get(i));
+                            results.put("erode mask " + i, same(eroded, erodedLegacy));
+                        }
+
+                        IBinaryImage and = image.clone(), andLegacy = legacy.cloneLegacy();
+                        and.and(other);
+                        andLegacy.and(legacyOther);
+                        results.put("and", same(and, andLegacy));
+                        IBinaryImage or = image.clone(), orLegacy = legacy.cloneLegacy();
+                        or.or(other);
+                        orLegacy.or(legacyOther);
+                        results.put("or", same(or, orLegacy));
+
+                        results.put("copyToCenter", same(image.copyToCenter(size[0] + 5, size[1] + 8),
+                                legacy.copyToCenter(size[0] + 5, size[1] + 8)));
+                        boolean sub = true;
+                        for (Rectangle rect : Arrays.asList(new Rectangle(0, 0, size[0], size[1]), new Rectangle(1, 2, 3, 4),
+                                new Rectangle(size[0] / 3, size[1] / 5, size[0], size[1]), new Rectangle(3, 1, 64, 2),
+                                new Rectangle(size[0], 0, 4, 4))) {
+                            sub &= same(image.getSubImage(rect), legacy.getSubImage(rect));
+                        }
+                        results.put("getSubImage", sub);
+
+                        for (int k = 0; k < 50; k++) {
+                            int x = random.nextInt(size[0]), y = random.nextInt(size[1]);
+                            if (random.nextBoolean()) {
+                                image.setPixel(x, y);
+                                legacy.setPixel(x, y);
+                            } else {
+                                image.clearPixel(x, y);
+                                legacy.clearPixel(x, y);
+                            }
+                        }
+                        results.put("setPixel/clearPixel", same(image, legacy));
+
+                        image.enterMemoryState();
+                        legacy.enterMemoryState();
+                        results.put("enterMemoryState", same(image, legacy) && image.isInMemoryState() == legacy.isInMemoryState());
+                        image.exitMemoryState();
+                        legacy.exitMemoryState();
+                        results.put("exitMemoryState", same(image, legacy) && image.isInMemoryState() == legacy.isInMemoryState());
+
+                        for (Map.Entry<String, Boolean> result : results.entrySet()) {
+                            cases++;
+                            if (!result.getValue()) {
+                                failures++;
+                                System.out.println(result.getKey() + " differs: " + size[0] + "x" + size[1] + " kind " + kind +
+                                        " blackBackground " + black);
+                            }
+                        }
+                    }
+                }
+            }
+        } finally {
+            Prefs.blackBackground = blackBackground;
+            stored.delete();
+            storedLegacy.delete();
+        }
+        System.out.println(cases + " cases, " + failures + " failures");
+    }
+
+    //same size, pixels, inversion and true value
+    private static boolean same(IBinaryImage a, IBinaryImage b) {
+        return a.getWidth() == b.getWidth() && a.getHeight() == b.getHeight() && a.getTrueValue() == b.getTrueValue() &&
+                Arrays.deepEquals(a.toBoolean(), b.toBoolean()) &&
+                (!(a instanceof BinaryImage) || ((BinaryImage) a).isInverted() == ((BinaryImage) b).isInverted());
+    }
+
+    private static boolean sameRGB(BufferedImage a, BufferedImage b) {
+        return a.getWidth() == b.getWidth() && a.getHeight() == b.getHeight() &&
+                Arrays.equals(a.getRGB(0, 0, a.getWidth(), a.getHeight(), null, 0, a.getWidth()),
+                        b.getRGB(0, 0, b.getWidth(), b.getHeight(), null, 0, b.getWidth()));
+    }
+
+    /**
+     * BinaryImage before the PackedBits kernels: the methods that changed with them are the per pixel versions again,
+     * the processor is kept in a field of its own because the one of BinaryImage is private.
+     */
+    private static class LegacyBinaryImage extends BinaryImage {
+        private SoftReference<ImagePlus> byteProcessor;
+
+        LegacyBinaryImage(boolean[][] array) {
+            super(array);
+        }
+
+        LegacyBinaryImage(int width, int height) {
+            super(width, height);
+        }
+
+        //like clone(), but stays a LegacyBinaryImage
+        LegacyBinaryImage cloneLegacy() {
+            flush();
+            LegacyBinaryImage clone = new LegacyBinaryImage(getWidth(), getHeight());
+            if (isInverted()) clone.invert();
+            clone.setBits((BitSet) getBits().clone());
+            clone.setTrueValue(getTrueValue());
+            return clone;
+        }
+
+        @Override
+        public boolean[][] toBoolean(boolean flip) {
+            boolean[][] img = new boolean[getWidth()][getHeight()];
+            for (int x = 0; x < getWidth(); x++) {
+                for (int y = 0; y < getHeight(); y++) {
+                    img[x][y] = (flip) ? !getPixel(x, y) : getPixel(x, y);
+                }
+            }
+            return img;
+        }
+
+        @Override
+        public ByteProcessor getByteProcessor() {
+            if (byteProcessor != null && byteProcessor.get() != null)
+                return (ByteProcessor) byteProcessor.get().getProcessor();
+            open();
+            return (ByteProcessor) byteProcessor.get().getProcessor();
+        }
+
+        @Override
+        public BufferedImage getBufferedImage() {
+            if (byteProcessor != null && byteProcessor.get() != null) return byteProcessor.get().getBufferedImage();
+            BufferedImage output = new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_4BYTE_ABGR);
+            final int white = Color.white.getRGB();
+            for (int x = 0; x < getWidth(); x++)
+                for (int y = 0; y < getHeight(); y++) {
+                    if (getPixel(x, y)) {
+                        output.setRGB(x, y, white);
+                    }
+                }
+            return output;
+        }
+
+        @Override
+        public void open() {
+            if (byteProcessor != null && byteProcessor.get() != null) return;
+            ByteProcessor byteProcessor = new ByteProcessor(getWidth(), getHeight());
+            int fg = Prefs.blackBackground ? 255 : 0;
+            final int foreground = isInverted() ? 255 - fg : fg;
+            byteProcessor.setBackgroundValue(255 - foreground);
+            int[][] arrVals = byteProcessor.getIntArray();
+            for (int x = 0; x < getWidth(); x++) {
+                for (int y = 0; y < getHeight(); y++) {
+                    arrVals[x][y] = (this.getPixel(x, y)) ? foreground : (255 - foreground);
+                }
+            }
+            byteProcessor.setIntArray(arrVals);
+            this.byteProcessor = new SoftReference<>(new ImagePlus("bin_image", byteProcessor));
+        }
+
+        @Override
+        public void flush() {
+            if (byteProcessor == null || byteProcessor.get() == null) return;
+            ByteProcessor bP = (ByteProcessor) byteProcessor.get().getProcessor();
+            if (bP != null) {
+                int[][] arr = bP.getIntArray();
+                int foreground = 0;
+                if (Prefs.blackBackground) {
+                    foreground = 255;
+                }
+                if (isInverted()) foreground = 255 - foreground;
+                getBits().clear();
+                for (int i = 0; i < getWidth(); i++) {
+                    for (int j = 0; j < getHeight(); j++) {
+                        if (arr[i][j] == foreground) {
+                            setPixel(i, j);
+                        }
+                    }
+                }
+                if (getPixelSetCount() > (getWidth() * getHeight() / 2)) {
+                    invert();
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            if (byteProcessor == null) return;
+            byteProcessor.clear();
+        }
+
+        @Override
+        public double compare(IBinaryImage image) {
+            final int width = getWidth(), height = getHeight();
+            long cnt = 0;
+            for (int x = 0; x < width; x++) {
+                for (int y = 0; y < height; y++) {
+                    if (getPixel(x, y) == image.getPixel(x, y)) cnt++;
+                }
+            }
+            return (double) cnt / (width * height);
+        }
+
+        @Override
+        public void dilate(IBinaryImage mask) {
+            flush();
+            close();
+            boolean[][] result = Calc.dilate(toBoolean(), mask.toBoolean());
+            if (result == null) return;
+            getBits().clear();
+            for (int x = 0; x < getWidth(); x++) {
+                for (int y = 0; y < getHeight(); y++) {
+                    if (result[x][y]) this.setPixel(x, y);
+                }
+            }
+        }
+
+        @Override
+        public void erode(IBinaryImage mask) {
+            flush();
+            close();
+            boolean[][] result = Calc.erode(toBoolean(), mask.toBoolean());
+            if (result == null) return;
+            getBits().clear();
+            for (int x = 0; x < getWidth(); x++) {
+                for (int y = 0; y < getHeight(); y++) {
+                    if (result[x][y]) this.setPixel(x, y);
+                }
+            }
+        }
+
+        @Override
+        public List<Point2D> getPoints() {
+            List<Point2D> points = new ArrayList<>();
+            for (int i = 0; i < getWidth(); i++)
+                for (int j = 0; j < getHeight(); j++) {
+                    if (getPixel(i, j)) points.add(new Point(i, j));
+                }
+            points.sort(Comparator.comparingDouble(Point2D::getX));
+            return points;
+        }
+
+        @Override
+        public BinaryImage copyToCenter(int newWidth, int newHeight) {
+            BinaryImage binaryImage = new BinaryImage(newWidth, newHeight);
+            binaryImage.setTrueValue(getTrueValue());
+            final int stepX = (newWidth - getWidth()) / 2;
+            final int stepY = (newHeight - getHeight()) / 2;
+            for (int x = 0; x < getWidth(); x++) {
+                for (int y = 0; y < getHeight(); y++) {
+                    if (getPixel(x, y)) binaryImage.setPixel(x + stepX, y + stepY);
+                }
+            }
+            return binaryImage;
+        }
+
+        @Override
+        public BinaryImage getSubImage(int x, int y, int w, int h) {
+            BinaryImage sub = new BinaryImage(w, h);
+            for (int i = x; i < x + w && i < getWidth(); i++) {
+                for (int j = y; j < y + h && j < getHeight(); j++) {
+                    if (getPixel(i, j)) sub.setPixel(i - x, j - y);
+                }
+            }
+            return sub;
+        }
+    }
+
+
+    /**
+     * Benchmark of the line marking of LineSensor on the flat IntField/BitField against the jagged int[][]/boolean[][]
+     * fields before, on the frames of TestSmallSet. LineInfo is private, so the lines LineSensor traced are replayed:
+     * center, lattice orientation and lengths come from head and tail of every filament, the mask from its width.
+     * Both versions run the check, shortening and marking of markLines on every frame repeats times and have to give the
+     * same orientation field.
+     */
+    public static void benchmarkMarkLines(Settings dp) {
+        final int directions = 360, orientations = directions / 2, repeats = 20, minimalAngle = dp.getValue(Trace.minangle);
+        Point[][] lattice = TracerCache.getSpokeLattice(directions, 500);
+        List<ImageProcessor> images = getLineImages(dp, "TestSmallSet");
+        List<List<MarkedLine>> lines = new ArrayList<>();
+        for (ImageProcessor image : images) {
+            List<MarkedLine> frame = new ArrayList<>();
+            for (AbstractFilament filament : new LineSensor().scanFilaments(image, dp.getValue(Trace.tolerance) / 100.0,
+                    dp.getValue(Trace.minlen), dp.getValue(Trace.minangle), dp.getValue(Trace.step))) {
+                MarkedLine line = MarkedLine.of(filament, lattice, directions, image.getWidth(), image.getHeight());
+                if (line != null) frame.add(line);
+            }
+            lines.add(frame);
+        }
+        if (lines.stream().allMatch(List::isEmpty)) throw new IllegalStateException("no line to mark");
+        int maxWidth = lines.stream().flatMap(List::stream).mapToInt(line -> line.width).max().orElse(1);
+        boolean[][][] jaggedMasks = new boolean[maxWidth + 2][][];
+        for (int d = 1; d < jaggedMasks.length; d++) {
+            jaggedMasks[d] = Calc.circleMask(d);
+        }
+        BitField[] flatMasks = TracerCache.getCircleMasks(maxWidth + 1);
+
+        for (int run = 0; run < 5; run++) {
+            long jagged = 0, flat = 0, mismatches = 0, marked = 0;
+            for (int f = 0; f < images.size(); f++) {
+                final int width = images.get(f).getWidth(), height = images.get(f).getHeight();
+                int[][] jaggedField = null;
+                IntField flatField = null;
+                long time = System.nanoTime();
+                for (int repeat = 0; repeat < repeats; repeat++) {
+                    jaggedField = new int[width][height];
+                    for (int[] column : jaggedField) Arrays.fill(column, -1);
+                    for (MarkedLine line : lines.get(f)) {
+                        markLineJagged(jaggedField, jaggedMasks[line.width + 1], lattice, orientations, minimalAngle, line);
+                    }
+                }
+                jagged += System.nanoTime() - time;
+
+                time = System.nanoTime();
+                for (int repeat = 0; repeat < repeats; repeat++) {
+                    flatField = new IntField(width, height, -1);
+                    for (MarkedLine line : lines.get(f)) {
+                        markLineFlat(flatField, flatMasks[line.width + 1], lattice, orientations, minimalAngle, line);
+                    }
+                }
+                flat += System.nanoTime() - time;
+
+                for (int x = 0; x < width; x++) {
+                    for (int y = 0; y < height; y++) {
+                        if (jaggedField[x][y] != flatField.get(x, y)) mismatches++;
+                        if (jaggedField[x][y] != -1) marked++;
+                    }
+                }
+            }
+            System.out.println(lines.stream().mapToInt(List::size).sum() + " lines, " + marked + " marked pixels, jagged " +
+                    jagged / 1000000 + "ms, flat " + flat / 1000000 + "ms (" + String.format("%.1f", (double) jagged / flat) +
+                    "x), " + mismatches + " mismatches");
+        }
+    }
+
+    //line of LineSensor.markLines, reconstructed from a traced filament
+    private static class MarkedLine {
+        private final Point point;
+        private final int orientation, length_in_max_dir, length_in_opposite_dir, width;
+
+        private MarkedLine(Point point, int orientation, int length_in_max_dir, int length_in_opposite_dir, int width) {
+            this.point = point;
+            this.orientation = orientation;
+            this.length_in_max_dir = length_in_max_dir;
+            this.length_in_opposite_dir = length_in_opposite_dir;
+            this.width = width;
+        }
+
+        private static MarkedLine of(AbstractFilament filament, Point[][] lattice, int directions, int width, int height) {
+            List<Point> points = filament.getPoints();
+            Point head = points.get(0), tail = points.get(points.size() - 1);
+            Point center = new Point((head.x + tail.x) / 2, (head.y + tail.y) / 2);
+            int direction = (int) Math.round(Math.atan2(head.y - tail.y, head.x - tail.x) / (2 * Math.PI) * directions);
+            int orientation = ((direction % directions) + directions) % (directions / 2);
+            //lattice point j has the maximum norm j + 1
+            int length = Math.max(Math.abs(head.x - tail.x), Math.abs(head.y - tail.y)) / 2;
+            int max_dir = inside(center, lattice[orientation], length, width, height);
+            int opposite_dir = inside(center, lattice[orientation + directions / 2], length, width, height);
+            //LineSensor writes 2/3 of the mask diameter for diameters of 3 and more
+            long traced = filament.getWidth() / Const.M;
+            int diameter = (int) (traced < 3 ? traced : (3 * traced + 1) / 2);
+            return (diameter < 1) ? null : new MarkedLine(center, orientation, max_dir, opposite_dir, diameter);
+        }
+
+        private static int inside(Point center, Point[] ray, int length, int width, int height) {
+            while (length > 0 && !(center.x + ray[length - 1].x >= 0 && center.x + ray[length - 1].x < width &&
+                    center.y + ray[length - 1].y >= 0 && center.y + ray[length - 1].y < height)) {
+                length--;
+            }
+            return length;
+        }
+    }
+
+    private static int markAngle(int a, int b, int orientations) {
+        int diff = Math.abs(a - b);
+        return (diff > orientations / 2 ? orientations - diff : diff);
+    }
+
+    //LineSensor.markLines before IntField and BitField, without the filament output
+    private static void markLineJagged(int[][] field, boolean[][] circle, Point[][] lattice, int orientations, int minimal_angle_step, MarkedLine line) {
+        final int width = field.length, height = field[0].length, orientation = line.orientation, range = circle.length / 2;
+        final Point point = line.point;
+        int length_in_maximum_direction = line.length_in_max_dir, length_in_opposite_direction = line.length_in_opposite_dir;
+        int length = length_in_maximum_direction + length_in_opposite_direction + 1, already_present = 0;
+        for (int i = 0; i < length_in_maximum_direction; i++) {
+            int tx = point.x + lattice[orientation][i].x, ty = point.y + lattice[orientation][i].y;
+            if (field[tx][ty] != -1 && markAngle(orientation, field[tx][ty], orientations) < minimal_angle_step) already_present++;
+        }
+        for (int i = 0; i < length_in_opposite_direction; i++) {
+            int tx = point.x + lattice[orientation + orientations][i].x, ty = point.y + lattice[orientation + orientations][i].y;
+            if (field[tx][ty] != -1 && markAngle(orientation, field[tx][ty], orientations) < minimal_angle_step) already_present++;
+        }
+        if (already_present > 0) {
+            int diff = -1;
+            while (diff < minimal_angle_step && length_in_maximum_direction > 0) {
+                int tx = point.x + lattice[orientation][length_in_maximum_direction - 1].x;
+                int ty = point.y + lattice[orientation][length_in_maximum_direction - 1].y;
+                if (field[tx][ty] == -1) break;
+                diff = markAngle(orientation, field[tx][ty], orientations);
+                if (diff < minimal_angle_step) length_in_maximum_direction--;
+            }
+            diff = -1;
+            while (diff < minimal_angle_step && length_in_opposite_direction > 0) {
+                int tx = point.x + lattice[orientation + orientations][length_in_opposite_direction - 1].x;
+                int ty = point.y + lattice[orientation + orientations][length_in_opposite_direction - 1].y;
+                if (field[tx][ty] == -1) break;
+                diff = markAngle(orientation, field[tx][ty], orientations);
+                if (diff < minimal_angle_step) length_in_opposite_direction--;
+            }
+            //LineSensor queues shortened lines again, the replay drops them
+            if (length_in_opposite_direction + length_in_maximum_direction + 1 < length) return;
+        }
+        if (already_present < 0.3 * length) {
+            for (int x = 0; x < 2 * range + 1; x++) {
+                for (int y = 0; y < 2 * range + 1; y++) {
+                    if (circle[x][y]) {
+                        int p_x = point.x + x - range, p_y = point.y + y - range;
+                        if (p_x >= 0 && p_x < width && p_y >= 0 && p_y < height) field[p_x][p_y] = orientation;
+                        for (int i = 0; i < length_in_maximum_direction; i++) {
+                            int tx = p_x + lattice[orientation][i].x, ty = p_y + lattice[orientation][i].y;
+                            if (tx >= 0 && tx < width && ty >= 0 && ty < height) field[tx][ty] = orientation;
+                        }
+                        for (int i = 0; i < length_in_opposite_direction; i++) {
+                            int tx = p_x + lattice[orientation + orientations][i].x, ty = p_y + lattice[orientation + orientations][i].y;
+                            if (tx >= 0 && tx < width && ty >= 0 && ty < height) field[tx][ty] = orientation;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    //LineSensor.markLines on IntField and BitField, without the filament output
+    private static void markLineFlat(IntField field, BitField circle, Point[][] lattice, int orientations, int minimal_angle_step, MarkedLine line) {
+        final int width = field.getWidth(), height = field.getHeight(), orientation = line.orientation, range = circle.getWidth() / 2;
+        final Point point = line.point;
+        int length_in_maximum_direction = line.length_in_max_dir, length_in_opposite_direction = line.length_in_opposite_dir;
+        int length = length_in_maximum_direction + length_in_opposite_direction + 1, already_present = 0;
+        for (int i = 0; i < length_in_maximum_direction; i++) {
+            int tx = point.x + lattice[orientation][i].x, ty = point.y + lattice[orientation][i].y;
+            if (field.get(tx, ty) != -1 && markAngle(orientation, field.get(tx, ty), orientations) < minimal_angle_step) already_present++;
+        }
+        for (int i = 0; i < length_in_opposite_direction; i++) {
+            int tx = point.x + lattice[orientation + orientations][i].x, ty = point.y + lattice[orientation + orientations][i].y;
+            if (field.get(tx, ty) != -1 && markAngle(orientation, field.get(tx, ty), orientations) < minimal_angle_step) already_present++;
+        }
+        if (already_present > 0) {
+            int diff = -1;
+            while (diff < minimal_angle_step && length_in_maximum_direction > 0) {
+                int tx = point.x + lattice[orientation][length_in_maximum_direction - 1].x;
+                int ty = point.y + lattice[orientation][length_in_maximum_direction - 1].y;
+                if (field.get(tx, ty) == -1) break;
+                diff = markAngle(orientation, field.get(tx, ty), orientations);
+                if (diff < minimal_angle_step) length_in_maximum_direction--;
+            }
+            diff = -1;
+            while (diff < minimal_angle_step && length_in_opposite_direction > 0) {
+                int tx = point.x + lattice[orientation + orientations][length_in_opposite_direction - 1].x;
+                int ty = point.y + lattice[orientation + orientations][length_in_opposite_direction - 1].y;
+                if (field.get(tx, ty) == -1) break;
+                diff = markAngle(orientation, field.get(tx, ty), orientations);
+                if (diff < minimal_angle_step) length_in_opposite_direction--;
+            }
+            if (length_in_opposite_direction + length_in_maximum_direction + 1 < length) return;
+        }
+        if (already_present < 0.3 * length) {
+            for (int x = 0; x < 2 * range + 1; x++) {
+                for (int y = 0; y < 2 * range + 1; y++) {
+                    if (circle.get(x, y)) {
+                        int p_x = point.x + x - range, p_y = point.y + y - range;
+                        if (p_x >= 0 && p_x < width && p_y >= 0 && p_y < height) field.set(p_x, p_y, orientation);
+                        for (int i = 0; i < length_in_maximum_direction; i++) {
+                            int tx = p_x + lattice[orientation][i].x, ty = p_y + lattice[orientation][i].y;
+                            if (tx >= 0 && tx < width && ty >= 0 && ty < height) field.set(tx, ty, orientation);
+                        }
+                        for (int i = 0; i < length_in_opposite_direction; i++) {
+                            int tx = p_x + lattice[orientation + orientations][i].x, ty = p_y + lattice[orientation + orientations][i].y;
+                            if (tx >= 0 && tx < width && ty >= 0 && ty < height) field.set(tx, ty, orientation);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+
     public static void testIllustrateNew(Settings dp) {
         ProjectData projectData = new ProjectData();
         projectData.setRootDir(new File(testDirectoryRootPath));
@@ -11,14 +11,18 @@ import ij.ImagePlus;
 import ij.io.Opener;
 import core.calculation.OFCalculator;
 import core.cell.CellPlugin;
+import core.cell.DataFilaments;
 import core.cell.ShapeContainer;
 import core.image.Entry;
 import core.image.IBinaryImage;
+import core.image.ImageLoader;
 import core.image.ImageWrapper;
 import core.settings.*;
 import core.tracers.CurveTracer;
 import core.tracers.LineSensor;
 import core.tracers.Tracer;
+import core.tracers.TracerCache;
+import core.tracers.TracingResultCache;
 import util.io.FilamentCsvExport;
 
 import javax.imageio.ImageIO;
@@ -55,7 +59,9 @@ public class BatchProcessor {
 
     }
 
-    private int calculateJunkSize() {
+    private int calculateJunkSize(Settings settings) {
+        //the frames of a MappedStack are off-heap, the whole time-lapse is processed as one stack
+        if (settings.getValueAsBoolean(Load.mappedStack, false)) return Integer.MAX_VALUE;
         //approximate acceptable size of imageWrapper, depending on available memory
         double available = MixedUtils.getApproxAvailableMemory();
         System.out.println("available:" + available);
@@ -71,7 +77,7 @@ public class BatchProcessor {
     }
 
 
-    private ImageWrapper initBasic(int junkSize, List<File> files, ProjectData projectData, Dimension2D maxDimension, @Nullable Logger logger) throws Exception {
+    private ImageWrapper initBasic(int junkSize, List<File> files, ProjectData projectData, Dimension2D maxDimension, @Nullable ImageLoader loader, @Nullable Logger logger) throws Exception {
         if (logger != null) logger.info("initBasic(" + junkSize + "," + files.size() + "," + maxDimension + ")");
         List<File> junk;
         if (junkSize > files.size()) {
@@ -81,7 +87,7 @@ public class BatchProcessor {
             junk = new ArrayList<>(files.subList(0, junkSize));
             files.removeAll(junk);
         }
-        ImageWrapper wrapper = new ImageWrapper(junk, projectData.getSettings(), maxDimension);
+        ImageWrapper wrapper = new ImageWrapper(junk, projectData.getSettings(), maxDimension, loader);
         //do scaling before area computation
         int scale = projectData.getSettings().getValue(Pre.scale);//....
         if (scale != 1) {
@@ -91,6 +97,24 @@ public class BatchProcessor {
         return wrapper;
     }
 
+    /**
+     * Loader which decodes the images of the next chunk while the current one is processed, see Load.prefetchFrames.
+     * The files are not reordered, the loader returns them chunk by chunk (see initBasic) and each chunk
+     * in path order, as the ImageWrapper of the chunk takes them.
+     *
+     * @return null if prefetching is turned off
+     */
+    @Nullable
+    private ImageLoader getLoader(List<File> files, int junkSize, Settings settings) {
+        List<File> order = new ArrayList<>(files.size());
+        for (int start = 0; start < files.size(); start += Math.min(junkSize, files.size() - start)) {
+            List<File> junk = new ArrayList<>(files.subList(start, start + Math.min(junkSize, files.size() - start)));
+            Collections.sort(junk);
+            order.addAll(junk);
+        }
+        return ImageLoader.of(order, settings);
+    }
+
     private Dimension2D getMaxDimension(List<File> files) {
         Dimension2D maxDimension = new Dimension(0, 0);
         //set max dimension
@@ -144,7 +168,7 @@ public class BatchProcessor {
                                      @Nullable BiConsumer<Entry, Logger> entryConsumer,
                                      @Nullable BiConsumer<List<Entry>, Logger> postProcessing) throws Exception {
         //calculate batch-size
-        int junkSize = calculateJunkSize();
+        int junkSize = calculateJunkSize(projectData.getSettings());
         List<File> files = projectData.getImageFiles();
         Dimension2D maxDimension = getMaxDimension(files);
 
@@ -153,20 +177,25 @@ public class BatchProcessor {
 
         //no need for copying the list, because its already a new list object, see core.ProjectDataNew
         List<Entry> entryListAll = new ArrayList<>();
-        do {//do-while loop
-            //if restrict to area is active, the aggregated area from the last image from the previous loop run has to be given as parameter
-            ImageWrapper wrapper = initBasic(junkSize, files, projectData, maxDimension, logger);
-            //pre processing is here
-            if (preProcessing != null) preProcessing.accept(wrapper, logger);
-            System.out.println("BatchProcessor::batchProcess --- after preProcessing");
-            //main processing
-            if (entryConsumer != null)
-                MixedUtils.getStream(wrapper.getEntryList(), forceParallel).forEach((entry) -> entryConsumer.accept(entry, logger));
-            System.out.println("BatchProcessor::batchProcess --- after entryConsumer");
-            if (postProcessing != null)
-                entryListAll.addAll(wrapper.getEntryList());
-            wrapper.closeImage();
-        } while (files.size() > 0);
+        ImageLoader loader = getLoader(files, junkSize, projectData.getSettings());
+        try {
+            do {//do-while loop
+                //if restrict to area is active, the aggregated area from the last image from the previous loop run has to be given as parameter
+                ImageWrapper wrapper = initBasic(junkSize, files, projectData, maxDimension, loader, logger);
+                //pre processing is here
+                if (preProcessing != null) preProcessing.accept(wrapper, logger);
+                System.out.println("BatchProcessor::batchProcess --- after preProcessing");
+                //main processing
+                if (entryConsumer != null)
+                    MixedUtils.getStream(wrapper.getEntryList(), forceParallel).forEach((entry) -> entryConsumer.accept(entry, logger));
+                System.out.println("BatchProcessor::batchProcess --- after entryConsumer");
+                if (postProcessing != null)
+                    entryListAll.addAll(wrapper.getEntryList());
+                wrapper.closeImage();
+            } while (files.size() > 0);
+        } finally {
+            if (loader != null) loader.close();
+        }
         if (postProcessing != null) postProcessing.accept(entryListAll,logger);
         System.out.println("BatchProcessor::batchProcess --- after postProcessing");
         //storing project file is done in ui
@@ -194,7 +223,7 @@ public class BatchProcessor {
             Pair<ImageWrapper, Logger>> preProcessing, @Nullable BiConsumer<Entry, Logger> entryConsumer,
                                        @Nullable BiConsumer<List<Entry>, Logger> postProcessing) throws Exception {
         //calculate batch-size
-        int junkSize = calculateJunkSize();
+        int junkSize = calculateJunkSize(projectData.getSettings());
         List<File> files = projectData.getImageFiles();
         //no need for copying the list, because its already a new list object, see core.ProjectDataNew
         List<Entry> entryListAll = new ArrayList<>();
@@ -203,23 +232,28 @@ public class BatchProcessor {
 
         Logger logger = getLogger(projectData);
 
-        do {//do-while loop
-            //if restrict to area is active, the aggregated area from the last image from the previous loop run has to be given as parameter
-            ImageWrapper wrapper = initBasic(junkSize, files, projectData, maxDimension, logger);
-            System.out.println("BatchProcessor::batchProcess --- after initBasic");
-            //pre processing is here
-            if (preProcessing != null) preProcessing.accept(lastShape, new Pair<>(wrapper, logger));
-            System.out.println("BatchProcessor::batchProcess --- after preProcessing");
-            //get last shape of this junk
-            lastShape = wrapper.getEntryList().get(wrapper.getEntryList().size() - 1).getShape();
-            //main processing
-            if (entryConsumer != null)
-                MixedUtils.getStream(wrapper.getEntryList(), forceParallel).forEach(entry -> entryConsumer.accept(entry, logger));
-            System.out.println("BatchProcessor::batchProcess --- after entryConsumer");
-            if (postProcessing != null) entryListAll.addAll(wrapper.getEntryList());
-
-            wrapper.closeImage();
-        } while (files.size() > 0);
+        ImageLoader loader = getLoader(files, junkSize, projectData.getSettings());
+        try {
+            do {//do-while loop
+                //if restrict to area is active, the aggregated area from the last image from the previous loop run has to be given as parameter
+                ImageWrapper wrapper = initBasic(junkSize, files, projectData, maxDimension, loader, logger);
+                System.out.println("BatchProcessor::batchProcess --- after initBasic");
+                //pre processing is here
+                if (preProcessing != null) preProcessing.accept(lastShape, new Pair<>(wrapper, logger));
+                System.out.println("BatchProcessor::batchProcess --- after preProcessing");
+                //get last shape of this junk
+                lastShape = wrapper.getEntryList().get(wrapper.getEntryList().size() - 1).getShape();
+                //main processing
+                if (entryConsumer != null)
+                    MixedUtils.getStream(wrapper.getEntryList(), forceParallel).forEach(entry -> entryConsumer.accept(entry, logger));
+                System.out.println("BatchProcessor::batchProcess --- after entryConsumer");
+                if (postProcessing != null) entryListAll.addAll(wrapper.getEntryList());
+
+                wrapper.closeImage();
+            } while (files.size() > 0);
+        } finally {
+            if (loader != null) loader.close();
+        }
         if (postProcessing != null) postProcessing.accept(entryListAll, logger);
         System.out.println("BatchProcessor::batchProcess --- after postProcessing");
         LogManager.getLogManager().reset();//release all logger resources
@@ -372,6 +406,9 @@ public class BatchProcessor {
      * @throws Exception
      */
     public void batchProcess(ProjectData projectData, FilterQueue fQPreProcessing, FilterQueue fQLineSensor) throws Exception {
+        //stored next to the project xml, so re-running a project with the same binary images skips the tracing
+        final TracingResultCache resultCache = projectData.getSettings().getValue(Trace.cache, 0) != 0 ?
+                new TracingResultCache(new File(projectData.getXmlPath(), "tracing_cache")) : null;
         BiConsumer<Entry, Logger> entryConsumer = (entry, logger) -> {
             try {
                 Tracer tracer = null;
@@ -380,6 +417,7 @@ public class BatchProcessor {
                 } else {
                     tracer = new LineSensor();
                 }
+                tracer.setResultCache(resultCache);
 
                 Dimension2D maxDimension = new Dimension(entry.getProcessor().getWidth(), entry.getProcessor().getHeight());
 
@@ -387,8 +425,12 @@ public class BatchProcessor {
                 ShapeContainer shape = entry.getShape();
                 IBinaryImage tmpBin = null;
                 if (shape != null && shape.getSelectedArea() != null) tmpBin = shape.getSelectedArea().getBinaryImage();
-                IBinaryImage interior = entry.getDataFilament().scanFilaments(entry.getProcessor(), tmpBin, projectData.getSettings(), tracer);
+                IBinaryImage interior = entry.getDataFilament().scanFilaments(entry.getProcessor(), tmpBin,
+                        DataFilaments.getTracingRoi(shape, projectData.getSettings()), projectData.getSettings(), tracer);
                 entry.getOrientationFieldContainer().setOrientationField(tracer.getOrientationField());
+                if (tracer.isPartial() && logger != null) {
+                    logger.log(Level.WARNING, "Tracing time budget exceeded, filaments are partial: " + entry.getPath());
+                }
 
                 if (projectData.getSettings().getValue(Trace.split) * projectData.getSettings().getValue(Trace.curve) > 0) {
                     entry.getDataFilament().splitToLinear(projectData.getSettings().getValue(Trace.step));//previously fixed value of 10
@@ -479,7 +521,10 @@ public class BatchProcessor {
                 });//ignore reporter
             }, entryConsumer, postProcessingConsumer);
         }
-
+        FilamentSensor.debugMessage("BatchProcessor::batchProcess() --- tracer cache hits: " + TracerCache.getHits() + ", misses: " + TracerCache.getMisses());
+        if (resultCache != null) {
+            FilamentSensor.debugMessage("BatchProcessor::batchProcess() --- tracing result cache hits: " + resultCache.getHits() + ", misses: " + resultCache.getMisses());
+        }
     }
 
 
@@ -21,8 +21,12 @@ package core;
  */
 
 import util.Annotations.NotNull;
+import util.Annotations.Nullable;
 import core.image.BinaryImage;
+import core.image.CroppedBinaryImage;
 import core.image.IBinaryImage;
+import core.image.PackedBits;
+import core.image.RunLengthImage;
 
 import java.awt.*;
 import java.awt.geom.Point2D;
@@ -98,6 +102,71 @@ public final class Calc {
     }
 
 
+    /**
+     * Exact squared Euclidean distance transform (Felzenszwalb & Huttenlocher).
+     * Each entry holds the squared distance to the nearest true pixel,
+     * Integer.MAX_VALUE if the image contains no true pixel at all.
+     * Runs in O(width * height).
+     */
+    public static int[][] squaredDistanceTransform(boolean[][] binary_image) {
+        final int width = binary_image.length, height = binary_image[0].length;
+        final double inf = (double) width * width + (double) height * height + 1;
+        double[][] columns = new double[width][height];
+        int max = Math.max(width, height);
+        double[] f = new double[max], d = new double[max], z = new double[max + 1];
+        int[] v = new int[max];
+
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                f[y] = binary_image[x][y] ? 0 : inf;
+            }
+            distanceTransform1d(f, height, d, v, z);
+            System.arraycopy(d, 0, columns[x], 0, height);
+        }
+
+        int[][] result = new int[width][height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                f[x] = columns[x][y];
+            }
+            distanceTransform1d(f, width, d, v, z);
+            for (int x = 0; x < width; x++) {
+                result[x][y] = (d[x] >= inf ? Integer.MAX_VALUE : (int) d[x]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Lower envelope of parabolas for one row of the squared distance transform.
+     * d, v and z are scratch buffers of at least n (n + 1 for z) entries.
+     */
+    private static void distanceTransform1d(double[] f, int n, double[] d, int[] v, double[] z) {
+        int k = 0;
+        v[0] = 0;
+        z[0] = Double.NEGATIVE_INFINITY;
+        z[1] = Double.POSITIVE_INFINITY;
+        for (int q = 1; q < n; q++) {
+            double s = ((f[q] + q * q) - (f[v[k]] + v[k] * v[k])) / (2.0 * (q - v[k]));
+            while (s <= z[k]) {
+                k--;
+                s = ((f[q] + q * q) - (f[v[k]] + v[k] * v[k])) / (2.0 * (q - v[k]));
+            }
+            k++;
+            v[k] = q;
+            z[k] = s;
+            z[k + 1] = Double.POSITIVE_INFINITY;
+        }
+        k = 0;
+        for (int q = 0; q < n; q++) {
+            while (z[k + 1] < q) {
+                k++;
+            }
+            d[q] = (q - v[k]) * (double) (q - v[k]) + f[v[k]];
+        }
+    }
+
+
     public static IBinaryImage nextPixelsMask() {
         BinaryImage cross = new BinaryImage(3, 3);
         cross.setPixel(1, 0);
@@ -489,6 +558,50 @@ public final class Calc {
         return out;
     }
 
+    /**
+     * Word parallel dilate(boolean[][], boolean[][]) for the masks Morphology supports.
+     *
+     * @return null if the mask is not supported, the boolean[][] version has to be used then
+     */
+    @Nullable
+    public static PackedBits dilate(PackedBits binary_image, boolean[][] mask) {
+        Morphology morphology = (mask == null || mask.length % 2 == 0 || mask[0].length != mask.length) ? null : Morphology.of(mask);
+        return (morphology == null) ? null : morphology.dilate(binary_image);
+    }
+
+    /**
+     * Word parallel erode(boolean[][], boolean[][]) for the masks Morphology supports.
+     *
+     * @return null if the mask is not supported, the boolean[][] version has to be used then
+     */
+    @Nullable
+    public static PackedBits erode(PackedBits binary_image, boolean[][] mask) {
+        Morphology morphology = (mask == null || mask.length % 2 == 0 || mask[0].length != mask.length) ? null : Morphology.of(mask);
+        return (morphology == null) ? null : morphology.erode(binary_image);
+    }
+
+    /**
+     * dilate(boolean[][], boolean[][]) on the runs of binary_image for the masks Morphology supports.
+     *
+     * @return null if the mask is not supported
+     */
+    @Nullable
+    public static RunLengthImage dilate(RunLengthImage binary_image, boolean[][] mask) {
+        Morphology morphology = (mask == null || mask.length % 2 == 0 || mask[0].length != mask.length) ? null : Morphology.of(mask);
+        return (morphology == null) ? null : morphology.dilate(binary_image);
+    }
+
+    /**
+     * erode(boolean[][], boolean[][]) on the runs of binary_image for the masks Morphology supports.
+     *
+     * @return null if the mask is not supported
+     */
+    @Nullable
+    public static RunLengthImage erode(RunLengthImage binary_image, boolean[][] mask) {
+        Morphology morphology = (mask == null || mask.length % 2 == 0 || mask[0].length != mask.length) ? null : Morphology.of(mask);
+        return (morphology == null) ? null : morphology.erode(binary_image);
+    }
+
     public static boolean[][] dilate(boolean[][] binary_image, boolean[][] mask) {
         if (binary_image == null || binary_image.length == 0 || binary_image[0].length == 0 ||
                 mask == null || mask.length % 2 == 0 || mask[0].length != mask.length) {
@@ -498,6 +611,11 @@ public final class Calc {
             return null;
         }
 
+        Morphology morphology = Morphology.of(mask);
+        if (morphology != null) {
+            return morphology.dilate(binary_image, 0);
+        }
+
         final int width = binary_image.length,
                 height = binary_image[0].length,
                 range = mask.length / 2;
@@ -579,6 +697,15 @@ public final class Calc {
                 width_plus = width + 2 * range,
                 height_plus = height + 2 * range;
 
+        Morphology morphology = Morphology.of(mask);
+        if (morphology != null) {
+            boolean[][] closed = morphology.erode(morphology.dilate(binary_image, range));
+            for (int x = 0; x < width; x++) {
+                System.arraycopy(closed[x + range], range, binary_image[x], 0, height);
+            }
+            return binary_image;
+        }
+
         boolean[][] tmp = new boolean[width_plus][height_plus];
 
         // Dilation
@@ -719,6 +846,20 @@ public final class Calc {
                 width_plus = width + 2 * range1,
                 height_plus = height + 2 * range1;
 
+        Morphology morphology1 = Morphology.of(mask1), morphology2 = Morphology.of(mask2);
+        if (morphology1 != null && morphology2 != null) {
+            boolean[][] result = morphology2.erode(morphology1.dilate(binary_image, range1));
+            // Pixels closer than range2 - range1 to the boundary are cleared like in the loops below
+            final int border = Math.max(0, range2 - range1);
+            for (int x = 0; x < width; x++) {
+                for (int y = 0; y < height; y++) {
+                    binary_image[x][y] = result[x + range1][y + range1] && x >= border && x < width - border &&
+                            y >= border && y < height - border;
+                }
+            }
+            return binary_image;
+        }
+
         boolean[][] tmp = new boolean[width_plus][height_plus];
 
         // Dilation
@@ -883,6 +1024,11 @@ public final class Calc {
             return null;
         }
 
+        Morphology morphology = Morphology.of(mask);
+        if (morphology != null) {
+            return morphology.erode(binary_image);
+        }
+
         final int width = binary_image.length,
                 height = binary_image[0].length,
                 range = mask.length / 2;
@@ -1288,11 +1434,9 @@ public final class Calc {
             }
 
 
-        List<IBinaryImage> shapes = clusters.values().stream().distinct().filter(points -> points.size() > minimalArea).map(points -> {
-            IBinaryImage tmp = new BinaryImage(width, height);
-            points.forEach(p -> tmp.setPixel((int) p.getX(), (int) p.getY()));
-            return tmp;
-        }).sorted(Comparator.comparingInt(IBinaryImage::getPixelSetCount)).collect(Collectors.toList());
+        List<IBinaryImage> shapes = clusters.values().stream().distinct().filter(points -> points.size() > minimalArea).<IBinaryImage>map(points ->
+                cropped(points, width, height)
+        ).sorted(Comparator.comparingInt(IBinaryImage::getPixelSetCount)).collect(Collectors.toList());
         Collections.reverse(shapes);
         return shapes;
     }
@@ -1307,6 +1451,19 @@ public final class Calc {
      * @throws NullPointerException on input==null || width==0 || height==0
      */
     public static List<IBinaryImage> largestObject(@NotNull IBinaryImage binary_image, int minimalArea) {
+        return largestObject(binary_image, minimalArea, true);
+    }
+
+    /**
+     * creates a binary image for each object (sorted list, starting with largest area)
+     *
+     * @param binary_image binary image which should be split into areas
+     * @param minimalArea  minimal area, everything smaller is not in the result
+     * @param crop         if true the objects are CroppedBinaryImage's, which only store their bounding box, BinaryImage's of the whole image otherwise
+     * @return returns a sorted(by area, starting with largest area) list of objects in the input binary image
+     * @throws NullPointerException on input==null || width==0 || height==0
+     */
+    public static List<IBinaryImage> largestObject(@NotNull IBinaryImage binary_image, int minimalArea, boolean crop) {
 
         Objects.requireNonNull(binary_image);
         if (binary_image.getWidth() == 0 || binary_image.getHeight() == 0)
@@ -1353,6 +1510,7 @@ public final class Calc {
 
         //create binary image for each object
         List<IBinaryImage> shapes = fragments.values().stream().filter(points -> points.size() > minimalArea).map(points -> {
+            if (crop) return cropped(points, width, height);
             IBinaryImage tmp = new BinaryImage(binary_image.getWidth(), binary_image.getHeight());
             points.forEach(p -> tmp.setPixel(p.x, p.y));
             return tmp;
@@ -1370,6 +1528,19 @@ public final class Calc {
     }
 
 
+    //object of points, stored in its bounding box only
+    private static IBinaryImage cropped(Collection<? extends Point2D> points, int width, int height) {
+        Rectangle box = null;
+        for (Point2D p : points) {
+            if (box == null) box = new Rectangle((int) p.getX(), (int) p.getY(), 1, 1);
+            else box.add(new Rectangle((int) p.getX(), (int) p.getY(), 1, 1));
+        }
+        IBinaryImage tmp = new CroppedBinaryImage((box == null) ? new Rectangle() : box, width, height);
+        points.forEach(p -> tmp.setPixel((int) p.getX(), (int) p.getY()));
+        return tmp;
+    }
+
+
     public static Point[][] latticeInit(int radius) {
         Point lines[][] = new Point[4 * radius][radius + 1];
         for (int direction = 0; direction < radius; direction++) {
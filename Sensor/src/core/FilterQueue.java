@@ -9,6 +9,7 @@ import core.cell.ShapeContainer;
 import core.image.Entry;
 import core.image.IBinaryImage;
 import core.image.ImageWrapper;
+import ij.process.ImageProcessor;
 import util.Annotations.NotNull;
 import util.Annotations.Nullable;
 import util.MixedUtils;
@@ -24,6 +25,8 @@ public class FilterQueue implements Serializable {
 
     private List<IFilter> filters;
     private BooleanProperty changed;
+    private boolean fused = true;
+    private transient FilterQueueMemo memo;
 
 
     private ChangeListener<Object> listener = ((observable, oldValue, newValue) -> {
@@ -115,41 +118,25 @@ public class FilterQueue implements Serializable {
         filters.parallelStream().filter(filter -> filter instanceof IFilterPrecalc).forEach(filter -> ((IFilterPrecalc) filter).preCalc());
         if (progressReporter != null) progressReporter.accept(0.1f);
         final float singlePercent = (1f - 0.1f) / (filters.size() + wrapper.getSize());
-        List<Entry> entryList = wrapper.getEntryList();
-        filters.forEach(filter -> {//has to be sequential
-            if (filter instanceof IImageFilterAreaDependant) {
-                Entry entry = wrapper.getEntryList().get(idx);
-                ShapeContainer shape = entry.getShape();
-                IBinaryImage binArea = null;
-                if (shape != null) {
-                    if (((IImageFilterAreaDependant) filter).isAreaOrExtArea() && shape.getAggregatedArea() != null) {
-                        binArea = shape.getAggregatedArea();
-                    } else if (shape.getAggregatedExtArea() != null) {
-                        binArea = shape.getAggregatedExtArea();
-                    }
-                    if (binArea != null && binArea.isInMemoryState()) {
-                        binArea = binArea.clone();
-                        binArea.exitMemoryState();
-                    }
-                }
-                try {
-                    ((IImageFilterAreaDependant) filter).run(entry.getProcessor(), binArea);
-                } catch (NullPointerException np) {
-                    FilamentSensor.debugError(np.getMessage());
-                }
-                if (progressReporter != null) progressReporter.accept(singlePercent);
-
-            } else if (filter instanceof IImageFilter) {
-                Entry entry = wrapper.getEntryList().get(idx);
-                ((IImageFilter) filter).run(entry.getProcessor());
-                if (progressReporter != null) progressReporter.accept(singlePercent);
-            }
-        });
+        Entry entry = wrapper.getEntryList().get(idx);
+        List<Entry> entryList = Collections.singletonList(entry);
+        String[] keys = memoKeys(entryList, false);
+        for (int i = restoreMemo(keys, entryList, progressReporter, singlePercent); i < filters.size(); ) {
+            int end = segmentEnd(i);
+            runChain(i, end, entry, progressReporter, singlePercent);
+            storeMemo(keys, end - 1, entryList);
+            i = end;
+        }
+        entry.releaseProcessor();
 
     }
 
 
     /**
+     * Runs the filters entry by entry: between two IStackFilters every entry goes through all
+     * filters on its own and the entries are processed in parallel. IStackFilters are barriers,
+     * they run on the whole stack after all entries are done.
+     *
      * @param imageWrapper
      * @param progressReporter reports every single progress, not the sum of current progress(for example: 0.1,0.1,0.1 instead of 0.1,0.2,0.3)
      */
@@ -160,41 +147,226 @@ public class FilterQueue implements Serializable {
         if (progressReporter != null) progressReporter.accept(0.1f);
         final float singlePercent = (1f - 0.1f) / (filters.size() + imageWrapper.getSize());
         List<Entry> entryList = imageWrapper.getEntryList();
-        filters.forEach(filter -> {//has to be sequential
-            if (filter instanceof IStackFilter) {
-                ((IStackFilter) filter).run(imageWrapper.getImage());
-            } else if (filter instanceof IImageFilterAreaDependant) {
-
-                MixedUtils.getStream(entryList, false).forEach(entry -> {
-                    ShapeContainer shape = entry.getShape();
-                    IBinaryImage binArea = null;
-                    if (shape != null) {
-                        if (((IImageFilterAreaDependant) filter).isAreaOrExtArea() && shape.getAggregatedArea() != null) {
-                            binArea = shape.getAggregatedArea();
-                        } else if (shape.getAggregatedExtArea() != null) {
-                            binArea = shape.getAggregatedExtArea();
-                        }
-                        if (binArea != null && binArea.isInMemoryState()) {
-                            binArea = binArea.clone();
-                            binArea.exitMemoryState();
-                        }
-                    }
-                    try {
-                        ((IImageFilterAreaDependant) filter).run(entry.getProcessor(), binArea);
-                    } catch (NullPointerException np) {
-                        FilamentSensor.debugError(np.getMessage());
-                    }
-                    if (progressReporter != null) progressReporter.accept(singlePercent);
-                });
-            } else if (filter instanceof IImageFilter) {
-                MixedUtils.getStream(entryList, false).forEach(entry -> {
-                    ((IImageFilter) filter).run(entry.getProcessor());
+        String[] keys = memoKeys(entryList, true);
+        for (int i = restoreMemo(keys, entryList, progressReporter, singlePercent); i < filters.size(); ) {
+            if (filters.get(i) instanceof IStackFilter) {
+                //entries of a MappedStack are written back before the stack filter reads the stack
+                imageWrapper.releaseProcessors();
+                ((IStackFilter) filters.get(i)).run(imageWrapper.getImage());
+                i++;
+                continue;
+            }
+            final int start = i, end = segmentEnd(i);
+            MixedUtils.getStream(entryList, entryList.size() > 1).forEach(entry -> {
+                runChain(start, end, entry, progressReporter, singlePercent);
+                //keeps only the frames in work on the heap, if the stack is a MappedStack
+                entry.releaseProcessor();
+            });
+            storeMemo(keys, end - 1, entryList);
+            i = end;
+        }
+
+    }
+
+    /**
+     * @return end of the filters that run entry by entry from start on, the next IStackFilter or the end of the queue
+     */
+    private int segmentEnd(int start) {
+        int end = start + 1;
+        while (end < filters.size() && !(filters.get(end) instanceof IStackFilter)) {
+            end++;
+        }
+        if (memo != null) {
+            //the memo needs the image of all entries after every filter, fused chains are stored at their end only
+            return Math.max(start + 1, fusedEnd(start, end));
+        }
+        return end;
+    }
+
+    /**
+     * Runs the filters start..end-1 on one entry, IStackFilters are skipped.
+     */
+    private void runChain(int start, int end, Entry entry, @Nullable Consumer<Float> progressReporter, float singlePercent) {
+        for (int i = start; i < end; ) {
+            int chainEnd = fusedEnd(i, end);
+            if (chainEnd > i) {
+                runFused(filters.subList(i, chainEnd), entry, progressReporter, singlePercent);
+                i = chainEnd;
+            } else {
+                IFilter filter = filters.get(i++);
+                if (filter instanceof IImageFilterAreaDependant || filter instanceof IImageFilter) {
+                    runSingle(filter, entry);
                     if (progressReporter != null) progressReporter.accept(singlePercent);
-                });
+                }
+            }
+        }
+    }
+
+    /**
+     * @return end of the run of at least two IBufferFilters starting at start (before limit), start if there is none
+     */
+    private int fusedEnd(int start, int limit) {
+        if (!fused) {
+            return start;
+        }
+        int end = start;
+        while (end < limit && filters.get(end) instanceof IBufferFilter) {
+            end++;
+        }
+        return (end - start > 1) ? end : start;
+    }
 
+    /**
+     * Runs the chain of IBufferFilters on one FilterBuffer of the entry, the processor is read and written once.
+     */
+    private void runFused(List<IFilter> chain, Entry entry, @Nullable Consumer<Float> progressReporter, float singlePercent) {
+        if (!FilterBuffer.supports(entry.getProcessor())) {
+            chain.forEach(filter -> {
+                runSingle(filter, entry);
+                if (progressReporter != null) progressReporter.accept(singlePercent);
+            });
+            return;
+        }
+        TileableChain tileable = TileableChain.of(chain);
+        if (tileable != null) {
+            //one buffer per tile, so that fused binarization and clean up keep the tiled parallel path
+            TiledFilterRunner.run(tileable, entry.getProcessor());
+            if (progressReporter != null) progressReporter.accept(singlePercent * chain.size());
+            return;
+        }
+        FilterBuffer buffer = new FilterBuffer(entry.getProcessor());
+        for (IFilter filter : chain) {
+            try {
+                buffer.setArea(filter instanceof IImageFilterAreaDependant ? getArea((IImageFilterAreaDependant) filter, entry) : null);
+                ((IBufferFilter) filter).run(buffer);
+                buffer.normalize();
+            } catch (NullPointerException np) {
+                FilamentSensor.debugError(np.getMessage());
             }
-        });
+            if (progressReporter != null) progressReporter.accept(singlePercent);
+        }
+        buffer.writeTo(entry.getProcessor());
+    }
 
+    private void runSingle(IFilter filter, Entry entry) {
+        if (filter instanceof IImageFilterAreaDependant) {
+            IBinaryImage binArea = getArea((IImageFilterAreaDependant) filter, entry);
+            try {
+                ((IImageFilterAreaDependant) filter).run(entry.getProcessor(), binArea);
+            } catch (NullPointerException np) {
+                FilamentSensor.debugError(np.getMessage());
+            }
+        } else if (filter instanceof IImageFilter) {
+            TiledFilterRunner.run((IImageFilter) filter, entry.getProcessor());
+        }
+    }
+
+    /**
+     * @return (ext) area of the entry the filter should be restricted to, or null
+     */
+    @Nullable
+    private static IBinaryImage getArea(IImageFilterAreaDependant filter, Entry entry) {
+        ShapeContainer shape = entry.getShape();
+        IBinaryImage binArea = null;
+        if (shape != null) {
+            if (filter.isAreaOrExtArea() && shape.getAggregatedArea() != null) {
+                binArea = shape.getAggregatedArea();
+            } else if (shape.getAggregatedExtArea() != null) {
+                binArea = shape.getAggregatedExtArea();
+            }
+            if (binArea != null && binArea.isInMemoryState()) {
+                binArea = binArea.clone();
+                binArea.exitMemoryState();
+            }
+        }
+        return binArea;
+    }
+
+    /**
+     * @param stack true for run(wrapper, progress), IStackFilters end the memoized part of the queue
+     * @return memo key of the image after each filter, null entries are not memoized
+     */
+    @Nullable
+    private String[] memoKeys(List<Entry> entryList, boolean stack) {
+        if (memo == null || entryList.isEmpty()) {
+            return null;
+        }
+        String[] keys = new String[filters.size()];
+        String key = FilterQueueMemo.inputKey(processors(entryList), stack);
+        entryList.forEach(Entry::releaseProcessor);
+        for (int i = 0; i < keys.length && key != null; i++) {
+            IFilter filter = filters.get(i);
+            if (stack && filter instanceof IStackFilter) {
+                //stack filters replace the image stack, the entries do not hold their result
+                break;
+            }
+            List<IBinaryImage> areas = null;
+            if (filter instanceof IImageFilterAreaDependant) {
+                areas = new ArrayList<>(entryList.size());
+                for (Entry entry : entryList) {
+                    areas.add(getArea((IImageFilterAreaDependant) filter, entry));
+                }
+            }
+            key = FilterQueueMemo.nextKey(key, filter, areas);
+            keys[i] = key;
+        }
+        return keys;
+    }
+
+    /**
+     * Restores the image after the last memoized filter.
+     *
+     * @return index of the first filter that has to run
+     */
+    private int restoreMemo(@Nullable String[] keys, List<Entry> entryList, @Nullable Consumer<Float> progressReporter, float singlePercent) {
+        if (keys == null) {
+            return 0;
+        }
+        int restored = memo.restore(keys, processors(entryList));
+        entryList.forEach(Entry::releaseProcessor);
+        if (restored >= 0 && progressReporter != null) {
+            progressReporter.accept(singlePercent * (restored + 1) * entryList.size());
+        }
+        return restored + 1;
+    }
+
+    private void storeMemo(@Nullable String[] keys, int idx, List<Entry> entryList) {
+        if (keys != null && keys[idx] != null) {
+            memo.put(keys[idx], processors(entryList));
+            entryList.forEach(Entry::releaseProcessor);
+        }
+    }
+
+    private static List<ImageProcessor> processors(List<Entry> entryList) {
+        List<ImageProcessor> processors = new ArrayList<>(entryList.size());
+        entryList.forEach(entry -> processors.add(entry.getProcessor()));
+        return processors;
+    }
+
+    @Nullable
+    public FilterQueueMemo getMemo() {
+        return memo;
+    }
+
+    /**
+     * With a memo the queue runs filter by filter (fused chains as one step) over all entries, so that
+     * the images of all entries can be stored after each step.
+     *
+     * @param memo memo of the intermediate images, null runs every filter on every call
+     */
+    public void useMemo(@Nullable FilterQueueMemo memo) {
+        this.memo = memo;
+    }
+
+    public boolean isFused() {
+        return fused;
+    }
+
+    /**
+     * @param fused run consecutive IBufferFilters on one pixel buffer per image (default true)
+     */
+    public void setFused(boolean fused) {
+        this.fused = fused;
     }
 
     @Override
@@ -206,4 +378,61 @@ public class FilterQueue implements Serializable {
     }
 
 
+
+    /**
+     * Chain of ITileableFilters without area that runs fused on every tile of TiledFilterRunner. The halo of the chain
+     * is the sum of the halos of its filters, pixels further inside a tile depend on the tile only.
+     */
+    private static final class TileableChain implements ITileableFilter {
+        private final List<IFilter> chain;
+        private final int halo;
+
+        private TileableChain(List<IFilter> chain, int halo) {
+            this.chain = chain;
+            this.halo = halo;
+        }
+
+        /**
+         * @return null if a filter of the chain is area dependant, not tileable or can not be tiled with its parameters
+         */
+        @Nullable
+        static TileableChain of(List<IFilter> chain) {
+            int halo = 0;
+            for (IFilter filter : chain) {
+                if (filter instanceof IImageFilterAreaDependant || !(filter instanceof ITileableFilter)) {
+                    return null;
+                }
+                int radius = ((ITileableFilter) filter).getHaloRadius();
+                if (radius < 0) {
+                    return null;
+                }
+                halo += radius;
+            }
+            return new TileableChain(chain, halo);
+        }
+
+        @Override
+        public int getHaloRadius() {
+            return halo;
+        }
+
+        @Override
+        public boolean forceParallel() {
+            return false;
+        }
+
+        @Override
+        public void run(ImageProcessor image) {
+            FilterBuffer buffer = new FilterBuffer(image);
+            for (IFilter filter : chain) {
+                try {
+                    ((IBufferFilter) filter).run(buffer);
+                    buffer.normalize();
+                } catch (NullPointerException np) {
+                    FilamentSensor.debugError(np.getMessage());
+                }
+            }
+            buffer.writeTo(image);
+        }
+    }
 }
@@ -0,0 +1,276 @@
+package core;
+
+import core.image.IBinaryImage;
+import filters.IFilter;
+import ij.process.ImageProcessor;
+import util.Annotations.Nullable;
+
+import java.beans.XMLEncoder;
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Array;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Memo of the intermediate images of a FilterQueue.
+ * <p>
+ * The image after filter i is stored under a key that chains the hash of the queue input with
+ * the XML encoded parameters of filter 0..i (and the areas of area dependant filters). If only
+ * the parameters of a later filter change, the queue restores the image before it and runs the
+ * remaining filters only.
+ * <p>
+ * The memo holds at most max_bytes of pixel data, the least recently used images are dropped
+ * first. Images are kept as soft references, so they are dropped under heap pressure too.
+ */
+public class FilterQueueMemo {
+
+    //default of Pre.filter_memo, MB per queue of the interactive image dependencies
+    public static final int DEFAULT_MEGABYTES = 64;
+
+    private final long m_max_bytes;
+    //access ordered, the first entry is the least recently used
+    private final LinkedHashMap<String, SoftReference<Snapshot>> m_snapshots = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Long> m_sizes = new HashMap<>();
+    private long m_bytes;
+    private final AtomicLong m_hits = new AtomicLong(), m_misses = new AtomicLong();
+
+    /**
+     * @param max_bytes upper bound of the stored pixel data
+     */
+    public FilterQueueMemo(long max_bytes) {
+        m_max_bytes = max_bytes;
+    }
+
+    public long getHits() {
+        return m_hits.get();
+    }
+
+    public long getMisses() {
+        return m_misses.get();
+    }
+
+    public synchronized long getBytes() {
+        return m_bytes;
+    }
+
+    public synchronized void clear() {
+        m_snapshots.clear();
+        m_sizes.clear();
+        m_bytes = 0;
+    }
+
+    /**
+     * @param stack true if the queue runs on the whole stack, false if on single frames
+     * @return key of the queue input
+     */
+    public static String inputKey(List<ImageProcessor> images, boolean stack) {
+        MessageDigest digest = digest();
+        digest.update((stack ? "stack;" : "frame;").getBytes(StandardCharsets.UTF_8));
+        for (ImageProcessor image : images) {
+            digest.update((image.getClass().getName() + ";" + image.getWidth() + "x" + image.getHeight()).getBytes(StandardCharsets.UTF_8));
+            Object pixels = image.getPixels();
+            if (pixels instanceof byte[]) {
+                digest.update((byte[]) pixels);
+            } else if (pixels instanceof short[]) {
+                ByteBuffer buffer = ByteBuffer.allocate(2 * ((short[]) pixels).length);
+                buffer.asShortBuffer().put((short[]) pixels);
+                digest.update(buffer);
+            } else if (pixels instanceof int[]) {
+                ByteBuffer buffer = ByteBuffer.allocate(4 * ((int[]) pixels).length);
+                buffer.asIntBuffer().put((int[]) pixels);
+                digest.update(buffer);
+            } else if (pixels instanceof float[]) {
+                ByteBuffer buffer = ByteBuffer.allocate(4 * ((float[]) pixels).length);
+                buffer.asFloatBuffer().put((float[]) pixels);
+                digest.update(buffer);
+            }
+        }
+        return hex(digest.digest());
+    }
+
+    /**
+     * @param previous key of the filter input
+     * @param areas    areas the filter is restricted to, null for filters that are not area dependant
+     * @return key of the filter output, null if the parameters of the filter can not be encoded
+     */
+    @Nullable
+    public static String nextKey(String previous, IFilter filter, @Nullable List<IBinaryImage> areas) {
+        //the parameters as the gui stores them in filter queue files
+        ByteArrayOutputStream parameters = new ByteArrayOutputStream();
+        AtomicBoolean failed = new AtomicBoolean();
+        XMLEncoder encoder = new XMLEncoder(parameters);
+        encoder.setExceptionListener(e -> failed.set(true));
+        encoder.writeObject(filter);
+        encoder.close();
+        if (failed.get()) {
+            FilamentSensor.debugMessage("FilterQueueMemo: parameters of " + filter.getClass().getSimpleName() + " can not be encoded");
+            return null;
+        }
+        MessageDigest digest = digest();
+        digest.update(previous.getBytes(StandardCharsets.UTF_8));
+        digest.update(parameters.toByteArray());
+        if (areas != null) {
+            for (IBinaryImage area : areas) {
+                if (area == null) {
+                    digest.update((byte) 0);
+                    continue;
+                }
+                digest.update((byte) 1);
+                byte[] column = new byte[(area.getHeight() + 7) / 8];
+                for (int x = 0; x < area.getWidth(); x++) {
+                    for (int y = 0; y < area.getHeight(); y++) {
+                        if (area.getPixel(x, y)) {
+                            column[y >> 3] |= (byte) (1 << (y & 7));
+                        }
+                    }
+                    digest.update(column);
+                    Arrays.fill(column, (byte) 0);
+                }
+            }
+        }
+        return hex(digest.digest());
+    }
+
+    /**
+     * Copies the latest stored images of keys into the pixel arrays of images.
+     *
+     * @param keys keys of the images after each filter, null entries are skipped
+     * @return index of the restored key, -1 if none of them is stored
+     */
+    public synchronized int restore(String[] keys, List<ImageProcessor> images) {
+        for (int k = keys.length - 1; k >= 0; k--) {
+            if (keys[k] == null) {
+                continue;
+            }
+            SoftReference<Snapshot> reference = m_snapshots.get(keys[k]);
+            Snapshot snapshot = (reference == null ? null : reference.get());
+            if (snapshot == null || !snapshot.fits(images)) {
+                if (reference != null) {
+                    remove(keys[k]);
+                }
+                continue;
+            }
+            for (int i = 0; i < images.size(); i++) {
+                ImageProcessor image = images.get(i);
+                Object pixels = snapshot.m_pixels.get(i);
+                System.arraycopy(pixels, 0, image.getPixels(), 0, Array.getLength(pixels));
+                if (image.getMin() != snapshot.m_min[i] || image.getMax() != snapshot.m_max[i]) {
+                    image.setMinAndMax(snapshot.m_min[i], snapshot.m_max[i]);
+                }
+            }
+            m_hits.incrementAndGet();
+            return k;
+        }
+        m_misses.incrementAndGet();
+        return -1;
+    }
+
+    /**
+     * Stores a copy of the images, images larger than the memo are not stored.
+     */
+    public synchronized void put(String key, List<ImageProcessor> images) {
+        long bytes = 0;
+        for (ImageProcessor image : images) {
+            bytes += (long) image.getPixelCount() * image.getBitDepth() / 8;
+        }
+        if (bytes > m_max_bytes) {
+            return;
+        }
+        remove(key);
+        purge();
+        Iterator<String> lru = m_snapshots.keySet().iterator();
+        while (m_bytes + bytes > m_max_bytes && lru.hasNext()) {
+            String oldest = lru.next();
+            lru.remove();
+            m_bytes -= m_sizes.remove(oldest);
+        }
+        m_snapshots.put(key, new SoftReference<>(new Snapshot(images)));
+        m_sizes.put(key, bytes);
+        m_bytes += bytes;
+    }
+
+    private void remove(String key) {
+        m_snapshots.remove(key);
+        Long bytes = m_sizes.remove(key);
+        if (bytes != null) {
+            m_bytes -= bytes;
+        }
+    }
+
+    //forgets the snapshots the garbage collector has cleared
+    private void purge() {
+        Iterator<Map.Entry<String, SoftReference<Snapshot>>> it = m_snapshots.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, SoftReference<Snapshot>> entry = it.next();
+            if (entry.getValue().get() == null) {
+                it.remove();
+                m_bytes -= m_sizes.remove(entry.getKey());
+            }
+        }
+    }
+
+    private static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder key = new StringBuilder();
+        for (byte b : bytes) {
+            key.append(String.format("%02x", b));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Pixel arrays and display ranges of the images after one filter.
+     */
+    private static class Snapshot {
+        private final List<Object> m_pixels;
+        private final double[] m_min, m_max;
+
+        private Snapshot(List<ImageProcessor> images) {
+            m_pixels = new ArrayList<>(images.size());
+            m_min = new double[images.size()];
+            m_max = new double[images.size()];
+            for (int i = 0; i < images.size(); i++) {
+                ImageProcessor image = images.get(i);
+                Object pixels = image.getPixels(), copy = Array.newInstance(pixels.getClass().getComponentType(), Array.getLength(pixels));
+                System.arraycopy(pixels, 0, copy, 0, Array.getLength(pixels));
+                m_pixels.add(copy);
+                m_min[i] = image.getMin();
+                m_max[i] = image.getMax();
+            }
+        }
+
+        private boolean fits(List<ImageProcessor> images) {
+            if (images.size() != m_pixels.size()) {
+                return false;
+            }
+            for (int i = 0; i < images.size(); i++) {
+                Object pixels = images.get(i).getPixels();
+                if (pixels == null || pixels.getClass() != m_pixels.get(i).getClass() ||
+                        Array.getLength(pixels) != Array.getLength(m_pixels.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+}
@@ -0,0 +1,363 @@
+package core;
+
+import core.image.PackedBits;
+import core.image.RunLengthImage;
+import util.Annotations.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Dilation and erosion of binary images with convex symmetric structuring elements, used by Calc.
+ * <p>
+ * Images with few boundary pixels are dilated by putting the mask, as one vertical segment per
+ * mask column, around their boundary pixels. Otherwise Euclidean disks (the masks of
+ * Calc.circleMask) are done by thresholding the squared distance transform, which costs
+ * O(width * height) independent of the radius. Other masks are split into one vertical segment
+ * per mask column, the running maximum over each segment length is computed once with the
+ * van Herk/Gil-Werman algorithm and OR-ed into the result shifted by the column offsets, that is
+ * O(width * height * range).
+ * <p>
+ * The results are the same as the stamping loops of Calc: the dilation is the union of the mask
+ * around all set pixels of the image, the erosion clears every pixel that has an unset pixel of
+ * the image inside of its mask, pixels outside of the image count as set.
+ * <p>
+ * For PackedBits every row of the mask is a centered segment too, the rows are dilated by the
+ * segment half widths with word shifts and OR-ed into the result shifted by the row offsets.
+ * RunLengthImage rows are grown the same way run by run.
+ */
+final class Morphology {
+    //below this range the segment path is faster than the distance transform
+    private static final int DISK_MIN_RANGE = 3;
+
+    private final int m_range;
+    //half length of the vertical segment in column a of the mask, -1 if the column is empty
+    private final int[] m_half_heights;
+    //the mask is {x^2 + y^2 < threshold}, 0 if it is no Euclidean disk
+    private final long m_threshold;
+
+    private Morphology(int range, int[] half_heights, long threshold) {
+        m_range = range;
+        m_half_heights = half_heights;
+        m_threshold = threshold;
+    }
+
+    /**
+     * @return null if the mask is not supported, Calc uses its stamping loops then
+     */
+    @Nullable
+    static Morphology of(boolean[][] mask) {
+        final int range = mask.length / 2;
+        //the stamping loops of Calc skip inner pixels, which is only exact for masks that cover the 8-neighborhood
+        if (range < 1 || !mask[range - 1][range - 1] || !mask[range - 1][range] || !mask[range][range - 1]) {
+            return null;
+        }
+        int[] half_heights = new int[2 * range + 1];
+        for (int a = 0; a <= 2 * range; a++) {
+            int h = -1;
+            while (h < range && mask[a][range + h + 1]) {
+                h++;
+            }
+            for (int b = 0; b <= 2 * range; b++) {
+                if (mask[a][b] != (Math.abs(b - range) <= h)) {
+                    return null;
+                }
+            }
+            half_heights[a] = h;
+        }
+        //symmetric and shrinking towards the left and right border, so every row is a centered segment too
+        for (int a = 0; a < range; a++) {
+            if (half_heights[a] != half_heights[2 * range - a] || half_heights[a] > half_heights[a + 1]) {
+                return null;
+            }
+        }
+
+        long threshold = Long.MAX_VALUE, max_inside = -1;
+        for (int a = -range; a <= range; a++) {
+            for (int b = -range; b <= range; b++) {
+                long r2 = (long) a * a + (long) b * b;
+                if (mask[a + range][b + range]) {
+                    max_inside = Math.max(max_inside, r2);
+                } else {
+                    threshold = Math.min(threshold, r2);
+                }
+            }
+        }
+        //a disk larger than the mask square would contain points outside of the mask
+        if (threshold > (long) (range + 1) * (range + 1) || max_inside >= threshold) {
+            threshold = 0;
+        }
+        return new Morphology(range, half_heights, threshold);
+    }
+
+    /**
+     * @param pad border added around the image, the result has the size of the image plus 2 * pad
+     * @return union of the mask around the set pixels of image
+     */
+    boolean[][] dilate(boolean[][] image, int pad) {
+        final int width = image.length + 2 * pad, height = image[0].length + 2 * pad;
+        boolean[][] source = new boolean[width][height];
+        for (int x = 0; x < image.length; x++) {
+            System.arraycopy(image[x], 0, source[x + pad], pad, image[x].length);
+        }
+        return dilate(source);
+    }
+
+    /**
+     * @return image without the pixels that have an unset pixel of the image inside of their mask
+     */
+    boolean[][] erode(boolean[][] image) {
+        final int width = image.length, height = image[0].length;
+        boolean[][] unset = new boolean[width][height];
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                unset[x][y] = !image[x][y];
+            }
+        }
+        boolean[][] out = dilate(unset);
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                out[x][y] = !out[x][y];
+            }
+        }
+        return out;
+    }
+
+    /**
+     * @return union of the mask around the set pixels of image, same size as image
+     */
+    PackedBits dilate(PackedBits image) {
+        final int range = m_range;
+        final int[] half_widths = halfWidths();
+        PackedBits out = new PackedBits(image.getWidth(), image.getHeight());
+        //the half widths shrink with b, rows with the same segment share one row dilation
+        for (int b = 0; b <= range && half_widths[b] >= 0; ) {
+            final int half_width = half_widths[b];
+            PackedBits rows = image.dilateRows(half_width);
+            for (; b <= range && half_widths[b] == half_width; b++) {
+                out.orShifted(rows, 0, b);
+                if (b > 0) {
+                    out.orShifted(rows, 0, -b);
+                }
+            }
+        }
+        return out;
+    }
+
+    /**
+     * @return image without the pixels that have an unset pixel of the image inside of their mask
+     */
+    PackedBits erode(PackedBits image) {
+        PackedBits unset = image.copy();
+        unset.not();
+        PackedBits out = dilate(unset);
+        out.not();
+        return out;
+    }
+
+    /**
+     * @return union of the mask around the set pixels of image, same size as image
+     */
+    RunLengthImage dilate(RunLengthImage image) {
+        final int range = m_range, width = image.getWidth(), height = image.getHeight();
+        final int[] half_widths = halfWidths();
+        final int[][] rows = image.getRuns();
+        int[][] out = new int[height][];
+        //row y of the result is the union of the rows y - b, grown by the half width of mask row b
+        int[][] grown = new int[height][];
+        Arrays.fill(out, new int[0]);
+        for (int b = 0; b <= range && half_widths[b] >= 0; b++) {
+            if (b == 0 || half_widths[b] != half_widths[b - 1]) {
+                for (int y = 0; y < height; y++) {
+                    grown[y] = RunLengthImage.expand(rows[y], half_widths[b], width);
+                }
+            }
+            for (int y = 0; y < height; y++) {
+                if (y - b >= 0) {
+                    out[y] = RunLengthImage.union(out[y], grown[y - b]);
+                }
+                if (b > 0 && y + b < height) {
+                    out[y] = RunLengthImage.union(out[y], grown[y + b]);
+                }
+            }
+        }
+        RunLengthImage result = new RunLengthImage(width, height);
+        result.setRuns(out);
+        return result;
+    }
+
+    /**
+     * @return image without the pixels that have an unset pixel of the image inside of their mask
+     */
+    RunLengthImage erode(RunLengthImage image) {
+        final int width = image.getWidth(), height = image.getHeight();
+        int[][] unset = new int[height][];
+        for (int y = 0; y < height; y++) {
+            unset[y] = RunLengthImage.complement(image.getRuns()[y], width);
+        }
+        RunLengthImage complement = new RunLengthImage(width, height);
+        complement.setRuns(unset);
+        int[][] out = dilate(complement).getRuns();
+        for (int y = 0; y < height; y++) {
+            out[y] = RunLengthImage.complement(out[y], width);
+        }
+        RunLengthImage result = new RunLengthImage(width, height);
+        result.setRuns(out);
+        return result;
+    }
+
+    //half width of the row segment at vertical offset b of the mask, -1 if the row is empty,
+    //the half widths shrink with b
+    private int[] halfWidths() {
+        final int range = m_range;
+        int[] half_widths = new int[range + 1];
+        for (int b = 0; b <= range; b++) {
+            half_widths[b] = -1;
+            for (int a = 0; a <= 2 * range; a++) {
+                if (m_half_heights[a] >= b) {
+                    half_widths[b] = Math.max(half_widths[b], Math.abs(a - range));
+                }
+            }
+        }
+        return half_widths;
+    }
+
+    private boolean[][] dilate(boolean[][] source) {
+        final long pixels = (long) source.length * source[0].length;
+        //rough costs in ns, the stamps are cheap for images with few boundary pixels
+        final long stamp_cost = countBoundary(source) * (2L * m_range + 1) * (4 + m_range / 4);
+        final boolean disk = m_threshold > 0 && m_range >= DISK_MIN_RANGE;
+        if (stamp_cost < (disk ? 40 : 2L * m_range + 1) * pixels) {
+            return dilateStamps(source);
+        }
+        if (disk) {
+            int[][] distances = Calc.squaredDistanceTransform(source);
+            final int width = source.length, height = source[0].length;
+            boolean[][] out = new boolean[width][height];
+            for (int x = 0; x < width; x++) {
+                for (int y = 0; y < height; y++) {
+                    out[x][y] = distances[x][y] < m_threshold;
+                }
+            }
+            return out;
+        }
+        return dilateSegments(source);
+    }
+
+    //set pixels with an unset 4-neighbor or at the border of the image
+    private static long countBoundary(boolean[][] source) {
+        final int width = source.length, height = source[0].length;
+        long count = 0;
+        for (int x = 0; x < width; x++) {
+            final boolean[] column = source[x];
+            for (int y = 0; y < height; y++) {
+                if (column[y] && isBoundary(source, x, y)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private static boolean isBoundary(boolean[][] source, int x, int y) {
+        return x == 0 || y == 0 || x == source.length - 1 || y == source[0].length - 1 ||
+                !source[x - 1][y] || !source[x + 1][y] || !source[x][y - 1] || !source[x][y + 1];
+    }
+
+    /**
+     * Puts the mask around every boundary pixel, inner pixels are covered by the masks of the
+     * boundary pixels around them, since the mask is convex and covers the 8-neighborhood.
+     */
+    private boolean[][] dilateStamps(boolean[][] source) {
+        final int width = source.length, height = source[0].length, range = m_range;
+        boolean[][] out = new boolean[width][height];
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                if (!source[x][y]) {
+                    continue;
+                }
+                if (!isBoundary(source, x, y)) {
+                    out[x][y] = true;
+                    continue;
+                }
+                for (int a = Math.max(0, range - x); a <= 2 * range && x + a - range < width; a++) {
+                    final int h = m_half_heights[a];
+                    if (h >= 0) {
+                        Arrays.fill(out[x + a - range], Math.max(0, y - h), Math.min(height, y + h + 1), true);
+                    }
+                }
+            }
+        }
+        return out;
+    }
+
+    private boolean[][] dilateSegments(boolean[][] source) {
+        final int width = source.length, height = source[0].length, range = m_range;
+        boolean[][] out = new boolean[width][height];
+        boolean[][] columns = new boolean[width][];
+        boolean[] padded = new boolean[height + 2 * range + 2 * range + 1];
+        boolean[] prefix = new boolean[padded.length], suffix = new boolean[padded.length];
+        //mask columns with the same segment share one running maximum
+        for (int h = 0; h <= range; h++) {
+            boolean used = false;
+            for (int half_height : m_half_heights) {
+                used |= (half_height == h);
+            }
+            if (!used) {
+                continue;
+            }
+            for (int x = 0; x < width; x++) {
+                columns[x] = runningOr(source[x], h, padded, prefix, suffix, columns[x]);
+            }
+            for (int a = 0; a <= 2 * range; a++) {
+                if (m_half_heights[a] != h) {
+                    continue;
+                }
+                //column a of the mask puts pixel x onto x + a - range
+                final int shift = a - range;
+                for (int x = Math.max(0, shift); x < Math.min(width, width + shift); x++) {
+                    final boolean[] target = out[x], column = columns[x - shift];
+                    for (int y = 0; y < height; y++) {
+                        target[y] |= column[y];
+                    }
+                }
+            }
+        }
+        return out;
+    }
+
+    /**
+     * van Herk/Gil-Werman running maximum over the windows [y - h, y + h] of column, pixels
+     * outside of the column are unset. Blocks of the window length get prefix and suffix maxima,
+     * every window covers the end of one block and the start of the next one, so it is the
+     * maximum of one suffix and one prefix value.
+     */
+    private static boolean[] runningOr(boolean[] column, int h, boolean[] padded, boolean[] prefix, boolean[] suffix, @Nullable boolean[] out) {
+        final int n = column.length, k = 2 * h + 1, length = n + 2 * h;
+        if (out == null) {
+            out = new boolean[n];
+        }
+        if (h == 0) {
+            System.arraycopy(column, 0, out, 0, n);
+            return out;
+        }
+        //column starts at index h of padded, windows of out[y] are padded[y .. y + 2h]
+        Arrays.fill(padded, 0, length, false);
+        System.arraycopy(column, 0, padded, h, n);
+        for (int start = 0; start < length; start += k) {
+            final int end = Math.min(start + k, length);
+            prefix[start] = padded[start];
+            for (int i = start + 1; i < end; i++) {
+                prefix[i] = prefix[i - 1] | padded[i];
+            }
+            suffix[end - 1] = padded[end - 1];
+            for (int i = end - 2; i >= start; i--) {
+                suffix[i] = suffix[i + 1] | padded[i];
+            }
+        }
+        for (int y = 0; y < n; y++) {
+            out[y] = suffix[y] | prefix[y + 2 * h];
+        }
+        return out;
+    }
+
+}
@@ -0,0 +1,107 @@
+package core;
+
+import filters.IImageFilter;
+import filters.ITileableFilter;
+import ij.process.ImageProcessor;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs image filters on overlapping tiles of a frame in parallel.
+ * <p>
+ * Every tile is cropped with the halo of the filter, filtered on its own and only its inner
+ * part is written back, so the result is the same as filtering the whole frame. Filters that
+ * are not ITileableFilter, frames that fit into one tile and single core machines use the
+ * whole frame path.
+ */
+public final class TiledFilterRunner {
+
+    //size of the inner part of a tile
+    public static final int TILE_SIZE = 512;
+
+    private static final int s_threads = Runtime.getRuntime().availableProcessors();
+    //bounded, so that tiles of frames that are filtered in parallel do not oversubscribe the cpu
+    private static final ExecutorService s_pool = Executors.newFixedThreadPool(s_threads, runnable -> {
+        Thread thread = new Thread(runnable, "TiledFilterRunner");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private TiledFilterRunner() {
+    }
+
+    public static void run(IImageFilter filter, ImageProcessor image) {
+        if (s_threads < 2) {
+            filter.run(image);
+            return;
+        }
+        run(filter, image, TILE_SIZE);
+    }
+
+    /**
+     * @param tile_size size of the inner part of a tile
+     */
+    public static void run(IImageFilter filter, ImageProcessor image, int tile_size) {
+        final int halo = (filter instanceof ITileableFilter ? ((ITileableFilter) filter).getHaloRadius() : -1);
+        final int width = image.getWidth(), height = image.getHeight();
+        if (halo < 0 || (width <= tile_size && height <= tile_size)) {
+            filter.run(image);
+            return;
+        }
+
+        //crops are taken one after another, since they work on the roi of image
+        final Rectangle frame = new Rectangle(0, 0, width, height);
+        final Rectangle roi = image.getRoi();
+        final ImageProcessor mask = image.getMask();
+        List<Rectangle> inner = new ArrayList<>(), outer = new ArrayList<>();
+        List<Future<ImageProcessor>> tiles = new ArrayList<>();
+        for (int x = 0; x < width; x += tile_size) {
+            for (int y = 0; y < height; y += tile_size) {
+                Rectangle tile = new Rectangle(x, y, Math.min(tile_size, width - x), Math.min(tile_size, height - y));
+                Rectangle crop = new Rectangle(tile);
+                crop.grow(halo, halo);
+                crop = crop.intersection(frame);
+                image.setRoi(crop);
+                final ImageProcessor part = image.crop();
+                inner.add(tile);
+                outer.add(crop);
+                tiles.add(s_pool.submit(() -> {
+                    filter.run(part);
+                    return part;
+                }));
+            }
+        }
+        image.setRoi(roi);
+        image.setMask(mask);
+
+        List<ImageProcessor> results = new ArrayList<>(tiles.size());
+        try {
+            for (Future<ImageProcessor> tile : tiles) {
+                results.add(tile.get());
+            }
+        } catch (InterruptedException e) {
+            tiles.forEach(tile -> tile.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("TiledFilterRunner::run() --- interrupted", e);
+        } catch (ExecutionException e) {
+            tiles.forEach(tile -> tile.cancel(true));
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+        for (int i = 0; i < results.size(); i++) {
+            ImageProcessor part = results.get(i);
+            Rectangle tile = inner.get(i), crop = outer.get(i);
+            part.setRoi(tile.x - crop.x, tile.y - crop.y, tile.width, tile.height);
+            image.insert(part.crop(), tile.x, tile.y);
+        }
+    }
+
+}
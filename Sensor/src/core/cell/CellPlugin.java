@@ -10,9 +10,12 @@ import ij.process.ByteProcessor;
 import ij.process.ImageProcessor;
 import core.image.BinaryImage;
 import core.image.IBinaryImage;
+import core.image.RunLengthImage;
 
 import java.awt.*;
+import java.awt.geom.Point2D;
 import java.io.Serializable;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
@@ -22,6 +25,7 @@ import java.util.Objects;
 public abstract class CellPlugin implements Serializable {
 
     private boolean memoryState = true;
+    private boolean runLength = false;
 
     public CellPlugin() {
     }
@@ -34,30 +38,35 @@ public abstract class CellPlugin implements Serializable {
         this.memoryState = memoryState;
     }
 
+    public boolean isRunLength() {
+        return runLength;
+    }
+
+    /**
+     * @param runLength true if new ShapeContainers store their areas as RunLengthImage, see ShapeContainer.setRunLength()
+     */
+    public void setRunLength(boolean runLength) {
+        this.runLength = runLength;
+    }
+
     /**
      * Does not change input, just calculates the area Data
      *
      * @param binary_image
      */
     public static void initialize(IBinaryImage binary_image, CellShape shape, boolean skipExcursionImage) {
+        initialize(binary_image, shape, skipExcursionImage, Moments.of(binary_image));
+    }
+
+    private static void initialize(IBinaryImage binary_image, CellShape shape, boolean skipExcursionImage, Moments moments) {
 
         final int width = binary_image.getWidth();
         final int height = binary_image.getHeight();
 
-        double sum_x = 0, sum_y = 0, sum_xx = 0, sum_xy = 0, sum_yy = 0;
-        double area = 0;
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                if (binary_image.getPixel(x, y)) {
-                    area++;
-                    sum_x += x;
-                    sum_y += y;
-                    sum_xx += x * x;
-                    sum_xy += x * y;
-                    sum_yy += y * y;
-                }
-            }
-        }
+        //the sums are exact integers, the same as summing the pixels in any order
+        final double sum_x = moments.sum_x, sum_y = moments.sum_y,
+                sum_xx = moments.sum_xx, sum_xy = moments.sum_xy, sum_yy = moments.sum_yy;
+        final double area = moments.area;
 
         shape.setArea((int) area);
         if (area == 0) {
@@ -176,28 +185,67 @@ public abstract class CellPlugin implements Serializable {
 
 
     /**
-     * Gets the Rectangle Bounds of a binary shape
-     *
-     * @param binaryImage input from which the bounds will be calculated
-     * @return Rectangle bounds of the shape
+     * Area, first and second moments and bounds of the set pixels of a binary shape, taken in one pass
+     * over the set bits of a BinaryImage or the runs of a RunLengthImage
      */
-    private Rectangle getBounds(@NotNull IBinaryImage binaryImage) {
-        Objects.requireNonNull(binaryImage);
-        final int width = binaryImage.getWidth();
-        final int height = binaryImage.getHeight();
-        int xMin = Integer.MAX_VALUE, xMax = 0, yMin = Integer.MAX_VALUE, yMax = 0;
-
-        for (int i = 0; i < width; i++) {
-            for (int j = 0; j < height; j++) {
-                if (binaryImage.getPixel(i, j)) {
-                    if (i < xMin) xMin = i;
-                    if (i > xMax) xMax = i;
-                    if (j < yMin) yMin = j;
-                    if (j > yMax) yMax = j;
+    private static final class Moments {
+        private long area, sum_x, sum_y, sum_xx, sum_xy, sum_yy;
+        private int xMin = Integer.MAX_VALUE, xMax = 0, yMin = Integer.MAX_VALUE, yMax = 0;
+
+        private static Moments of(@NotNull IBinaryImage binaryImage) {
+            Objects.requireNonNull(binaryImage);
+            Moments moments = new Moments();
+            if (binaryImage instanceof RunLengthImage) {
+                final int[][] runs = ((RunLengthImage) binaryImage).getRuns();
+                for (int y = 0; y < runs.length; y++) {
+                    final int[] row = runs[y];
+                    for (int i = 0; i < row.length; i += 2) {
+                        moments.addRun(row[i], row[i + 1], y);
+                    }
+                }
+            } else if (binaryImage instanceof BinaryImage) {
+                final BitSet bits = ((BinaryImage) binaryImage).getBits();
+                final int width = binaryImage.getWidth(), size = width * binaryImage.getHeight();
+                for (int start = bits.nextSetBit(0); start >= 0 && start < size; start = bits.nextSetBit(start)) {
+                    //runs end at the end of a row
+                    final int y = start / width, end = Math.min(bits.nextClearBit(start), (y + 1) * width);
+                    moments.addRun(start - y * width, end - y * width, y);
+                    start = end;
+                }
+            } else {
+                for (Point2D point : binaryImage.getPoints()) {
+                    moments.addRun((int) point.getX(), (int) point.getX() + 1, (int) point.getY());
                 }
             }
+            return moments;
+        }
+
+        /**
+         * Adds the pixels x0 <= x < x1 of row y
+         */
+        private void addRun(long x0, long x1, long y) {
+            final long n = x1 - x0;
+            //sum of x and of x*x over [0, x) are x(x-1)/2 and (x-1)x(2x-1)/6
+            final long run_x = (x1 * (x1 - 1) - x0 * (x0 - 1)) / 2;
+            final long run_xx = ((x1 - 1) * x1 * (2 * x1 - 1) - (x0 - 1) * x0 * (2 * x0 - 1)) / 6;
+            area += n;
+            sum_x += run_x;
+            sum_y += n * y;
+            sum_xx += run_xx;
+            sum_xy += run_x * y;
+            sum_yy += n * y * y;
+            xMin = Math.min(xMin, (int) x0);
+            xMax = Math.max(xMax, (int) x1 - 1);
+            yMin = Math.min(yMin, (int) y);
+            yMax = Math.max(yMax, (int) y);
+        }
+
+        /**
+         * @return Rectangle bounds of the shape
+         */
+        private Rectangle getBounds() {
+            return new Rectangle(xMin, yMin, xMax - xMin, yMax - yMin);
         }
-        return new Rectangle(xMin, yMin, xMax - xMin, yMax - yMin);
     }
 
 
@@ -333,11 +381,12 @@ public abstract class CellPlugin implements Serializable {
         //filterAreaMask.run(image, container.getAggregatedExtArea());
 
 
-        Objects.requireNonNull(getShapes(image, aggregatedMask, minArea)).forEach(binaryImage -> {
+        Objects.requireNonNull(getShapes(image, aggregatedMask, minArea)).stream().map(container::compact).forEach(binaryImage -> {
             CellShape result = new CellShape(binaryImage);
-            initialize(binaryImage, result, true);
-            result.setBounds(getBounds(binaryImage));
-            if (binaryImage instanceof BinaryImage && memoryState) {
+            Moments moments = Moments.of(binaryImage);
+            initialize(binaryImage, result, true, moments);
+            result.setBounds(moments.getBounds());
+            if (!(binaryImage instanceof RunLengthImage) && memoryState) {
                 binaryImage.setTrueValue(0);//imageJ foreground value, since enterMemoryState uses imageJ
                 binaryImage.enterMemoryState();
             }
@@ -366,11 +415,13 @@ public abstract class CellPlugin implements Serializable {
         image = image.duplicate();//duplicate image to prevent changes in input
 
         ShapeContainer shapes = new ShapeContainer();
-        Objects.requireNonNull(getExtendedShapes(image, aggregatedExtArea, minArea)).forEach(binaryImage -> {
+        shapes.setRunLength(isRunLength());
+        Objects.requireNonNull(getExtendedShapes(image, aggregatedExtArea, minArea)).stream().map(shapes::compact).forEach(binaryImage -> {
             CellShape result = new CellShape(binaryImage);
-            initialize(binaryImage, result, true);
-            result.setBounds(getBounds(binaryImage));
-            if (binaryImage instanceof BinaryImage && memoryState) {
+            Moments moments = Moments.of(binaryImage);
+            initialize(binaryImage, result, true, moments);
+            result.setBounds(moments.getBounds());
+            if (!(binaryImage instanceof RunLengthImage) && memoryState) {
                 binaryImage.setTrueValue(0);//imageJ foreground value, since enterMemoryState uses imageJ
                 binaryImage.enterMemoryState();
             }
@@ -50,6 +50,9 @@ public class DataFilaments implements Serializable {
 
     private List<AbstractFilament> filaments;
 
+    //true if the tracer ran out of its time budget (Trace.time_budget) and only traced part of the widths
+    private boolean partial;
+
     public DataFilaments() {
         filaments = new ArrayList<>();
     }
@@ -100,6 +103,37 @@ public class DataFilaments implements Serializable {
      * @throws Exception
      */
     public IBinaryImage scanFilaments(ImageProcessor binary_image, IBinaryImage mask, Settings parameters, @NotNull Tracer tracer) {
+        return scanFilaments(binary_image, mask, null, parameters, tracer);
+    }
+
+    /**
+     * Bounds of the selected cell area grown by Trace.roi_margin.
+     *
+     * @return null (trace the whole image) if the margin is 0 or there is no selected area
+     */
+    public static Rectangle getTracingRoi(ShapeContainer shape, Settings parameters) {
+        int margin = parameters.getValue(Trace.roi_margin, 0);
+        if (margin <= 0 || shape == null || shape.getSelectedArea() == null || shape.getSelectedArea().getBounds() == null) {
+            return null;
+        }
+        Rectangle roi = new Rectangle(shape.getSelectedArea().getBounds());
+        //the bounds from CellPlugin do not include the last column and row
+        roi.width++;
+        roi.height++;
+        roi.grow(margin, margin);
+        return roi;
+    }
+
+    /**
+     * Mask can be null, if it's null skip all the stuff which uses mask
+     *
+     * @param binary_image
+     * @param mask
+     * @param roi          region the tracer is restricted to, null for the whole image
+     * @param parameters
+     * @return
+     */
+    public IBinaryImage scanFilaments(ImageProcessor binary_image, IBinaryImage mask, Rectangle roi, Settings parameters, @NotNull Tracer tracer) {
         Objects.requireNonNull(tracer, "Tracer==null");
 
         cleanTracedFilaments(false);
@@ -110,12 +144,15 @@ public class DataFilaments implements Serializable {
             mask.exitMemoryState();//we use a clone - no need for entering memory state again
         }
 
-        List<AbstractFilament> fils = tracer.scanFilaments(binary_image,
+        tracer.setTimeBudget(parameters.getValue(Trace.time_budget, 0));
+        List<AbstractFilament> fils = tracer.scanFilaments(binary_image, roi,
                 parameters.getValue(Trace.tolerance) / 100.0,
                 parameters.getValue(Trace.minlen),
                 parameters.getValue(Trace.minangle),
                 parameters.getValue(Trace.step));
 
+        partial = tracer.isPartial();
+
         boolean[][] binImage = new BinaryImage(binary_image.getIntArray(), 254).toBoolean();
         tracer.updateFilamentWidth(binImage);//update the width of the filaments to make it mostly independent from tolerance
 
@@ -194,6 +231,17 @@ public class DataFilaments implements Serializable {
         return filaments;
     }
 
+    /**
+     * @return true if the last scanFilaments ran out of its time budget and the filaments are partial
+     */
+    public boolean isPartial() {
+        return partial;
+    }
+
+    public void setPartial(boolean partial) {
+        this.partial = partial;
+    }
+
 
     public List<AbstractFilament> getFilteredFilaments(Settings dp) {
         boolean hideNonVerifiedFibers = dp.getValueAsBoolean(Export.hideNonVerifiedFibers);
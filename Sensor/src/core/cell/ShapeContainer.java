@@ -2,6 +2,7 @@ package core.cell;
 
 
 import core.image.IBinaryImage;
+import core.image.RunLengthImage;
 
 import java.io.Serializable;
 import java.lang.ref.SoftReference;
@@ -29,6 +30,9 @@ public class ShapeContainer implements Serializable {
 
     //another area for mech?
 
+    //areas are stored as RunLengthImage, memory and iteration scale with the area instead of the image
+    private boolean runLength;
+
     private transient SoftReference<IBinaryImage> cacheAggregatedArea;
     private transient SoftReference<IBinaryImage> cacheAggregatedExtArea;
     private transient SoftReference<IBinaryImage> cacheAggregatedMechArea;
@@ -44,6 +48,21 @@ public class ShapeContainer implements Serializable {
 
     }
 
+    public boolean isRunLength() {
+        return runLength;
+    }
+
+    public void setRunLength(boolean runLength) {
+        this.runLength = runLength;
+    }
+
+    /**
+     * @return image in the representation this container stores its areas in
+     */
+    public IBinaryImage compact(IBinaryImage image) {
+        return (isRunLength() && !(image instanceof RunLengthImage)) ? RunLengthImage.of(image) : image;
+    }
+
     public List<CellShape> getAreas() {
         return areas;
     }
@@ -186,6 +186,11 @@ public abstract class AbstractFilament implements Cloneable, Serializable, Compa
 
     public abstract void invert();
 
+    /**
+     * Moves the filament by (dx, dy) pixels, e.g. from the coordinates of an image crop to the full frame.
+     */
+    public abstract void translate(int dx, int dy);
+
 
     public abstract Element toXML(Document document, int chain_number, int filament_number);
 
@@ -101,6 +101,22 @@ public class CurvedFilament extends SingleFilament {
         setKeep(element.getAttribute("keep").equals("yes"));
     }
 
+    /**
+     * Restores a filament from its stored values, like CurvedFilament(Element).
+     */
+    public CurvedFilament(List<Point> points, Point center, long length, long orientation, long width,
+                          long signed_curvature, long absolute_curvature, boolean keep) {
+        super();
+        setPoints(points);
+        setCenter(center);
+        setLength(length);
+        setOrientation(orientation);
+        setWidth(width);
+        m_mean_signed_curvature = signed_curvature;
+        m_mean_absolute_curvature = absolute_curvature;
+        setKeep(keep);
+    }
+
     public CurvedFilament(SingleFilament fil) {
         super();
         setPoints(new ArrayList<>());
@@ -236,6 +236,12 @@ public class FilamentChain extends AbstractFilament {
         }
     }
 
+    @Override
+    public void translate(int dx, int dy) {
+        m_filament_list.forEach(fil -> fil.translate(dx, dy));
+        chainAverages();
+    }
+
     @Override
     public void invert() {
         if (m_filament_list == null || m_filament_list.isEmpty()) {
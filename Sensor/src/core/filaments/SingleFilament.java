@@ -51,6 +51,18 @@ public abstract class SingleFilament extends AbstractFilament {
         return points;
     }
 
+    @Override
+    public void translate(int dx, int dy) {
+        // New points, the tracers may share point objects between filaments.
+        List<Point> moved = new ArrayList<>(points.size());
+        points.forEach(p -> moved.add(new Point(p.x + dx, p.y + dy)));
+        points = moved;
+        // The center is scaled by a factor of 10, see Filament.calcCenter.
+        if (center != null) {
+            center = new Point(center.x + 10 * dx, center.y + 10 * dy);
+        }
+    }
+
 
     public abstract ClusterableFilament makeClusterable(int time);
 
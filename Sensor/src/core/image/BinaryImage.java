@@ -202,6 +202,10 @@ public class BinaryImage implements IBinaryImage {
             throw new IllegalArgumentException("Images are not of the same size:(" + getWidth() + "," + getHeight() + ")!=(" + img.getWidth() + "," + img.getHeight() + ")");
         if (img instanceof BinaryImage) {
             getBits().and(((BinaryImage) img).getBits());
+        } else if (img instanceof RunLengthImage) {
+            getBits().and(((RunLengthImage) img).toBits());
+        } else if (img instanceof CroppedBinaryImage) {
+            getBits().and(((CroppedBinaryImage) img).toBits());
         } else {
             throw new IllegalArgumentException("Images are not of the same type");
         }
@@ -218,6 +222,10 @@ public class BinaryImage implements IBinaryImage {
             throw new IllegalArgumentException("Images are not of the same size:(" + getWidth() + "," + getHeight() + ")!=(" + img.getWidth() + "," + img.getHeight() + ")");
         if (img instanceof BinaryImage) {
             getBits().or(((BinaryImage) img).getBits());
+        } else if (img instanceof RunLengthImage) {
+            getBits().or(((RunLengthImage) img).toBits());
+        } else if (img instanceof CroppedBinaryImage) {
+            getBits().or(((CroppedBinaryImage) img).toBits());
         } else {
             throw new IllegalArgumentException("Images are not of the same type");
         }
@@ -249,15 +257,35 @@ public class BinaryImage implements IBinaryImage {
     }
 
     public boolean[][] toBoolean(boolean flip) {
-        boolean[][] img = new boolean[getWidth()][getHeight()];
-        for (int x = 0; x < getWidth(); x++) {
-            for (int y = 0; y < getHeight(); y++) {
-                img[x][y] = (flip) ? !getPixel(x, y) : getPixel(x, y);
-            }
+        final int width = getWidth(), height = getHeight();
+        boolean[][] img = new boolean[width][height];
+        if (flip) {
+            for (boolean[] column : img) Arrays.fill(column, true);
+        }
+        //visits the set bits only, word by word
+        for (int i = getBits().nextSetBit(0); i >= 0 && i < width * height; i = getBits().nextSetBit(i + 1)) {
+            img[i % width][i / width] = !flip;
         }
         return img;
     }
 
+    /**
+     * @return pixels of this image in rows of whole words, for word parallel processing
+     */
+    public PackedBits toPacked() {
+        return PackedBits.of(getBits(), getWidth(), getHeight());
+    }
+
+    /**
+     * Replaces the pixels of this image, packed has to be of the same size
+     */
+    public void setPacked(PackedBits packed) {
+        if (packed.getWidth() != getWidth() || packed.getHeight() != getHeight())
+            throw new IllegalArgumentException("Images are not of the same size:(" + getWidth() + "," + getHeight() + ")!=(" + packed.getWidth() + "," + packed.getHeight() + ")");
+        getBits().clear();
+        getBits().or(packed.toBitSet());
+    }
+
 
     /*
     store area as outline
@@ -357,14 +385,13 @@ public class BinaryImage implements IBinaryImage {
 
         //final int foreground = 0;//standard imageJ foreground color (black foreground, white background)
         //System.out.println("BinaryImage::open() --- foreground("+foreground+"),background("+(255-foreground)+")");
-        int[][] arrVals = byteProcessor.getIntArray();
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                arrVals[x][y] = (this.getPixel(x, y)) ? foreground : (255 - foreground);
-                //imagej standard => white == background && black == foreground
-            }
+        //imagej standard => white == background && black == foreground
+        //the pixels of the ByteProcessor have the same index y*width+x as the bits
+        byte[] pixels = (byte[]) byteProcessor.getPixels();
+        Arrays.fill(pixels, (byte) background);
+        for (int i = getBits().nextSetBit(0); i >= 0 && i < pixels.length; i = getBits().nextSetBit(i + 1)) {
+            pixels[i] = (byte) foreground;
         }
-        byteProcessor.setIntArray(arrVals);
         /*
         if (Prefs.blackBackground) {
             byteProcessor.invert();
@@ -379,21 +406,26 @@ public class BinaryImage implements IBinaryImage {
         if (byteProcessor == null || byteProcessor.get() == null) return;
         ByteProcessor bP = (ByteProcessor) byteProcessor.get().getProcessor();
         if (bP != null) {
-            int[][] arr = bP.getIntArray();
+            byte[] pixels = (byte[]) bP.getPixels();
             int foreground = 0;
             if (Prefs.blackBackground) {
                 foreground = 255;
             }
             if (isInverted()) foreground = 255 - foreground;
             //System.out.println("BinaryImage::flush() --- high="+high+",trueValue="+getTrueValue());
-            getBits().clear();
-            for (int i = 0; i < getWidth(); i++) {
-                for (int j = 0; j < getHeight(); j++) {
-                    if (arr[i][j] == foreground) {
-                        setPixel(i, j);
-                    }
+            //packs 64 pixels into one word of the bits
+            final byte fg = (byte) foreground;
+            long[] words = new long[(pixels.length + 63) / 64];
+            for (int w = 0; w < words.length; w++) {
+                final int start = w * 64, end = Math.min(start + 64, pixels.length);
+                long word = 0;
+                for (int i = start; i < end; i++) {
+                    if (pixels[i] == fg) word |= 1L << i;
                 }
+                words[w] = word;
             }
+            getBits().clear();
+            getBits().or(BitSet.valueOf(words));
             //if larger than half of the area -> store the opposite
             if (getPixelSetCount() > (getWidth() * getHeight() / 2)) {
                 invert();
@@ -415,9 +447,16 @@ public class BinaryImage implements IBinaryImage {
         }
         final int width = getWidth(), height = getHeight();
         long cnt = 0;
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                if (getPixel(x, y) == image.getPixel(x, y)) cnt++;
+        if (image instanceof BinaryImage) {
+            //pixels that differ are the set bits of the xor
+            BitSet difference = getWorkingCopy();
+            difference.xor(((BinaryImage) image).getBits());
+            cnt = (long) width * height - difference.get(0, width * height).cardinality();
+        } else {
+            for (int x = 0; x < width; x++) {
+                for (int y = 0; y < height; y++) {
+                    if (getPixel(x, y) == image.getPixel(x, y)) cnt++;
+                }
             }
         }
 
@@ -427,14 +466,20 @@ public class BinaryImage implements IBinaryImage {
 
     /**
      * Dilates Image by structuring element mask
-     * Calc.dilate is internally used
+     * Calc.dilate is internally used, on PackedBits if it supports the mask
      *
      * @param mask
      */
     public void dilate(IBinaryImage mask) {
         flush();//update image data if there are changes made to cached ByteProcessor
         close();//close processing stuff (inconsistency danger)
-        boolean[][] result = Calc.dilate(toBoolean(), mask.toBoolean());
+        boolean[][] structure = mask.toBoolean();
+        PackedBits packed = Calc.dilate(toPacked(), structure);
+        if (packed != null) {
+            setPacked(packed);
+            return;
+        }
+        boolean[][] result = Calc.dilate(toBoolean(), structure);
         if (result == null) return;
         getBits().clear();
         for (int x = 0; x < getWidth(); x++) {
@@ -446,14 +491,20 @@ public class BinaryImage implements IBinaryImage {
 
     /**
      * Erodes Image by structuring element mask
-     * Calc.erode is internally used
+     * Calc.erode is internally used, on PackedBits if it supports the mask
      *
      * @param mask
      */
     public void erode(IBinaryImage mask) {
         flush();
         close();
-        boolean[][] result = Calc.erode(toBoolean(), mask.toBoolean());
+        boolean[][] structure = mask.toBoolean();
+        PackedBits packed = Calc.erode(toPacked(), structure);
+        if (packed != null) {
+            setPacked(packed);
+            return;
+        }
+        boolean[][] result = Calc.erode(toBoolean(), structure);
         if (result == null) return;
         getBits().clear();
         for (int x = 0; x < getWidth(); x++) {
@@ -482,11 +533,11 @@ public class BinaryImage implements IBinaryImage {
      */
     public List<Point2D> getPoints() {
         List<Point2D> points = new ArrayList<>();
-        for (int i = 0; i < getWidth(); i++)
-            for (int j = 0; j < getHeight(); j++) {
-                if (getPixel(i, j)) points.add(new Point(i, j));
-            }
-        //sort points by x Value -> lowest x first
+        final int width = getWidth(), size = getWidth() * getHeight();
+        for (int i = getBits().nextSetBit(0); i >= 0 && i < size; i = getBits().nextSetBit(i + 1)) {
+            points.add(new Point(i % width, i / width));
+        }
+        //sort points by x Value -> lowest x first, the sort is stable so y stays ascending
         points.sort(Comparator.comparingDouble(Point2D::getX));
         return points;
     }
@@ -516,26 +567,32 @@ public class BinaryImage implements IBinaryImage {
         binaryImage.setInMemoryState(isInMemoryState());
         final int stepX = (newWidth - getWidth()) / 2;
         final int stepY = (newHeight - getHeight()) / 2;
-        for (int x = 0; x < getWidth(); x++) {
-            for (int y = 0; y < getHeight(); y++) {
-                if (getPixel(x, y)) binaryImage.setPixel(x + stepX, y + stepY);
-            }
+        //copies whole rows word by word
+        final long[] source = getBits().toLongArray();
+        long[] target = new long[(int) (((long) newWidth * newHeight + 63) / 64)];
+        for (int y = 0; y < getHeight(); y++) {
+            PackedBits.copyBits(source, (long) y * getWidth(), target, (long) (y + stepY) * newWidth + stepX, getWidth());
         }
+        binaryImage.setBits(BitSet.valueOf(target));
         return binaryImage;
     }
 
-    //could be optimized with bitset get from to range
     public BinaryImage getSubImage(Rectangle rect) {
         return getSubImage(rect.x, rect.y, rect.width, rect.height);
     }
 
     public BinaryImage getSubImage(int x, int y, int w, int h) {
         BinaryImage sub = new BinaryImage(w, h);
-        for (int i = x; i < x + w && i < getWidth(); i++) {
-            for (int j = y; j < y + h && j < getHeight(); j++) {
-                if (getPixel(i, j)) sub.setPixel(i - x, j - y);
-            }
+        if (w <= 0 || h <= 0 || x >= getWidth() || y >= getHeight()) return sub;
+        if (x < 0 || y < 0) throw new IllegalArgumentException("(x=" + x + ",y=" + y + ") out of Bounds");
+        //copies the part of every row word by word
+        final int columns = Math.min(w, getWidth() - x);
+        final long[] source = getBits().toLongArray();
+        long[] target = new long[(int) (((long) w * h + 63) / 64)];
+        for (int j = 0; j < h && y + j < getHeight(); j++) {
+            PackedBits.copyBits(source, (long) (y + j) * getWidth() + x, target, (long) j * w, columns);
         }
+        sub.setBits(BitSet.valueOf(target));
         return sub;
     }
 
@@ -0,0 +1,527 @@
+package core.image;
+
+
+import core.Calc;
+import ij.ImagePlus;
+import ij.Prefs;
+import ij.plugin.filter.Binary;
+import ij.process.ByteProcessor;
+import util.ImageExporter;
+
+import java.awt.*;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.BitSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Binary image that stores only the bounding box of its set pixels, for single objects like the
+ * connected components of Calc.largestObject. Memory scales with the area of the object instead
+ * of the image size, pixels outside of the box are unset.
+ * <p>
+ * The box grows if a pixel outside of it is set. getByteProcessor() and toBoolean() still cover
+ * the whole image, outline(), the memory state and the morphology work on the box plus a border.
+ */
+public class CroppedBinaryImage implements IBinaryImage {
+
+    private static final String title = "cropped_image";
+
+    private int width;
+    private int height;
+    //box of the crop in image coordinates
+    private Rectangle bounds;
+    private BinaryImage crop;
+
+    //same meaning as in BinaryImage, the ByteProcessor shows the pixels with swapped colors
+    private boolean inverted;
+    private boolean inMemoryState;
+
+    private transient SoftReference<ImagePlus> byteProcessor;
+
+    /**
+     * Default Constructor for Serialization
+     */
+    public CroppedBinaryImage() {
+        this(new Rectangle(), 0, 0);
+    }
+
+    public CroppedBinaryImage(int width, int height) {
+        this(new Rectangle(), width, height);
+    }
+
+    /**
+     * @param bounds box the set pixels will be in, it grows if pixels outside are set
+     */
+    public CroppedBinaryImage(Rectangle bounds, int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.bounds = new Rectangle(bounds);
+        this.crop = new BinaryImage(bounds.width, bounds.height);
+    }
+
+    /**
+     * Copies the set pixels of image, getPixel of the copy is the same as of image
+     */
+    public static CroppedBinaryImage of(IBinaryImage image) {
+        if (image instanceof CroppedBinaryImage) return ((CroppedBinaryImage) image).clone();
+        image.flush();
+        Rectangle box = null;
+        List<Point2D> points = image.getPoints();
+        for (Point2D p : points) {
+            if (box == null) box = new Rectangle((int) p.getX(), (int) p.getY(), 1, 1);
+            else box.add(new Rectangle((int) p.getX(), (int) p.getY(), 1, 1));
+        }
+        CroppedBinaryImage copy = new CroppedBinaryImage((box == null) ? new Rectangle() : box, image.getWidth(), image.getHeight());
+        points.forEach(p -> copy.setPixel((int) p.getX(), (int) p.getY()));
+        copy.setTrueValue(image.getTrueValue());
+        if (image instanceof BinaryImage) copy.inverted = ((BinaryImage) image).isInverted();
+        if (image instanceof RunLengthImage) copy.inverted = ((RunLengthImage) image).isInverted();
+        return copy;
+    }
+
+    /**
+     * @return BinaryImage of the whole image with the same pixels
+     */
+    public BinaryImage toBinaryImage() {
+        BinaryImage binaryImage = new BinaryImage(getWidth(), getHeight());
+        binaryImage.setBits(toBits());
+        binaryImage.setTrueValue(getTrueValue());
+        return binaryImage;
+    }
+
+    /**
+     * @return pixels of the whole image with index y * width + x, like BinaryImage stores them
+     */
+    public BitSet toBits() {
+        return place(new Rectangle(0, 0, getWidth(), getHeight())).getBits();
+    }
+
+    /**
+     * @return pixels of the crop inside of box, as BinaryImage of the size of box
+     */
+    private BinaryImage place(Rectangle box) {
+        BinaryImage placed = new BinaryImage(box.width, box.height);
+        placed.setTrueValue(getTrueValue());
+        Rectangle common = box.intersection(bounds);
+        if (common.isEmpty()) return placed;
+        //copies the common part of every row word by word, like BinaryImage.getSubImage
+        final long[] source = crop.getBits().toLongArray();
+        long[] target = new long[(int) (((long) box.width * box.height + 63) / 64)];
+        for (int y = common.y; y < common.y + common.height; y++) {
+            PackedBits.copyBits(source, (long) (y - bounds.y) * bounds.width + common.x - bounds.x,
+                    target, (long) (y - box.y) * box.width + common.x - box.x, common.width);
+        }
+        placed.setBits(BitSet.valueOf(target));
+        return placed;
+    }
+
+    private void setCrop(BinaryImage crop, Rectangle bounds) {
+        this.crop = crop;
+        this.bounds = new Rectangle(bounds);
+    }
+
+    //box grown by border pixels to each side, cut at the image borders
+    private Rectangle grown(int border) {
+        Rectangle box = new Rectangle(bounds.x - border, bounds.y - border, bounds.width + 2 * border, bounds.height + 2 * border);
+        return box.intersection(new Rectangle(0, 0, getWidth(), getHeight()));
+    }
+
+    public Rectangle getBounds() {
+        return bounds;
+    }
+
+    public void setBounds(Rectangle bounds) {
+        this.bounds = bounds;
+    }
+
+    /**
+     * The pixels inside of getBounds()
+     */
+    public BinaryImage getCrop() {
+        return crop;
+    }
+
+    public void setCrop(BinaryImage crop) {
+        this.crop = crop;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public void setWidth(int width) {
+        this.width = width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public void setHeight(int height) {
+        this.height = height;
+    }
+
+    public boolean isInverted() {
+        return inverted;
+    }
+
+    @Override
+    public int getTrueValue() {
+        return crop.getTrueValue();
+    }
+
+    @Override
+    public void setTrueValue(int trueValue) {
+        crop.setTrueValue(trueValue);
+    }
+
+    @Override
+    public void store(File file) {
+        try {
+            ImageExporter.exportImage(this, file);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public boolean getPixel(int x, int y) {
+        if (x < 0 || y < 0 || x >= getWidth() || y >= getHeight())
+            throw new IllegalArgumentException("(x=" + x + ",y=" + y + ") out of Bounds(w=" + getWidth() + ",h=" + getHeight() + ")");
+        return bounds.contains(x, y) && crop.getPixel(x - bounds.x, y - bounds.y);
+    }
+
+    @Override
+    public void setPixel(int x, int y) {
+        if (x < 0 || y < 0 || x >= getWidth() || y >= getHeight())
+            throw new IllegalArgumentException("(x=" + x + ",y=" + y + ") out of Bounds(w=" + getWidth() + ",h=" + getHeight() + ")");
+        if (!bounds.contains(x, y)) {
+            Rectangle box = bounds.isEmpty() ? new Rectangle(x, y, 1, 1) : bounds.union(new Rectangle(x, y, 1, 1));
+            setCrop(place(box), box);
+        }
+        crop.setPixel(x - bounds.x, y - bounds.y);
+    }
+
+    @Override
+    public void clearPixel(int x, int y) {
+        if (bounds.contains(x, y)) crop.clearPixel(x - bounds.x, y - bounds.y);
+    }
+
+    @Override
+    public int getPixelSetCount() {
+        return crop.getPixelSetCount();
+    }
+
+    private void checkSize(IBinaryImage img) {
+        if (img.getWidth() != getWidth() || img.getHeight() != getHeight())
+            throw new IllegalArgumentException("Images are not of the same size:(" + getWidth() + "," + getHeight() + ")!=(" + img.getWidth() + "," + img.getHeight() + ")");
+    }
+
+    @Override
+    public void and(IBinaryImage img) throws IllegalArgumentException {
+        checkSize(img);
+        if (img instanceof CroppedBinaryImage) {
+            CroppedBinaryImage other = (CroppedBinaryImage) img;
+            Rectangle box = bounds.intersection(other.bounds);
+            if (box.isEmpty()) box = new Rectangle();
+            BinaryImage result = place(box);
+            result.and(other.place(box));
+            setCrop(result, box);
+            return;
+        }
+        //only the pixels inside of the box can stay set
+        for (Point2D p : crop.getPoints()) {
+            if (!img.getPixel((int) p.getX() + bounds.x, (int) p.getY() + bounds.y)) {
+                crop.clearPixel((int) p.getX(), (int) p.getY());
+            }
+        }
+    }
+
+    @Override
+    public void or(IBinaryImage img) throws IllegalArgumentException {
+        checkSize(img);
+        CroppedBinaryImage other = (img instanceof CroppedBinaryImage) ? (CroppedBinaryImage) img : CroppedBinaryImage.of(img);
+        if (other.bounds.isEmpty()) return;
+        Rectangle box = bounds.isEmpty() ? new Rectangle(other.bounds) : bounds.union(other.bounds);
+        BinaryImage result = place(box);
+        result.or(other.place(box));
+        setCrop(result, box);
+    }
+
+    @Override
+    public CroppedBinaryImage clone() {
+        flush();
+        CroppedBinaryImage clone = new CroppedBinaryImage(getWidth(), getHeight());
+        clone.setCrop(crop.clone(), bounds);
+        clone.inverted = isInverted();
+        clone.inMemoryState = isInMemoryState();
+        return clone;
+    }
+
+    @Override
+    public boolean[][] toBoolean() {
+        boolean[][] img = new boolean[getWidth()][getHeight()];
+        for (Point2D p : crop.getPoints()) {
+            img[(int) p.getX() + bounds.x][(int) p.getY() + bounds.y] = true;
+        }
+        return img;
+    }
+
+
+    @Override
+    public ByteProcessor getByteProcessor() {
+        if (byteProcessor != null && byteProcessor.get() != null)
+            return (ByteProcessor) byteProcessor.get().getProcessor();
+        open();
+        return (ByteProcessor) byteProcessor.get().getProcessor();
+    }
+
+    @Override
+    public BufferedImage getBufferedImage() {
+        if (byteProcessor != null && byteProcessor.get() != null) return byteProcessor.get().getBufferedImage();
+        BufferedImage output = new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_4BYTE_ABGR);
+        final int white = Color.white.getRGB();
+        for (Point2D p : crop.getPoints()) {
+            output.setRGB((int) p.getX() + bounds.x, (int) p.getY() + bounds.y, white);
+        }
+        return output;
+    }
+
+    //foreground of the ByteProcessor like in BinaryImage
+    private int foreground() {
+        final int fg = Prefs.blackBackground ? 255 : 0;
+        return isInverted() ? 255 - fg : fg;
+    }
+
+    /**
+     * Full size ByteProcessor of box with the pixels of the crop
+     */
+    private ByteProcessor toProcessor(Rectangle box) {
+        ByteProcessor processor = new ByteProcessor(box.width, box.height);
+        final int foreground = foreground();
+        processor.setBackgroundValue(255 - foreground);
+        byte[] pixels = (byte[]) processor.getPixels();
+        java.util.Arrays.fill(pixels, (byte) (255 - foreground));
+        for (Point2D p : crop.getPoints()) {
+            pixels[((int) p.getY() + bounds.y - box.y) * box.width + (int) p.getX() + bounds.x - box.x] = (byte) foreground;
+        }
+        return processor;
+    }
+
+    /**
+     * Replaces the crop with the foreground pixels of processor, which shows box
+     */
+    private void fromProcessor(ByteProcessor processor, Rectangle box) {
+        final byte[] pixels = (byte[]) processor.getPixels();
+        final byte foreground = (byte) foreground();
+        int xMin = Integer.MAX_VALUE, xMax = -1, yMin = Integer.MAX_VALUE, yMax = -1;
+        for (int y = 0; y < box.height; y++) {
+            for (int x = 0; x < box.width; x++) {
+                if (pixels[y * box.width + x] == foreground) {
+                    xMin = Math.min(xMin, x);
+                    xMax = Math.max(xMax, x);
+                    yMin = Math.min(yMin, y);
+                    yMax = Math.max(yMax, y);
+                }
+            }
+        }
+        if (xMax < 0) {
+            setCrop(new BinaryImage(0, 0), new Rectangle());
+            return;
+        }
+        Rectangle tight = new Rectangle(box.x + xMin, box.y + yMin, xMax - xMin + 1, yMax - yMin + 1);
+        BinaryImage result = new BinaryImage(tight.width, tight.height);
+        result.setTrueValue(getTrueValue());
+        for (int y = 0; y < tight.height; y++) {
+            for (int x = 0; x < tight.width; x++) {
+                if (pixels[(y + yMin) * box.width + x + xMin] == foreground) result.setPixel(x, y);
+            }
+        }
+        setCrop(result, tight);
+    }
+
+    @Override
+    public void open() {
+        if (byteProcessor != null && byteProcessor.get() != null) return;
+        this.byteProcessor = new SoftReference<>(new ImagePlus(title, toProcessor(new Rectangle(0, 0, getWidth(), getHeight()))));
+    }
+
+    @Override
+    public void flush() {
+        if (byteProcessor == null || byteProcessor.get() == null) return;
+        ByteProcessor bP = (ByteProcessor) byteProcessor.get().getProcessor();
+        if (bP != null) fromProcessor(bP, new Rectangle(0, 0, getWidth(), getHeight()));
+    }
+
+    @Override
+    public void close() {
+        if (byteProcessor == null) return;
+        byteProcessor.clear();
+    }
+
+    /**
+     * Runs the imageJ Binary outline on the box plus a one pixel border, which gives the same
+     * pixels as on the whole image, since the outline of a pixel depends on its 3x3 neighborhood
+     */
+    public void outline() {
+        runOnBox(processor -> {
+            Binary binary = new Binary();
+            binary.setup("outline", null);
+            binary.run(processor);
+        });
+    }
+
+    /**
+     * Full size histogram of getByteProcessor(), without creating it
+     */
+    public int[] getHistogram() {
+        int[] histogram = new int[256];
+        histogram[foreground()] += getPixelSetCount();
+        histogram[255 - foreground()] += getWidth() * getHeight() - getPixelSetCount();
+        return histogram;
+    }
+
+    private void runOnBox(java.util.function.Consumer<ByteProcessor> action) {
+        flush();
+        close();
+        if (bounds.isEmpty()) return;
+        Rectangle box = grown(1);
+        ByteProcessor processor = toProcessor(box);
+        action.accept(processor);
+        fromProcessor(processor, box);
+    }
+
+    @Override
+    public double compare(IBinaryImage image) {
+        if (image == null || image.getWidth() != this.getWidth() || image.getHeight() != this.getHeight()) {
+            throw new IllegalArgumentException("CroppedBinaryImage::compare --- image parameter incorrect");
+        }
+        //pixels that differ are set in one of the images but not in both
+        long both = 0;
+        for (Point2D p : crop.getPoints()) {
+            if (image.getPixel((int) p.getX() + bounds.x, (int) p.getY() + bounds.y)) both++;
+        }
+        final long different = getPixelSetCount() + image.getPixelSetCount() - 2 * both;
+        return (double) ((long) getWidth() * getHeight() - different) / (getWidth() * getHeight());
+    }
+
+    public boolean isInMemoryState() {
+        return inMemoryState;
+    }
+
+    /**
+     * Enters memory state like BinaryImage, the outline is done on the box only
+     */
+    public void enterMemoryState() {
+        if (inMemoryState) return;
+        runOnBox(processor -> {
+            if (Prefs.blackBackground)
+                processor.invert();//ByteProcessor doesn't care for blackBackground outline will be wrong, if not checked
+            processor.outline();
+            if (Prefs.blackBackground) processor.invert();
+        });
+        inMemoryState = true;
+    }
+
+    /**
+     * Exits the memory state like BinaryImage, holes are found on the box plus a border of
+     * unset pixels, which connects everything outside of the object like on the whole image
+     */
+    public void exitMemoryState() {
+        if (!inMemoryState) return;
+        runOnBox(processor -> {
+            Binary bin = new Binary();
+            bin.setup("fill", null);
+            bin.run(processor);
+        });
+        inMemoryState = false;
+    }
+
+
+    /**
+     * Dilates Image by structuring element mask
+     * on the box plus the range of the mask if Calc supports the mask on PackedBits, on the whole image otherwise
+     *
+     * @param mask
+     */
+    @Override
+    public void dilate(IBinaryImage mask) {
+        flush();
+        close();
+        if (bounds.isEmpty()) return;
+        boolean[][] structure = mask.toBoolean();
+        Rectangle box = grown(structure.length / 2);
+        BinaryImage placed = place(box);
+        PackedBits packed = Calc.dilate(placed.toPacked(), structure);
+        if (packed != null) {
+            placed.setPacked(packed);
+            setCrop(placed, box);
+        } else {
+            BinaryImage whole = toBinaryImage();
+            whole.dilate(mask);
+            CroppedBinaryImage result = CroppedBinaryImage.of(whole);
+            setCrop(result.crop, result.bounds);
+        }
+    }
+
+    /**
+     * Erodes Image by structuring element mask
+     * on the box plus a border of unset pixels if Calc supports the mask on PackedBits, on the whole image otherwise.
+     * Every supported mask reaching outside of the border also covers the border pixel in between, so the result is
+     * the same as on the whole image.
+     *
+     * @param mask
+     */
+    @Override
+    public void erode(IBinaryImage mask) {
+        flush();
+        close();
+        if (bounds.isEmpty()) return;
+        boolean[][] structure = mask.toBoolean();
+        Rectangle box = grown(1);
+        BinaryImage placed = place(box);
+        PackedBits packed = Calc.erode(placed.toPacked(), structure);
+        if (packed != null) {
+            placed.setPacked(packed);
+            setCrop(placed, box);
+        } else {
+            BinaryImage whole = toBinaryImage();
+            whole.erode(mask);
+            CroppedBinaryImage result = CroppedBinaryImage.of(whole);
+            setCrop(result.crop, result.bounds);
+        }
+    }
+
+    /**
+     * Returns a list of Point2D representing each pixel set on the binary image
+     * the list is sorted by lowest point.x first, like in BinaryImage
+     */
+    @Override
+    public List<Point2D> getPoints() {
+        return crop.getPoints().stream().map(p -> new Point((int) p.getX() + bounds.x, (int) p.getY() + bounds.y)).collect(Collectors.toList());
+    }
+
+    /**
+     * Enlargens the image and moves its content to the image center
+     *
+     * @param newWidth
+     * @param newHeight
+     * @return
+     */
+    public CroppedBinaryImage copyToCenter(int newWidth, int newHeight) {
+        if (this.getWidth() > newWidth || this.getHeight() > newHeight) {
+            throw new IllegalArgumentException("CroppedBinaryImage::copyToCenter --- newWidth||newHeight < oldWidth||oldHeight");
+        }
+        CroppedBinaryImage image = new CroppedBinaryImage(newWidth, newHeight);
+        Rectangle box = new Rectangle(bounds);
+        box.translate((newWidth - getWidth()) / 2, (newHeight - getHeight()) / 2);
+        image.setCrop(crop.clone(), box);
+        image.inMemoryState = isInMemoryState();
+        return image;
+    }
+
+}
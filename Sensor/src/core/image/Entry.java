@@ -14,7 +14,10 @@ public class Entry implements Serializable {
 
     private String path;
     //in case of clone, this should be a deep copy
-    private transient ImageProcessor processor;
+    private transient volatile ImageProcessor processor;
+    //frame store of the processor, if the image stack is a MappedStack (see bind())
+    private transient MappedStack store;
+    private transient int slot;
 
     //in case of clone all other attributes should be soft copied(pointing to the same object)
     private ShapeContainer shape;
@@ -42,10 +45,40 @@ public class Entry implements Serializable {
     public void releaseResources() {
         interiorContainer = null;
         orientationFieldContainer = null;
-        processor = null;
+        setProcessor(null);
         shape = null;
     }
 
+    /**
+     * Binds the entry to a frame of a MappedStack, the processor is loaded on demand by getProcessor()
+     * and kept until releaseProcessor()
+     *
+     * @param store stack which stores the frame
+     * @param slot  slot of the frame, see MappedStack.getSlot()
+     */
+    synchronized void bind(MappedStack store, int slot) {
+        releaseProcessor();
+        this.processor = null;
+        this.store = store;
+        this.slot = slot;
+    }
+
+    /**
+     * Writes the processor back to its MappedStack and drops it, the next getProcessor() loads it again.
+     * Does nothing if the entry is not bound to a MappedStack.
+     */
+    public synchronized void releaseProcessor() {
+        if (store != null && processor != null) {
+            store.writeSlot(processor.getPixels(), slot);
+            processor = null;
+        }
+    }
+
+    private synchronized ImageProcessor loadProcessor() {
+        if (processor == null && store != null) processor = store.readSlot(slot);
+        return processor;
+    }
+
     public CorrelationData getCorrelationData() {
         return correlationData;
     }
@@ -60,7 +93,9 @@ public class Entry implements Serializable {
 
     @Transient
     public ImageProcessor getProcessor() {
-        return processor;
+        ImageProcessor current = processor;
+        if (current == null && store != null) current = loadProcessor();
+        return current;
     }
 
     public ShapeContainer getShape() {
@@ -76,9 +111,13 @@ public class Entry implements Serializable {
         this.path = path;
     }
 
+    /**
+     * Sets the processor, the entry is no longer bound to a MappedStack
+     */
     @Transient
-    public void setProcessor(ImageProcessor processor) {
+    public synchronized void setProcessor(ImageProcessor processor) {
         this.processor = processor;
+        this.store = null;
     }
 
     public void setShape(ShapeContainer shape) {
@@ -0,0 +1,167 @@
+package core.image;
+
+import core.settings.Load;
+import core.settings.Settings;
+import ij.ImagePlus;
+import util.Annotations.Nullable;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Decodes image files ahead of their use on a bounded pool of I/O threads, next() returns the images
+ * in the order of the file list, opened like ImageWrapper opens them (see ImageWrapper.openImage()).
+ * <p>
+ * At most readAhead images are decoding or waiting to be taken, and an image is only started if the
+ * waiting and decoding images stay within maxBytes, decoding images are estimated by the size of the last
+ * decoded image. The next image to be taken is always started.
+ * BatchProcessor uses this to decode the next chunk while the current one is processed.
+ */
+public class ImageLoader implements AutoCloseable {
+
+    private final List<File> files;
+    private final Settings parameters;
+    private final int readAhead;
+    private final long maxBytes;
+
+    private final ExecutorService service;
+    //decoding images, index is the same as in files
+    private final List<Future<ImagePlus>> futures;
+    //next file to start and next file to take
+    private int started;
+    private int taken;
+    //bytes of the decoded images which are not taken yet
+    private long bufferedBytes;
+    //number of images decoding and size of the last decoded image, 0 until the first one is decoded
+    private int decoding;
+    private long estimate;
+    private boolean closed;
+
+    /**
+     * @param files      files to load in the order they are returned
+     * @param parameters settings used to open the images (Load.keepBitRange)
+     * @param threads    number of I/O threads
+     * @param readAhead  maximum number of images decoding or waiting to be taken
+     * @param maxBytes   memory cap of the images waiting to be taken
+     */
+    public ImageLoader(List<File> files, Settings parameters, int threads, int readAhead, long maxBytes) {
+        if (threads < 1 || readAhead < 1)
+            throw new IllegalArgumentException("ImageLoader --- threads and readAhead have to be at least 1");
+        this.files = new ArrayList<>(files);
+        this.parameters = parameters;
+        this.readAhead = readAhead;
+        this.maxBytes = maxBytes;
+        this.service = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "ImageLoader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.futures = new ArrayList<>(Collections.nCopies(this.files.size(), null));
+        fill();
+    }
+
+    /**
+     * @return loader configured by Load.prefetchFrames, Load.prefetchThreads and Load.prefetchMemory(MB),
+     * null if Load.prefetchFrames is 0
+     */
+    @Nullable
+    public static ImageLoader of(List<File> files, Settings parameters) {
+        final int readAhead = parameters.getValue(Load.prefetchFrames, 0);
+        if (readAhead <= 0) return null;
+        return new ImageLoader(files, parameters, Math.max(1, parameters.getValue(Load.prefetchThreads, 2)), readAhead,
+                (long) parameters.getValue(Load.prefetchMemory, 512) << 20);
+    }
+
+    /**
+     * @return files in the order they are returned by next()
+     */
+    public List<File> getFiles() {
+        return Collections.unmodifiableList(files);
+    }
+
+    public synchronized boolean hasNext() {
+        return taken < files.size();
+    }
+
+    /**
+     * @return file of the image the next call of next() returns
+     */
+    public synchronized File peekFile() {
+        if (!hasNext()) throw new NoSuchElementException();
+        return files.get(taken);
+    }
+
+    /**
+     * Waits for the next image in the order of the file list
+     *
+     * @throws Exception if the image could not be opened
+     */
+    public ImagePlus next() throws Exception {
+        final Future<ImagePlus> future;
+        synchronized (this) {
+            if (closed) throw new IllegalStateException("ImageLoader::next() --- loader is closed");
+            if (!hasNext()) throw new NoSuchElementException();
+            future = futures.get(taken);
+        }
+        ImagePlus image;
+        try {
+            image = future.get();
+        } catch (ExecutionException e) {
+            throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+        }
+        synchronized (this) {
+            futures.set(taken, null);
+            taken++;
+            bufferedBytes -= bytes(image);
+            fill();
+        }
+        return image;
+    }
+
+    //starts images until the read ahead or the memory cap is reached
+    private synchronized void fill() {
+        while (!closed && started < files.size() && started - taken < readAhead &&
+                (started == taken || (estimate > 0 && bufferedBytes + (decoding + 1) * estimate <= maxBytes))) {
+            final File file = files.get(started);
+            decoding++;
+            futures.set(started, service.submit(() -> {
+                ImagePlus image = null;
+                try {
+                    image = ImageWrapper.openImage(file, parameters);
+                    return image;
+                } finally {
+                    synchronized (this) {
+                        decoding--;
+                        if (image != null) {
+                            estimate = bytes(image);
+                            bufferedBytes += estimate;
+                        }
+                        fill();
+                    }
+                }
+            }));
+            started++;
+        }
+    }
+
+    private static long bytes(ImagePlus image) {
+        if (image == null) return 0;
+        return (long) image.getWidth() * image.getHeight() * image.getStackSize() * image.getBytesPerPixel();
+    }
+
+    /**
+     * Stops the I/O threads, images not taken yet are dropped
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        service.shutdownNow();
+    }
+}
@@ -12,8 +12,10 @@ import util.Annotations.Nullable;
 import ij.io.Opener;
 import ij.plugin.CanvasResizer;
 import ij.plugin.Duplicator;
+import ij.process.ByteProcessor;
 import ij.process.ImageConverter;
 import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.SimpleBooleanProperty;
 import javafx.beans.value.ChangeListener;
@@ -93,10 +95,27 @@ public class ImageWrapper implements Cloneable {
     //extends the constructor above with dimension "injection" to pad the stack up to at least the dimension (useful when having lots of different sized images)
     // in a batch process;
     public ImageWrapper(List<File> files, Settings parameters, Dimension2D dimension) throws Exception {
+        this(files, parameters, dimension, null);
+    }
+
+    /**
+     * @param loader if not null the images are taken from the loader instead of being opened here,
+     *               the next images of the loader have to be the files in path order
+     */
+    public ImageWrapper(List<File> files, Settings parameters, Dimension2D dimension, @Nullable ImageLoader loader) throws Exception {
         this();
         Collections.sort(files);
         setParameters(parameters);
-        List<ImagePlus> images = getImagePlus(1, files, parameters);
+        if (parameters.getValueAsBoolean(Load.mappedStack, false)) {
+            this.targetMinDimension = dimension;
+            initMappedStack(files, loader);
+            initializeEntryList(files);
+            return;
+        }
+        List<ImagePlus> images = new ArrayList<>();
+        for (File file : files) {
+            images.add(openImage(file, loader));
+        }
         //get one of the images and pad it to the target dimension (copy the actual image to mid)
         this.targetMinDimension = dimension;
         ImagePlus zero = images.get(0);
@@ -215,6 +234,16 @@ public class ImageWrapper implements Cloneable {
      * @param files sorted list of files
      */
     private void initializeEntryList(final List<File> files) {
+        if (image.getStack() instanceof MappedStack) {
+            //frames are loaded on demand from the store
+            MappedStack store = (MappedStack) image.getStack();
+            for (int i = 0; i < files.size() && i < store.getSize(); i++) {
+                Entry entry = new Entry(files.get(i).getAbsolutePath(), null, null, new DataFilaments());
+                entry.bind(store, store.getSlot(i + 1));
+                entries.add(entry);
+            }
+            return;
+        }
         files.forEach(file -> {
             int idx = files.indexOf(file);
             ImageProcessor processor;
@@ -263,7 +292,10 @@ public class ImageWrapper implements Cloneable {
      */
     public void updateProcessors() {
         for (int i = 0; i < getEntryList().size(); i++) {
-            if (getEntryList().size() > 1)
+            if (getImage().getStack() instanceof MappedStack) {
+                MappedStack store = (MappedStack) getImage().getStack();
+                getEntryList().get(i).bind(store, store.getSlot(i + 1));
+            } else if (getEntryList().size() > 1)
                 getEntryList().get(i).setProcessor(getImage().getStack().getProcessor(i + 1));
             else {
                 getEntryList().get(i).setProcessor(getImage().getProcessor());
@@ -286,14 +318,7 @@ public class ImageWrapper implements Cloneable {
     private List<ImagePlus> getImagePlus(double scale, List<File> files, Settings dp) {
 
         List<ImagePlus> images = new ArrayList<>();
-        files.forEach(file -> {
-            ImagePlus imagePlus = IJ.openImage(file.getAbsolutePath());
-            convertImage(imagePlus, dp);
-            imagePlus.setTitle(file.getAbsolutePath());
-            imagePlus.getFileInfo().fileName = file.getName();
-            imagePlus.getFileInfo().directory = file.getParent();
-            images.add(imagePlus);
-        });
+        files.forEach(file -> images.add(openImage(file, dp)));
         if (getCurrentScale() != 1) {//if scale is not default scale (default == 1)
             FilterScale filter = new FilterScale();
             filter.setScaleFactor(scale);
@@ -302,6 +327,27 @@ public class ImageWrapper implements Cloneable {
         return images;
     }
 
+    /**
+     * Opens the image file, converted to gray 8 bit unless Load.keepBitRange is set
+     */
+    static ImagePlus openImage(File file, Settings dp) {
+        ImagePlus imagePlus = IJ.openImage(file.getAbsolutePath());
+        convertImage(imagePlus, dp);
+        imagePlus.setTitle(file.getAbsolutePath());
+        imagePlus.getFileInfo().fileName = file.getName();
+        imagePlus.getFileInfo().directory = file.getParent();
+        return imagePlus;
+    }
+
+    //image of file from the loader if there is one, opened here otherwise
+    private ImagePlus openImage(File file, @Nullable ImageLoader loader) throws Exception {
+        if (loader == null) return openImage(file, getParameters());
+        File next = loader.peekFile();
+        if (!next.getAbsolutePath().equals(file.getAbsolutePath()))
+            throw new IllegalStateException("ImageWrapper::openImage() --- loader delivers " + next + " instead of " + file);
+        return loader.next();
+    }
+
     private void initStack(List<ImagePlus> images) throws Exception {
         //check sizes
         checkSizes(images);
@@ -319,7 +365,61 @@ public class ImageWrapper implements Cloneable {
 
     }
 
-    private void convertImage(ImagePlus image, Settings dp) {
+    /**
+     * Decodes the images one by one into a MappedStack, every image is copied to the center of the
+     * largest image size (at least targetMinDimension) like StackCreator.COPY_CENTER does.
+     * The stack has 16 bit frames if the bit range is kept and the first image is a 16 bit image, 8 bit frames otherwise.
+     *
+     * @param files  sorted list of files
+     * @param loader source of the images, null opens them here
+     */
+    private void initMappedStack(List<File> files, @Nullable ImageLoader loader) throws Exception {
+        if (files.isEmpty()) throw new Exception("No Image files");
+        int width = (targetMinDimension != null) ? (int) targetMinDimension.getWidth() : 0;
+        int height = (targetMinDimension != null) ? (int) targetMinDimension.getHeight() : 0;
+        for (File file : files) {
+            Dimension2D dimension = IOUtils.getDimensionFromImage(file);
+            if (dimension != null) {
+                width = Math.max(width, (int) dimension.getWidth());
+                height = Math.max(height, (int) dimension.getHeight());
+            }
+        }
+        MappedStack store = null;
+        List<Dimension> sizes = new ArrayList<>();
+        String name = null;
+        for (File file : files) {
+            ImagePlus imagePlus = openImage(file, loader);
+            ImageProcessor processor = imagePlus.getProcessor();
+            if (store == null) {
+                //the stack has the size of the image if no size could be read beforehand
+                width = Math.max(width, processor.getWidth());
+                height = Math.max(height, processor.getHeight());
+                store = new MappedStack(width, height, processor.getBitDepth() == 16 ? 16 : 8);
+                store.setColorModel(processor.getColorModel());
+                name = new File(imagePlus.getTitle()).getName();
+                //the first image is padded to the target dimension before the sizes are compared, see constructor above
+                sizes.add(new Dimension(width, height));
+            } else {
+                sizes.add(new Dimension(processor.getWidth(), processor.getHeight()));
+            }
+            if (processor.getWidth() > width || processor.getHeight() > height)
+                throw new Exception("ImageWrapper::initMappedStack() --- image larger than the stack: " + file);
+            if (processor.getWidth() != width || processor.getHeight() != height) {
+                ImageProcessor centered = (store.getBitDepth() == 16) ? new ShortProcessor(width, height) : new ByteProcessor(width, height);
+                centered.insert(processor, (width - processor.getWidth()) / 2, (height - processor.getHeight()) / 2);
+                processor = centered;
+            }
+            store.addSlice(imagePlus.getTitle(), processor);
+            imagePlus.close();
+        }
+        differentSizes = sizes.stream().distinct().count() > 1;
+        for (String ext : PathScanner.supportedImageExtensions) {
+            name = name.replace(ext, "");
+        }
+        image = new ImagePlus(name, store);
+    }
+
+    private static void convertImage(ImagePlus image, Settings dp) {
         //if the image is a one channel red, green or blue image the convertToGray8 does not really convert it
         //it just transforms to 8bit -> this can cause problems later when exporting, during RGB conversion.
         //because those images are also isColorLut()==true
@@ -347,7 +447,22 @@ public class ImageWrapper implements Cloneable {
             throw new RuntimeException("ImageWrapper::initializeShape() --- parameters are null");
         final int minRange = getParameters().getValue(Pre.min_range);
 
-        if (isDifferentSizes()) {//if image derived from stack-file there should never be different sizes
+        if (isDifferentSizes() && getImage().getStack() instanceof MappedStack) {
+            //original images are decoded one by one, not all at once
+            worker = CompletableFuture.runAsync(() ->
+                    getEntryList().parallelStream().forEach(entry -> {
+                        ImagePlus original = getImagePlus(getCurrentScale(), Collections.singletonList(new File(entry.getPath())), getParameters()).get(0);
+                        entry.setShape(CellPlugin.getCellData(original.getProcessor(), null, minRange, getMinArea(), plugin));
+                    })
+            ).thenCompose(v -> {
+                copyShapeToCenter();
+                return CompletableFuture.completedFuture(null);
+            });
+            getWorker().exceptionally(ex -> {
+                ex.printStackTrace();
+                return null;
+            });
+        } else if (isDifferentSizes()) {//if image derived from stack-file there should never be different sizes
             //different sized
             //calculate from original image and copy to center after that
             List<ImagePlus> images = getImagePlus(getCurrentScale(), getEntryList().stream().map(e -> new File(e.getPath())).sorted(Comparator.comparing(File::getAbsolutePath)).collect(Collectors.toList()), getParameters());
@@ -379,9 +494,11 @@ public class ImageWrapper implements Cloneable {
             //equal sized
             //just do normal processing
             worker = CompletableFuture.runAsync(() ->
-                    getEntryList().parallelStream().forEach(entry ->
-                            entry.setShape(CellPlugin.getCellData(entry.getProcessor(), null,
-                                    minRange, getMinArea(), plugin))));
+                    getEntryList().parallelStream().forEach(entry -> {
+                        entry.setShape(CellPlugin.getCellData(entry.getProcessor(), null,
+                                minRange, getMinArea(), plugin));
+                        entry.releaseProcessor();
+                    }));
         }
 
         return getWorker();
@@ -417,6 +534,7 @@ public class ImageWrapper implements Cloneable {
                     Entry last = entryList.get(i - 1);
                     entry.setShape(CellPlugin.getCellData(entry.getProcessor(), last.getShape(), minRange, getMinArea(), plugin));
                 }
+                entry.releaseProcessor();
             }
         });
         return worker;
@@ -434,7 +552,13 @@ public class ImageWrapper implements Cloneable {
                     (int) cell.getBounds().getWidth(),
                     (int) cell.getBounds().getHeight())
             );
-            cell.setBinaryImage(((BinaryImage) cell.getBinaryImage()).copyToCenter(newWidth, newHeight));
+            if (cell.getBinaryImage() instanceof RunLengthImage) {
+                cell.setBinaryImage(((RunLengthImage) cell.getBinaryImage()).copyToCenter(newWidth, newHeight));
+            } else if (cell.getBinaryImage() instanceof CroppedBinaryImage) {
+                cell.setBinaryImage(((CroppedBinaryImage) cell.getBinaryImage()).copyToCenter(newWidth, newHeight));
+            } else {
+                cell.setBinaryImage(((BinaryImage) cell.getBinaryImage()).copyToCenter(newWidth, newHeight));
+            }
         };
 
         getEntryList().parallelStream().forEach(entry -> {
@@ -537,10 +661,41 @@ public class ImageWrapper implements Cloneable {
 
 
     public void closeImage() {
+        ImageStack stack = getImage().getStack();
         getImage().close();
+        if (stack instanceof MappedStack) ((MappedStack) stack).close();
         image = null;
     }
 
+    /**
+     * Writes the processors of entries bound to a MappedStack back to the stack, see Entry.releaseProcessor()
+     */
+    public void releaseProcessors() {
+        getEntryList().forEach(Entry::releaseProcessor);
+    }
+
+    /**
+     * Closes the MappedStack of copy before its image is replaced, unless this wrapper uses the same stack.
+     * The processors of copy are released first, so no entry writes to the closed stack.
+     */
+    private void closeReplacedStack(ImageWrapper copy) {
+        if (copy.image == null || !(copy.image.getStack() instanceof MappedStack) || copy.image.getStack() == image.getStack())
+            return;
+        if (copy.entries != null) copy.releaseProcessors();
+        ((MappedStack) copy.image.getStack()).close();
+    }
+
+    //deep copy, a MappedStack is copied into a new MappedStack
+    private static ImagePlus duplicate(ImagePlus image) {
+        if (image.getStack() instanceof MappedStack) {
+            ImagePlus copy = new ImagePlus(image.getTitle(), image.getStack().duplicate());
+            copy.setCalibration(image.getCalibration());
+            return copy;
+        }
+        Duplicator duplicator = new Duplicator();
+        return duplicator.run(image);
+    }
+
 
     /**
      * Deep copy of image data, no copies of listeners, shallow copy of shapes, shallow copy of files
@@ -562,8 +717,9 @@ public class ImageWrapper implements Cloneable {
      * @param copy object which should get data from current ImageWrapper
      */
     public void cloneImage(ImageWrapper copy) {
-        Duplicator duplicator = new Duplicator();
-        copy.image = duplicator.run(image);
+        releaseProcessors();
+        closeReplacedStack(copy);
+        copy.image = duplicate(image);
         //copy image and update/init the entries in the entryList
         if (copy.entries == null || copy.entries.size() == 0) {
             copy.initializeEntryList(getEntryList().stream().
@@ -606,8 +762,9 @@ public class ImageWrapper implements Cloneable {
      */
     public void cloneData(ImageWrapper copy) {
 
-        Duplicator duplicator = new Duplicator();
-        copy.image = duplicator.run(image);
+        releaseProcessors();
+        closeReplacedStack(copy);
+        copy.image = duplicate(image);
         copy.entries.clear();
         //clone entry list and replace imageprocessors
         copy.initializeEntryList(getEntryList().stream().
@@ -0,0 +1,314 @@
+package core.image;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.VirtualStack;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Image stack of 8 or 16 bit frames stored off the java heap, in a memory mapped temporary file
+ * with a fixed stride of width * height * bytes per pixel.
+ * <p>
+ * Like for every VirtualStack getProcessor(n) returns a new processor with a copy of the frame,
+ * changes are only stored with setProcessor(ip, n) or setPixels(pixels, n). Entries bound to the
+ * stack (see ImageWrapper) keep their processor until Entry.releaseProcessor() writes it back.
+ */
+public class MappedStack extends VirtualStack {
+
+    //bytes of the file that are mapped at once
+    private static final long segmentBytes = 64L << 20;
+
+    private final int bitDepth;
+    private final long frameBytes;
+    private final int framesPerSegment;
+
+    private final File file;
+    private final FileChannel channel;
+    private final List<MappedByteBuffer> segments;
+
+    //slot in the file of each slice, deleted slices leave their slot unused
+    private int[] slots;
+    private final List<String> labels;
+    private int size;
+    private int slotCount;
+    private volatile boolean closed;
+
+    /**
+     * @param bitDepth 8 or 16
+     * @throws IOException if the temporary file can't be created
+     */
+    public MappedStack(int width, int height, int bitDepth) throws IOException {
+        super(width, height);
+        if (bitDepth != 8 && bitDepth != 16)
+            throw new IllegalArgumentException("MappedStack --- only 8 and 16 bit frames are supported, bitDepth=" + bitDepth);
+        this.bitDepth = bitDepth;
+        this.frameBytes = (long) width * height * (bitDepth / 8);
+        if (frameBytes > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("MappedStack --- frame too large:" + width + "x" + height);
+        this.framesPerSegment = (int) Math.max(1, segmentBytes / Math.max(1, frameBytes));
+        this.file = File.createTempFile("filament_stack", ".raw");
+        file.deleteOnExit();
+        this.channel = new RandomAccessFile(file, "rw").getChannel();
+        this.segments = new ArrayList<>();
+        this.slots = new int[16];
+        this.labels = new ArrayList<>();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    //region frame access
+
+    private synchronized MappedByteBuffer segment(int index) throws IOException {
+        while (segments.size() <= index) segments.add(null);
+        if (segments.get(index) == null) {
+            final long length = framesPerSegment * frameBytes;
+            segments.set(index, channel.map(FileChannel.MapMode.READ_WRITE, index * length, length));
+        }
+        return segments.get(index);
+    }
+
+    //view of the frame in slot, every call gets its own view so frames can be accessed in parallel
+    private ByteBuffer frame(int slot) throws IOException {
+        ByteBuffer buffer = segment(slot / framesPerSegment).duplicate();
+        final int offset = (int) ((slot % framesPerSegment) * frameBytes);
+        buffer.position(offset);
+        buffer.limit(offset + (int) frameBytes);
+        return buffer.slice().order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * @return copy of the frame in slot, null if the stack is closed
+     */
+    ImageProcessor readSlot(int slot) {
+        if (closed) return null;
+        try {
+            ByteBuffer buffer = frame(slot);
+            if (bitDepth == 8) {
+                byte[] pixels = new byte[getWidth() * getHeight()];
+                buffer.get(pixels);
+                return new ByteProcessor(getWidth(), getHeight(), pixels, getColorModel());
+            }
+            short[] pixels = new short[getWidth() * getHeight()];
+            buffer.asShortBuffer().get(pixels);
+            return new ShortProcessor(getWidth(), getHeight(), pixels, getColorModel());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Stores the pixels (byte[] or short[] of the size of a frame) in slot, does nothing if the stack is closed
+     */
+    void writeSlot(Object pixels, int slot) {
+        if (closed) return;
+        if (bitDepth == 8 ? !(pixels instanceof byte[]) : !(pixels instanceof short[]))
+            throw new IllegalArgumentException("MappedStack::writeSlot --- wrong pixel type for a " + bitDepth + " bit stack");
+        try {
+            ByteBuffer buffer = frame(slot);
+            if (bitDepth == 8) buffer.put((byte[]) pixels);
+            else buffer.asShortBuffer().put((short[]) pixels);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param n slice number, 1 <= n <= getSize()
+     * @return slot of the slice in the file, stays the same when slices are added or deleted
+     */
+    int getSlot(int n) {
+        if (n < 1 || n > size) throw new IllegalArgumentException("Argument out of range: " + n);
+        return slots[n - 1];
+    }
+
+    //processor converted to the bit depth of the stack, like StackCreator does
+    private ImageProcessor convert(ImageProcessor ip) {
+        if (ip.getWidth() != getWidth() || ip.getHeight() != getHeight())
+            throw new IllegalArgumentException("Dimensions do not match");
+        if (ip.getBitDepth() == bitDepth) return ip;
+        return (bitDepth == 8) ? ip.convertToByte(true) : ip.convertToShort(false);
+    }
+
+    //endregion
+
+    //region ImageStack
+
+    /**
+     * Opens the image file and adds its frame as last slice, like in a VirtualStack fileName is
+     * relative to getDirectory() if the stack has a directory.
+     *
+     * @throws IllegalArgumentException if the file can't be opened
+     */
+    @Override
+    public void addSlice(String fileName) {
+        File source = (getDirectory() == null) ? new File(fileName) : new File(getDirectory(), fileName);
+        ImagePlus image = IJ.openImage(source.getPath());
+        if (image == null)
+            throw new IllegalArgumentException("MappedStack::addSlice --- could not open " + source);
+        addSlice(source.getName(), image.getProcessor());
+    }
+
+    @Override
+    public void addSlice(String sliceLabel, Object pixels) {
+        addSlice(sliceLabel, pixels, size);
+    }
+
+    @Override
+    public void addSlice(String sliceLabel, ImageProcessor ip) {
+        addSlice(sliceLabel, convert(ip).getPixels(), size);
+    }
+
+    /**
+     * Adds the image after slice n, n=0 adds it in front of the first slice
+     */
+    @Override
+    public void addSlice(String sliceLabel, ImageProcessor ip, int n) {
+        addSlice(sliceLabel, convert(ip).getPixels(), n);
+    }
+
+    private void addSlice(String sliceLabel, Object pixels, int n) {
+        if (n < 0 || n > size) throw new IllegalArgumentException("Argument out of range: " + n);
+        final int slot = slotCount++;
+        writeSlot(pixels, slot);
+        if (size == slots.length) slots = Arrays.copyOf(slots, 2 * size);
+        System.arraycopy(slots, n, slots, n + 1, size - n);
+        slots[n] = slot;
+        labels.add(n, sliceLabel);
+        size++;
+    }
+
+    @Override
+    public void deleteSlice(int n) {
+        getSlot(n);
+        System.arraycopy(slots, n, slots, n - 1, size - n);
+        labels.remove(n - 1);
+        size--;
+    }
+
+    @Override
+    public void deleteLastSlice() {
+        if (size > 0) deleteSlice(size);
+    }
+
+    @Override
+    public Object getPixels(int n) {
+        ImageProcessor ip = getProcessor(n);
+        return (ip == null) ? null : ip.getPixels();
+    }
+
+    @Override
+    public void setPixels(Object pixels, int n) {
+        writeSlot(pixels, getSlot(n));
+    }
+
+    @Override
+    public ImageProcessor getProcessor(int n) {
+        return readSlot(getSlot(n));
+    }
+
+    @Override
+    public void setProcessor(ImageProcessor ip, int n) {
+        if (ip.getWidth() != getWidth() || ip.getHeight() != getHeight())
+            throw new IllegalArgumentException("Wrong dimensions for this stack");
+        if (ip.getBitDepth() != bitDepth)
+            throw new IllegalArgumentException("Wrong type for this stack");
+        setPixels(ip.getPixels(), n);
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public String getSliceLabel(int n) {
+        getSlot(n);
+        return labels.get(n - 1);
+    }
+
+    @Override
+    public void setSliceLabel(String label, int n) {
+        getSlot(n);
+        labels.set(n - 1, label);
+    }
+
+    @Override
+    public String[] getSliceLabels() {
+        return labels.toArray(new String[0]);
+    }
+
+    @Override
+    public int getBitDepth() {
+        return bitDepth;
+    }
+
+    @Override
+    public void setBitDepth(int bitDepth) {
+        //the bit depth is fixed by the file layout
+    }
+
+    @Override
+    public void trim() {
+    }
+
+    /**
+     * @return copy of this stack in a new temporary file
+     */
+    @Override
+    public ImageStack duplicate() {
+        try {
+            MappedStack copy = new MappedStack(getWidth(), getHeight(), bitDepth);
+            copy.setColorModel(getColorModel());
+            for (int n = 1; n <= size; n++) {
+                copy.addSlice(getSliceLabel(n), getPixels(n));
+            }
+            return copy;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    //endregion
+
+    /**
+     * Unmaps and deletes the temporary file, processors of bound entries are dropped afterwards
+     */
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        segments.clear();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        //on some systems the file can only be deleted after the mappings are garbage collected, deleteOnExit is set
+        file.delete();
+    }
+
+    @Override
+    public String toString() {
+        return "MappedStack{" + getWidth() + "x" + getHeight() + "x" + size + ", " + bitDepth + " bit, " + file + "}";
+    }
+}
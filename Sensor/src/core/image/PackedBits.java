@@ -0,0 +1,225 @@
+package core.image;
+
+import java.util.BitSet;
+
+/**
+ * Binary image packed into a long[] with every row starting at a word boundary, bit x of row y
+ * is bit (x &amp; 63) of word y * stride + (x &gt;&gt; 6). The bits behind the width of a row are
+ * always 0.
+ * <p>
+ * All operations work on whole words, that is 64 pixels per step. BinaryImage converts its
+ * BitSet (index y * width + x) to this layout for morphology and back.
+ */
+public final class PackedBits {
+    private final int m_width, m_height;
+    //words per row
+    private final int m_stride;
+    //valid bits of the last word of a row
+    private final long m_tail;
+    private final long[] m_words;
+
+    public PackedBits(int width, int height) {
+        m_width = width;
+        m_height = height;
+        m_stride = (width + 63) >>> 6;
+        m_tail = (width % 64 == 0) ? -1L : (1L << (width % 64)) - 1;
+        m_words = new long[m_stride * height];
+    }
+
+    /**
+     * @param bits pixels with index y * width + x, like BinaryImage stores them
+     */
+    public static PackedBits of(BitSet bits, int width, int height) {
+        PackedBits packed = new PackedBits(width, height);
+        final long[] source = bits.toLongArray();
+        for (int y = 0; y < height; y++) {
+            copyBits(source, (long) y * width, packed.m_words, (long) y * packed.m_stride * 64, width);
+        }
+        return packed;
+    }
+
+    /**
+     * @return pixels with index y * width + x
+     */
+    public BitSet toBitSet() {
+        long[] target = new long[(int) (((long) m_width * m_height + 63) >>> 6)];
+        for (int y = 0; y < m_height; y++) {
+            copyBits(m_words, (long) y * m_stride * 64, target, (long) y * m_width, m_width);
+        }
+        return BitSet.valueOf(target);
+    }
+
+    public int getWidth() {
+        return m_width;
+    }
+
+    public int getHeight() {
+        return m_height;
+    }
+
+    public boolean get(int x, int y) {
+        return (m_words[y * m_stride + (x >>> 6)] & (1L << x)) != 0;
+    }
+
+    public void set(int x, int y) {
+        m_words[y * m_stride + (x >>> 6)] |= 1L << x;
+    }
+
+    public PackedBits copy() {
+        PackedBits copy = new PackedBits(m_width, m_height);
+        System.arraycopy(m_words, 0, copy.m_words, 0, m_words.length);
+        return copy;
+    }
+
+    public int cardinality() {
+        int count = 0;
+        for (long word : m_words) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    public void and(PackedBits other) {
+        checkSize(other);
+        for (int i = 0; i < m_words.length; i++) {
+            m_words[i] &= other.m_words[i];
+        }
+    }
+
+    public void or(PackedBits other) {
+        checkSize(other);
+        for (int i = 0; i < m_words.length; i++) {
+            m_words[i] |= other.m_words[i];
+        }
+    }
+
+    public void xor(PackedBits other) {
+        checkSize(other);
+        for (int i = 0; i < m_words.length; i++) {
+            m_words[i] ^= other.m_words[i];
+        }
+    }
+
+    public void andNot(PackedBits other) {
+        checkSize(other);
+        for (int i = 0; i < m_words.length; i++) {
+            m_words[i] &= ~other.m_words[i];
+        }
+    }
+
+    /**
+     * Flips all pixels, the bits behind the width stay 0.
+     */
+    public void not() {
+        for (int row = 0; row < m_words.length; row += m_stride) {
+            for (int i = row; i < row + m_stride; i++) {
+                m_words[i] = ~m_words[i];
+            }
+            m_words[row + m_stride - 1] &= m_tail;
+        }
+    }
+
+    private void checkSize(PackedBits other) {
+        if (other.m_width != m_width || other.m_height != m_height) {
+            throw new IllegalArgumentException("PackedBits are not of the same size:(" + m_width + "," + m_height + ")!=(" + other.m_width + "," + other.m_height + ")");
+        }
+    }
+
+    /**
+     * OR-s source moved by (dx,dy) into this image, pixels moved outside of the image are dropped.
+     */
+    public void orShifted(PackedBits source, int dx, int dy) {
+        checkSize(source);
+        for (int y = Math.max(0, dy); y < Math.min(m_height, m_height + dy); y++) {
+            shiftOrRow(source.m_words, (y - dy) * m_stride, m_words, y * m_stride, dx);
+        }
+    }
+
+    /**
+     * @return image where every pixel is the OR of the pixels x - half_width .. x + half_width
+     * of its row
+     */
+    public PackedBits dilateRows(int half_width) {
+        //OR over x - half_width .. x and x .. x + half_width, each by doubling the window length,
+        //so no bit has to pass the borders of the row
+        PackedBits left = copy(), right = copy();
+        left.orWindow(half_width + 1, 1);
+        right.orWindow(half_width + 1, -1);
+        left.or(right);
+        return left;
+    }
+
+    //in place OR over a window of length pixels in direction sign of every pixel
+    private void orWindow(int length, int sign) {
+        int covered = 1;
+        while (covered < length) {
+            final int step = Math.min(covered, length - covered);
+            for (int row = 0; row < m_words.length; row += m_stride) {
+                shiftOrRow(m_words, row, m_words, row, sign * step);
+            }
+            covered += step;
+        }
+    }
+
+    /**
+     * OR-s the row of source moved by shift pixels into the row of target, both rows have the
+     * stride of this image. Works in place, if source and target are the same row.
+     */
+    private void shiftOrRow(long[] source, int source_row, long[] target, int target_row, int shift) {
+        final int stride = m_stride;
+        if (shift >= 0) {
+            final int words = shift >>> 6, bits = shift & 63;
+            //descending, so an in place shift reads the words before they are changed
+            for (int i = stride - 1; i >= words; i--) {
+                long value = source[source_row + i - words] << bits;
+                if (bits != 0 && i - words > 0) {
+                    value |= source[source_row + i - words - 1] >>> (64 - bits);
+                }
+                target[target_row + i] |= value;
+            }
+            target[target_row + stride - 1] &= m_tail;
+        } else {
+            final int words = (-shift) >>> 6, bits = (-shift) & 63;
+            for (int i = 0; i < stride - words; i++) {
+                long value = source[source_row + i + words] >>> bits;
+                if (bits != 0 && i + words + 1 < stride) {
+                    value |= source[source_row + i + words + 1] << (64 - bits);
+                }
+                target[target_row + i] |= value;
+            }
+        }
+    }
+
+    /**
+     * OR-s length bits of source starting at bit source_bit into target starting at bit
+     * target_bit, words behind the end of source count as 0.
+     */
+    public static void copyBits(long[] source, long source_bit, long[] target, long target_bit, long length) {
+        while (length > 0) {
+            //up to the end of the current target word
+            final int offset = (int) (target_bit & 63), count = (int) Math.min(64 - offset, length);
+            long value = readBits(source, source_bit);
+            if (count < 64) {
+                value &= (1L << count) - 1;
+            }
+            target[(int) (target_bit >>> 6)] |= value << offset;
+            source_bit += count;
+            target_bit += count;
+            length -= count;
+        }
+    }
+
+    //the 64 bits of source from bit on
+    private static long readBits(long[] source, long bit) {
+        final int index = (int) (bit >>> 6), offset = (int) (bit & 63);
+        if (index >= source.length) {
+            return 0;
+        }
+        long value = source[index] >>> offset;
+        if (offset != 0 && index + 1 < source.length) {
+            value |= source[index + 1] << (64 - offset);
+        }
+        return value;
+    }
+
+}
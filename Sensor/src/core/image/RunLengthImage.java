@@ -0,0 +1,555 @@
+package core.image;
+
+
+import core.Calc;
+import ij.ImagePlus;
+import ij.Prefs;
+import ij.process.ByteProcessor;
+import util.ImageExporter;
+
+import java.awt.*;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Binary image stored as runs of set pixels per row, for sparse masks like cell areas and focal
+ * adhesions. Memory, union, intersection, dilation and pixel iteration scale with the number of
+ * runs instead of the image size.
+ * <p>
+ * Row y is an int[] {start0, end0, start1, end1, ...} of sorted, disjoint and not touching runs
+ * [start, end) of x values. Rows are never changed in place, so clones share them.
+ */
+public class RunLengthImage implements IBinaryImage {
+
+    private static final int[] EMPTY = new int[0];
+    private static final String title = "rle_image";
+
+    private int width;
+    private int height;
+    private int[][] runs;
+
+    //same meaning as in BinaryImage, the ByteProcessor shows the pixels with swapped colors
+    private boolean inverted;
+    private int trueValue;
+
+    //SoftReference on ByteProcessor for imageJ methods, like in BinaryImage
+    private transient SoftReference<ImagePlus> byteProcessor;
+
+    /**
+     * Default Constructor for Serialization
+     */
+    public RunLengthImage() {
+        this(0, 0);
+    }
+
+    public RunLengthImage(int width, int height) {
+        this.width = width;
+        this.height = height;
+        runs = new int[height][];
+        Arrays.fill(runs, EMPTY);
+    }
+
+    /**
+     * Copies the pixels of image, getPixel of the copy is the same as of image
+     */
+    public static RunLengthImage of(IBinaryImage image) {
+        if (image instanceof RunLengthImage) return ((RunLengthImage) image).clone();
+        RunLengthImage copy = new RunLengthImage(image.getWidth(), image.getHeight());
+        copy.setTrueValue(image.getTrueValue());
+        final int width = image.getWidth();
+        if (image instanceof BinaryImage) {
+            BinaryImage binaryImage = (BinaryImage) image;
+            binaryImage.flush();
+            copy.inverted = binaryImage.isInverted();
+            //runs are the ranges between nextSetBit and nextClearBit
+            BitSet bits = binaryImage.getBits();
+            int[] row = new int[8];
+            for (int y = 0; y < copy.height; y++) {
+                final int offset = y * width;
+                int n = 0;
+                for (int start = bits.nextSetBit(offset); start >= 0 && start < offset + width; start = bits.nextSetBit(start)) {
+                    final int end = Math.min(bits.nextClearBit(start), offset + width);
+                    if (n + 2 > row.length) row = Arrays.copyOf(row, 2 * row.length);
+                    row[n++] = start - offset;
+                    row[n++] = end - offset;
+                    start = end;
+                }
+                copy.runs[y] = (n == 0) ? EMPTY : Arrays.copyOf(row, n);
+            }
+        } else {
+            for (int y = 0; y < copy.height; y++) {
+                List<Integer> row = new ArrayList<>();
+                for (int x = 0; x < width; x++) {
+                    if (image.getPixel(x, y) && (x == 0 || !image.getPixel(x - 1, y))) row.add(x);
+                    if (image.getPixel(x, y) && (x == width - 1 || !image.getPixel(x + 1, y))) row.add(x + 1);
+                }
+                copy.runs[y] = row.stream().mapToInt(Integer::intValue).toArray();
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * @return BinaryImage with the same pixels
+     */
+    public BinaryImage toBinaryImage() {
+        BinaryImage binaryImage = new BinaryImage(getWidth(), getHeight());
+        binaryImage.setBits(toBits());
+        binaryImage.setTrueValue(getTrueValue());
+        return binaryImage;
+    }
+
+    /**
+     * @return pixels with index y * width + x like in BinaryImage
+     */
+    public BitSet toBits() {
+        BitSet bits = new BitSet(getWidth() * getHeight());
+        for (int y = 0; y < getHeight(); y++) {
+            final int[] row = runs[y];
+            for (int i = 0; i < row.length; i += 2) {
+                bits.set(y * getWidth() + row[i], y * getWidth() + row[i + 1]);
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * The rows of runs, the returned rows must not be changed
+     */
+    public int[][] getRuns() {
+        return runs;
+    }
+
+    public void setRuns(int[][] runs) {
+        this.runs = runs;
+        this.height = runs.length;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public void setWidth(int width) {
+        this.width = width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public void setHeight(int height) {
+        int old = runs.length;
+        runs = Arrays.copyOf(runs, height);
+        if (height > old) Arrays.fill(runs, old, height, EMPTY);
+        this.height = height;
+    }
+
+    public boolean isInverted() {
+        return inverted;
+    }
+
+    @Override
+    public int getTrueValue() {
+        return trueValue;
+    }
+
+    @Override
+    public void setTrueValue(int trueValue) {
+        this.trueValue = trueValue;
+    }
+
+
+    //#region row kernels
+
+    /**
+     * @return index of the run containing x, negative if x is in no run
+     */
+    private static int find(int[] row, int x) {
+        int lo = 0, hi = row.length / 2 - 1;
+        while (lo <= hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (row[2 * mid + 1] <= x) lo = mid + 1;
+            else if (row[2 * mid] > x) hi = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    public static int count(int[] row) {
+        int count = 0;
+        for (int i = 0; i < row.length; i += 2) {
+            count += row[i + 1] - row[i];
+        }
+        return count;
+    }
+
+    /**
+     * @return runs of the pixels set in a or b
+     */
+    public static int[] union(int[] a, int[] b) {
+        if (a.length == 0) return b;
+        if (b.length == 0) return a;
+        int[] out = new int[a.length + b.length];
+        int n = 0, i = 0, j = 0;
+        while (i < a.length || j < b.length) {
+            //next run by start, merged into the last one if they touch
+            int start, end;
+            if (j >= b.length || (i < a.length && a[i] <= b[j])) {
+                start = a[i];
+                end = a[i + 1];
+                i += 2;
+            } else {
+                start = b[j];
+                end = b[j + 1];
+                j += 2;
+            }
+            if (n > 0 && start <= out[n - 1]) {
+                out[n - 1] = Math.max(out[n - 1], end);
+            } else {
+                out[n++] = start;
+                out[n++] = end;
+            }
+        }
+        return (n == out.length) ? out : Arrays.copyOf(out, n);
+    }
+
+    /**
+     * @return runs of the pixels set in a and b
+     */
+    public static int[] intersect(int[] a, int[] b) {
+        if (a.length == 0 || b.length == 0) return EMPTY;
+        int[] out = new int[a.length + b.length];
+        int n = 0, i = 0, j = 0;
+        while (i < a.length && j < b.length) {
+            final int start = Math.max(a[i], b[j]), end = Math.min(a[i + 1], b[j + 1]);
+            if (start < end) {
+                out[n++] = start;
+                out[n++] = end;
+            }
+            //drop the run that ends first
+            if (a[i + 1] < b[j + 1]) i += 2;
+            else j += 2;
+        }
+        return (n == 0) ? EMPTY : Arrays.copyOf(out, n);
+    }
+
+    /**
+     * @return runs of the pixels 0..width-1 that are not set in row
+     */
+    public static int[] complement(int[] row, int width) {
+        int[] out = new int[row.length + 2];
+        int n = 0, last = 0;
+        for (int i = 0; i < row.length; i += 2) {
+            if (row[i] > last) {
+                out[n++] = last;
+                out[n++] = row[i];
+            }
+            last = row[i + 1];
+        }
+        if (last < width) {
+            out[n++] = last;
+            out[n++] = width;
+        }
+        return (n == 0) ? EMPTY : Arrays.copyOf(out, n);
+    }
+
+    /**
+     * @return runs of row grown by half_width pixels to both sides, cut at 0 and width
+     */
+    public static int[] expand(int[] row, int half_width, int width) {
+        if (row.length == 0 || half_width == 0) return row;
+        int[] out = new int[row.length];
+        int n = 0;
+        for (int i = 0; i < row.length; i += 2) {
+            final int start = Math.max(0, row[i] - half_width), end = Math.min(width, row[i + 1] + half_width);
+            if (n > 0 && start <= out[n - 1]) {
+                out[n - 1] = end;
+            } else {
+                out[n++] = start;
+                out[n++] = end;
+            }
+        }
+        return (n == out.length) ? out : Arrays.copyOf(out, n);
+    }
+    //#endregion
+
+
+    @Override
+    public void store(File file) {
+        try {
+            ImageExporter.exportImage(this, file);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public boolean getPixel(int x, int y) {
+        if (x < 0 || y < 0 || x >= getWidth() || y >= getHeight())
+            throw new IllegalArgumentException("(x=" + x + ",y=" + y + ") out of Bounds(w=" + getWidth() + ",h=" + getHeight() + ")");
+        return find(runs[y], x) >= 0;
+    }
+
+    @Override
+    public void setPixel(int x, int y) {
+        if (getPixel(x, y)) return;
+        runs[y] = union(runs[y], new int[]{x, x + 1});
+    }
+
+    @Override
+    public void clearPixel(int x, int y) {
+        if (!getPixel(x, y)) return;
+        runs[y] = intersect(runs[y], complement(new int[]{x, x + 1}, getWidth()));
+    }
+
+    @Override
+    public int getPixelSetCount() {
+        int count = 0;
+        for (int[] row : runs) {
+            count += count(row);
+        }
+        return count;
+    }
+
+    private RunLengthImage checkSize(IBinaryImage img) {
+        if (img.getWidth() != getWidth() || img.getHeight() != getHeight())
+            throw new IllegalArgumentException("Images are not of the same size:(" + getWidth() + "," + getHeight() + ")!=(" + img.getWidth() + "," + img.getHeight() + ")");
+        return (img instanceof RunLengthImage) ? (RunLengthImage) img : RunLengthImage.of(img);
+    }
+
+    @Override
+    public void and(IBinaryImage img) throws IllegalArgumentException {
+        RunLengthImage other = checkSize(img);
+        for (int y = 0; y < getHeight(); y++) {
+            runs[y] = intersect(runs[y], other.runs[y]);
+        }
+    }
+
+    @Override
+    public void or(IBinaryImage img) throws IllegalArgumentException {
+        RunLengthImage other = checkSize(img);
+        for (int y = 0; y < getHeight(); y++) {
+            runs[y] = union(runs[y], other.runs[y]);
+        }
+    }
+
+    @Override
+    public RunLengthImage clone() {
+        flush();
+        RunLengthImage clone = new RunLengthImage(getWidth(), getHeight());
+        clone.runs = runs.clone();
+        clone.inverted = isInverted();
+        clone.setTrueValue(getTrueValue());
+        return clone;
+    }
+
+    @Override
+    public boolean[][] toBoolean() {
+        boolean[][] img = new boolean[getWidth()][getHeight()];
+        for (int y = 0; y < getHeight(); y++) {
+            final int[] row = runs[y];
+            for (int i = 0; i < row.length; i += 2) {
+                for (int x = row[i]; x < row[i + 1]; x++) img[x][y] = true;
+            }
+        }
+        return img;
+    }
+
+
+    @Override
+    public ByteProcessor getByteProcessor() {
+        if (byteProcessor != null && byteProcessor.get() != null)
+            return (ByteProcessor) byteProcessor.get().getProcessor();
+        open();
+        return (ByteProcessor) byteProcessor.get().getProcessor();
+    }
+
+    @Override
+    public BufferedImage getBufferedImage() {
+        if (byteProcessor != null && byteProcessor.get() != null) return byteProcessor.get().getBufferedImage();
+        BufferedImage output = new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_4BYTE_ABGR);
+        final int white = Color.white.getRGB();
+        for (int y = 0; y < getHeight(); y++) {
+            final int[] row = runs[y];
+            for (int i = 0; i < row.length; i += 2) {
+                for (int x = row[i]; x < row[i + 1]; x++) output.setRGB(x, y, white);
+            }
+        }
+        return output;
+    }
+
+    //foreground of the ByteProcessor like in BinaryImage
+    private int foreground() {
+        final int fg = Prefs.blackBackground ? 255 : 0;
+        return isInverted() ? 255 - fg : fg;
+    }
+
+    @Override
+    public void open() {
+        if (byteProcessor != null && byteProcessor.get() != null) return;
+        ByteProcessor byteProcessor = new ByteProcessor(getWidth(), getHeight());
+        final int foreground = foreground();
+        byteProcessor.setBackgroundValue(255 - foreground);
+        byte[] pixels = (byte[]) byteProcessor.getPixels();
+        Arrays.fill(pixels, (byte) (255 - foreground));
+        for (int y = 0; y < getHeight(); y++) {
+            final int[] row = runs[y];
+            for (int i = 0; i < row.length; i += 2) {
+                Arrays.fill(pixels, y * getWidth() + row[i], y * getWidth() + row[i + 1], (byte) foreground);
+            }
+        }
+        this.byteProcessor = new SoftReference<>(new ImagePlus(title, byteProcessor));
+    }
+
+    @Override
+    public void flush() {
+        if (byteProcessor == null || byteProcessor.get() == null) return;
+        ByteProcessor bP = (ByteProcessor) byteProcessor.get().getProcessor();
+        if (bP == null) return;
+        final byte[] pixels = (byte[]) bP.getPixels();
+        final byte foreground = (byte) foreground();
+        int[] row = new int[8];
+        for (int y = 0; y < getHeight(); y++) {
+            final int offset = y * getWidth();
+            int n = 0;
+            for (int x = 0; x < getWidth(); x++) {
+                if (pixels[offset + x] != foreground) continue;
+                final int start = x;
+                while (x < getWidth() && pixels[offset + x] == foreground) x++;
+                if (n + 2 > row.length) row = Arrays.copyOf(row, 2 * row.length);
+                row[n++] = start;
+                row[n++] = x;
+            }
+            runs[y] = (n == 0) ? EMPTY : Arrays.copyOf(row, n);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (byteProcessor == null) return;
+        byteProcessor.clear();
+    }
+
+    @Override
+    public double compare(IBinaryImage image) {
+        if (image == null || image.getWidth() != this.getWidth() || image.getHeight() != this.getHeight()) {
+            throw new IllegalArgumentException("RunLengthImage::compare --- image parameter incorrect");
+        }
+        RunLengthImage other = checkSize(image);
+        //pixels that differ are set in one of the images but not in both
+        long different = 0;
+        for (int y = 0; y < getHeight(); y++) {
+            different += count(runs[y]) + count(other.runs[y]) - 2L * count(intersect(runs[y], other.runs[y]));
+        }
+        return (double) ((long) getWidth() * getHeight() - different) / (getWidth() * getHeight());
+    }
+
+    /**
+     * Runs are already in the order of the outline, there is no memory state
+     */
+    @Override
+    public boolean isInMemoryState() {
+        return false;
+    }
+
+    @Override
+    public void enterMemoryState() {
+    }
+
+    @Override
+    public void exitMemoryState() {
+    }
+
+
+    /**
+     * Dilates Image by structuring element mask
+     * Calc.dilate is used on the runs if it supports the mask, on a BinaryImage otherwise
+     *
+     * @param mask
+     */
+    @Override
+    public void dilate(IBinaryImage mask) {
+        flush();
+        close();
+        boolean[][] structure = mask.toBoolean();
+        RunLengthImage result = Calc.dilate(this, structure);
+        if (result == null) {
+            BinaryImage binaryImage = toBinaryImage();
+            binaryImage.dilate(mask);
+            result = RunLengthImage.of(binaryImage);
+        }
+        runs = result.runs;
+    }
+
+    /**
+     * Erodes Image by structuring element mask
+     * Calc.erode is used on the runs if it supports the mask, on a BinaryImage otherwise
+     *
+     * @param mask
+     */
+    @Override
+    public void erode(IBinaryImage mask) {
+        flush();
+        close();
+        boolean[][] structure = mask.toBoolean();
+        RunLengthImage result = Calc.erode(this, structure);
+        if (result == null) {
+            BinaryImage binaryImage = toBinaryImage();
+            binaryImage.erode(mask);
+            result = RunLengthImage.of(binaryImage);
+        }
+        runs = result.runs;
+    }
+
+    /**
+     * Returns a list of Point2D representing each pixel set on the binary image
+     * the list is sorted by lowest point.x first, like in BinaryImage
+     */
+    @Override
+    public List<Point2D> getPoints() {
+        List<Point2D> points = new ArrayList<>();
+        for (int y = 0; y < getHeight(); y++) {
+            final int[] row = runs[y];
+            for (int i = 0; i < row.length; i += 2) {
+                for (int x = row[i]; x < row[i + 1]; x++) points.add(new Point(x, y));
+            }
+        }
+        //stable sort, y stays ascending
+        points.sort(Comparator.comparingDouble(Point2D::getX));
+        return points;
+    }
+
+    /**
+     * Enlargens the image and copies its content to the image center
+     *
+     * @param newWidth
+     * @param newHeight
+     * @return
+     */
+    public RunLengthImage copyToCenter(int newWidth, int newHeight) {
+        if (this.getWidth() > newWidth || this.getHeight() > newHeight) {
+            throw new IllegalArgumentException("RunLengthImage::copyToCenter --- newWidth||newHeight < oldWidth||oldHeight");
+        }
+        RunLengthImage image = new RunLengthImage(newWidth, newHeight);
+        image.setTrueValue(getTrueValue());
+        final int stepX = (newWidth - getWidth()) / 2;
+        final int stepY = (newHeight - getHeight()) / 2;
+        for (int y = 0; y < getHeight(); y++) {
+            final int[] row = runs[y];
+            if (row.length == 0) continue;
+            int[] moved = new int[row.length];
+            for (int i = 0; i < row.length; i++) moved[i] = row[i] + stepX;
+            image.runs[y + stepY] = moved;
+        }
+        return image;
+    }
+
+}
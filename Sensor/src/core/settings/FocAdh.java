@@ -9,7 +9,8 @@ public enum FocAdh implements Any {
     neighborHoodSize,//valid distance from filament to focal adhesion
     doClosing,//do closing after thresholding
     doFillHoles,//do fill holes after thresholding/[closing]
-    showOnlyFoundFA;//{0,1}
+    showOnlyFoundFA,//{0,1}
+    runLengthMasks;//{0,1} store the pixel areas of focal adhesion's as RunLengthImage
     //some noisy images have a lot of small, but not small enough points
 
     //these restrictions are introduced through observation of test data
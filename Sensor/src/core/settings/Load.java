@@ -1,7 +1,11 @@
 package core.settings;
 
 public enum Load implements Any {
-    keepBitRange;//boolean value 0 or 1
+    keepBitRange,//boolean value 0 or 1
+    mappedStack,//boolean value 0 or 1, keep the image stack off-heap in a memory mapped file (see core.image.MappedStack)
+    prefetchFrames,//number of images decoded ahead during batch processing, 0 turns prefetching off (see core.image.ImageLoader)
+    prefetchThreads,//number of threads decoding images ahead
+    prefetchMemory;//memory cap in MB of the images decoded ahead
 
     private int scaleVal;
 
@@ -1,6 +1,7 @@
 package core.settings;
 
 import core.Const;
+import core.FilterQueueMemo;
 import core.calculation.WrappedSiZer;
 import javafx.beans.property.*;
 import util.Annotations;
@@ -189,6 +190,17 @@ public class Settings implements Serializable, Cloneable {
         return null;
     }
 
+    /**
+     * For keys which are missing in settings saved by older versions (load() only restores the stored keys)
+     *
+     * @return value of key or defaultValue if key is not set
+     */
+    @Transient
+    public int getValue(Any key, int defaultValue) {
+        Integer value = getValue(key);
+        return (value != null) ? value : defaultValue;
+    }
+
     @Transient
     public Double getValueAsDouble(Any key) {
         if (getProperty(key) != null)
@@ -204,6 +216,15 @@ public class Settings implements Serializable, Cloneable {
         return null;
     }
 
+    /**
+     * @return value of key or defaultValue if key is not set, see getValue(key, defaultValue)
+     */
+    @Transient
+    public boolean getValueAsBoolean(Any key, boolean defaultValue) {
+        Boolean value = getValueAsBoolean(key);
+        return (value != null) ? value : defaultValue;
+    }
+
     public Color getValueAsColor(Any key) {
         if (getProperty(key) != null)
             return new Color(getProperty(key).get());
@@ -278,6 +299,10 @@ public class Settings implements Serializable, Cloneable {
 
     private void initLoadSettings() {
         setProperty(Load.keepBitRange, 0);//default is 0, do not keep Bit Range (16bit etc. should be changed to 8bit by default)
+        setProperty(Load.mappedStack, 0);//default is 0, the image stack is kept on the heap and batch processing works in chunks
+        setProperty(Load.prefetchFrames, 0);//default is 0, batch processing opens the images of a chunk when it starts the chunk
+        setProperty(Load.prefetchThreads, 2);
+        setProperty(Load.prefetchMemory, 512);
     }
 
 
@@ -291,6 +316,7 @@ public class Settings implements Serializable, Cloneable {
         setProperty(FocAdh.doClosing, 1);//boolean value {0,1}
         setProperty(FocAdh.doFillHoles, 1);//boolean value {0,1}
         setProperty(FocAdh.showOnlyFoundFA, 0);//boolean value {0,1}
+        setProperty(FocAdh.runLengthMasks, 0);//boolean value {0,1}
     }
 
 
@@ -317,6 +343,7 @@ public class Settings implements Serializable, Cloneable {
         setProperty(Pre.corr_zero, 35);
         setProperty(Pre.widths, 3);
         setProperty(Pre.preview, 1);
+        setProperty(Pre.filter_memo, FilterQueueMemo.DEFAULT_MEGABYTES);//MB of intermediate filter queue images kept for re-runs, 0 turns it off
     }
 
     private void initBinarization() {
@@ -359,6 +386,9 @@ public class Settings implements Serializable, Cloneable {
         setProperty(Trace.tolerance, 5);
         setProperty(Trace.step, 10);
         setProperty(Trace.no_boundary, 0);
+        setProperty(Trace.roi_margin, 0);
+        setProperty(Trace.time_budget, 0);//milliseconds per frame, 0 means no limit
+        setProperty(Trace.cache, 0);//reuse tracing results of unchanged binary images
     }
 
     private void initChaining() {
@@ -1,7 +1,7 @@
 package core.settings;
 
 public enum Trace implements Any {
-    curve, split, minlen, minangle, tolerance, step, no_boundary;
+    curve, split, minlen, minangle, tolerance, step, no_boundary, roi_margin, time_budget, cache;
     private int scaleVal;
 
     Trace() {
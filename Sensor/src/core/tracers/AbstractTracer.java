@@ -7,68 +7,132 @@ import core.image.BinaryImage;
 import core.image.IBinaryImage;
 import core.settings.Settings;
 import core.settings.Trace;
+import ij.process.Blitter;
 import ij.process.ImageProcessor;
 import util.ImageExporter;
-import util.LineIterator;
-import util.PointUtils;
-import util.fuzzy.matrix.Boolean2D;
 
 
 import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.geom.AffineTransform;
-import java.awt.geom.Line2D;
 import java.awt.geom.Path2D;
-import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.stream.DoubleStream;
 
 public abstract class AbstractTracer implements Tracer {
 
-    protected int[][] m_orientation_field;
-    protected int[][] m_width_map;
+    protected IntField m_orientation_field;
+    protected IntField m_width_map;
     protected List<AbstractFilament> m_filament_list;
 
-    protected boolean[][][] m_circle_masks;
+    protected BitField[] m_circle_masks;
+
+    private long m_time_budget;
+    // End of the running scan in System.nanoTime(), Long.MAX_VALUE without time budget.
+    private long m_deadline = Long.MAX_VALUE;
+    private boolean m_partial;
+
+    private TracingResultCache m_result_cache;
+
+    /**
+     * The tracers handle the widths from the widest to the thinnest. A scan that runs out of
+     * time stops after the current width and keeps the filaments found so far.
+     */
+    @Override
+    public void setTimeBudget(long millis) {
+        m_time_budget = Math.max(0, millis);
+    }
+
+    @Override
+    public boolean isPartial() {
+        return m_partial;
+    }
+
+    @Override
+    public void setResultCache(TracingResultCache cache) {
+        m_result_cache = cache;
+    }
+
+    /**
+     * Starts the time budget of a scan.
+     */
+    protected void startClock() {
+        m_partial = false;
+        m_deadline = (m_time_budget > 0 ? System.nanoTime() + m_time_budget * 1000000L : Long.MAX_VALUE);
+    }
 
     /**
-     * Measures line width in start point
+     * @return true if the scan ran out of time, it is marked as partial then
+     */
+    protected boolean isOverTime() {
+        if (!m_partial && m_deadline != Long.MAX_VALUE && System.nanoTime() > m_deadline) {
+            m_partial = true;
+            FilamentSensor.debugMessage("Time budget of " + m_time_budget + "ms exceeded, the traced filaments are partial.");
+        }
+        return m_partial;
+    }
+
+    /**
+     * @return copy of the orientation field indexed [x][y], -1 where no line was found
+     */
+    @Override
+    public int[][] getOrientationField() {
+        return (m_orientation_field == null ? null : m_orientation_field.toArray());
+    }
+
+    /**
+     * @return copy of the width map indexed [x][y]
+     */
+    @Override
+    public int[][] getWidthMap() {
+        return (m_width_map == null ? null : m_width_map.toArray());
+    }
+
+    /**
+     * Sets m_circle_masks to the shared masks of diameter 1 to size, see TracerCache.
+     */
+    protected void initCircleMasks(int size) {
+        m_circle_masks = TracerCache.getCircleMasks(size);
+    }
+
+    /**
+     * Measures line width in the point (x, y).
+     * <p>
+     * Scans perpendicular to the line on both sides and sums up the interpolated probability
+     * of filament pixels until a side reaches a pixel that is more likely black.
      *
-     * @param start        point at which the width is measured
-     * @param end          point for calculating line angle
+     * @param x            point at which the width is measured
+     * @param y            point at which the width is measured
+     * @param end_x        point for calculating line angle
+     * @param end_y        point for calculating line angle
      * @param assumedWidth assumed width of the line
      * @param binImage     boolean image(matrix) the width should be measured from
-     * @param listWidth    list of measured width's
+     * @return measured width
      */
-    protected void measureInPoint(Point2D start, Point2D end, double assumedWidth, boolean[][] binImage, List<Double> listWidth) {
-        double angleRAD = PointUtils.getAngleRAD(start, end);
+    protected static double measureInPoint(double x, double y, double end_x, double end_y, double assumedWidth, boolean[][] binImage) {
+        double angleRAD = Math.atan2(end_y - y, end_x - x);
+        if (angleRAD < 0) angleRAD += 2 * Math.PI;
         //create 2 lines in 90 degree angle to the filament line
         double scanAngleOne = (Math.toRadians(90) + angleRAD);
         if (scanAngleOne > Math.PI * 2) scanAngleOne -= Math.PI * 2;
         double scanAngleTwo = (angleRAD - Math.toRadians(90));
         if (scanAngleTwo < 0) scanAngleTwo += Math.PI * 2;
-
-        Boolean2D fuzzyBinImage = new Boolean2D(binImage);
+        final double cos_one = Math.cos(scanAngleOne), sin_one = Math.sin(scanAngleOne);
+        final double cos_two = Math.cos(scanAngleTwo), sin_two = Math.sin(scanAngleTwo);
 
         boolean interruptOne = false, interruptTwo = false;
         int distance = 1;
 
         double width = 0;
-        //xx = x + (d * cos(alpha))
-        //yy = y + (d * sin(alpha))
         //limit iterations to assumedWidth
         while ((!interruptOne || !interruptTwo) && distance <= assumedWidth) {
-            //calculate two scanpoints in 90° angle to the filament line
-            Point2D nextOne = new Point2D.Double(start.getX() + distance * Math.cos(scanAngleOne), start.getY() + distance * Math.sin(scanAngleOne));
-            Point2D nextTwo = new Point2D.Double(start.getX() + distance * Math.cos(scanAngleTwo), start.getY() + distance * Math.sin(scanAngleTwo));
             //if one of the lines was interrupted don't increase that value anymore, just scan the other side further
             if (!interruptOne) {
-                double isSet = fuzzyBinImage.get(nextOne.getX(), nextOne.getY());
+                double isSet = fuzzyGet(binImage, x + distance * cos_one, y + distance * sin_one);
                 width += (1 - isSet);//since false is filament pixel, the correct probability of filament pixel is 1-isSet
                 if (isSet > 0.5) {    //if more than 50% chance for true pixel, quit scanning here
                     interruptOne = true;
@@ -76,52 +140,114 @@ public abstract class AbstractTracer implements Tracer {
                 }
             }
             if (!interruptTwo) {
-                double isSet = fuzzyBinImage.get(nextTwo.getX(), nextTwo.getY());
-                width += (1 - isSet);//since false is filament pixel, the correct probability of filament pixel is 1-isSet
-                if (isSet > 0.5) {  //if more than 50% chance for true pixel, quit scanning here
+                double isSet = fuzzyGet(binImage, x + distance * cos_two, y + distance * sin_two);
+                width += (1 - isSet);
+                if (isSet > 0.5) {
                     interruptTwo = true;
-                    width -= (1 - isSet);//remove the added value
+                    width -= (1 - isSet);
                 }
             }
-            //increase the distance of the scan line with every loop iteration
             distance++;
         }
-        //add the original point to width
         //original width is at some point already partly in the width calculation because of the fuzzy array, weight it
-        width += (1 - fuzzyBinImage.get(start.getX(), start.getY())) * 0.7d;
-        listWidth.add(width);
+        return width + (1 - fuzzyGet(binImage, x, y)) * 0.7d;
+    }
 
+    /**
+     * Probability of a true pixel at (x, y) by linear interpolation, same as util.fuzzy.matrix.Boolean2D.
+     */
+    private static double fuzzyGet(boolean[][] binImage, double x, double y) {
+        double weightXA = x - ((int) x);
+        return fuzzyGet(binImage[(int) Math.floor(x)], y) * (1 - weightXA) + fuzzyGet(binImage[(int) Math.ceil(x)], y) * weightXA;
     }
 
-    protected List<Double> getMeasurements(AbstractFilament filament, boolean[][] binImage) {
+    private static double fuzzyGet(boolean[] column, double y) {
+        double weightA = y - ((int) y);
+        boolean first = column[(int) Math.floor(y)];
+        boolean second = column[(int) Math.ceil(y)];
+        if (first ^ second) {
+            return (first ? 1 - weightA : weightA);
+        }
+        return (first ? 1d : 0d);
+    }
 
+    /**
+     * Measures the width in every point of the filament, see measureInPoint.
+     * The points of each segment are walked like util.LineIterator does.
+     *
+     * @param buffer scratch buffer, grown if needed
+     * @return buffer holding the measurements in [1, buffer[0]], buffer[0] is the count
+     */
+    protected double[] getMeasurements(AbstractFilament filament, boolean[][] binImage, double[] buffer) {
         //calculate for every filament the measured width in all points and average it
         double assumedWidth = ((double) filament.getWidth() / Const.MF);
         //width-formula used in Gatherer:Math.round(m_score * Const.MF / (double) m_points.size())
-        List<Double> listWidth = new ArrayList<>();
-
         List<Point> points = filament.getPoints();
-
+        int count = 0;
 
         for (int i = 0; i < points.size(); i++) {
-            if (i + 1 < points.size()) {
-                //create a line between two points of the filament
-                LineIterator iterator = new LineIterator(new Line2D.Double(points.get(i), points.get(i + 1)));
-                while (iterator.hasNext()) {
-                    Point2D current = iterator.next();
-                    measureInPoint(current, points.get(i + 1), assumedWidth, binImage, listWidth);
+            //create a line between two points of the filament, the last segment is walked backwards
+            Point from = points.get(i), to = points.get(i + 1 < points.size() ? i + 1 : i - 1);
+            final double x2 = to.x, y2 = to.y;
+            final double sx = (from.x < to.x ? 1 : -1), sy = (from.y < to.y ? 1 : -1);
+            final double dx = Math.abs(x2 - from.x), dy = Math.abs(y2 - from.y);
+            double x = from.x, y = from.y, error = dx - dy;
+
+            while (Math.abs(x - x2) > 0.9 || Math.abs(y - y2) > 0.9) {
+                if (count + 1 >= buffer.length) {
+                    buffer = Arrays.copyOf(buffer, 2 * buffer.length);
                 }
-                //measureInPoint(points.get(i),points.get(i+1),assumedWidth,binImage,listWidth,debug);
-            } else {
-                LineIterator iterator = new LineIterator(new Line2D.Double(points.get(i), points.get(i - 1)));
-                while (iterator.hasNext()) {
-                    Point2D current = iterator.next();
-                    measureInPoint(current, points.get(i - 1), assumedWidth, binImage, listWidth);
+                buffer[++count] = measureInPoint(x, y, x2, y2, assumedWidth, binImage);
+
+                double e2 = 2 * error;
+                if (e2 > -dy) {
+                    error -= dy;
+                    x += sx;
+                }
+                if (e2 < dx) {
+                    error += dx;
+                    y += sy;
                 }
-                //measureInPoint(points.get(i),points.get(i-1),assumedWidth,binImage,listWidth,debug);
             }
         }
-        return listWidth;
+        buffer[0] = count;
+        return buffer;
+    }
+
+    /**
+     * Average of the positive values in [from, to) after dropping the first maximum and the
+     * first minimum of the whole range; uses compensated (Kahan) summation. The result may differ
+     * from DoubleStream.average() in the last bits, whose final correction changed between JDKs.
+     *
+     * @return average or 1 if no positive value is left
+     */
+    private static double trimmedAverage(double[] values, int from, int to) {
+        int max_index = from;
+        for (int i = from + 1; i < to; i++) {
+            if (values[i] > values[max_index]) {
+                max_index = i;
+            }
+        }
+        int min_index = -1;
+        for (int i = from; i < to; i++) {
+            if (i != max_index && (min_index < 0 || values[i] < values[min_index])) {
+                min_index = i;
+            }
+        }
+
+        double sum = 0, compensation = 0;
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (i == max_index || i == min_index || !(values[i] > 0)) {
+                continue;
+            }
+            double value = values[i] - compensation;
+            double next = sum + value;
+            compensation = (next - sum) - value;
+            sum = next;
+            count++;
+        }
+        return (count > 0 ? (sum - compensation) / count : 1);
     }
 
 
@@ -130,42 +256,100 @@ public abstract class AbstractTracer implements Tracer {
      */
     public void updateFilamentWidth(boolean[][] binImage) {
         //false = white pixel, true = black pixel
+        double[] buffer = new double[256];
 
-        m_filament_list.forEach(filament -> {
-            List<Double> listWidth = getMeasurements(filament, binImage);
-
-            double[] values = listWidth.stream().filter(s -> s > 0).mapToDouble(s -> s).sorted().toArray();
-            if (values.length > 0) {//if no values found keep original width?
+        for (AbstractFilament filament : m_filament_list) {
+            buffer = getMeasurements(filament, binImage, buffer);
+            final int count = (int) buffer[0];
 
+            boolean found = false;
+            for (int i = 1; i <= count && !found; i++) {
+                found = buffer[i] > 0;
+            }
+            if (found) {//if no values found keep original width?
                 //create customized avg, remove the extreme values and avg rest
-                double max = listWidth.stream().mapToDouble(s -> s).max().orElse(0);
-                double min = listWidth.stream().mapToDouble(s -> s).min().orElse(0);
-                listWidth.remove(max);
-                listWidth.remove(min);
-                long customizedAvg = Math.round(listWidth.stream().filter(s -> s > 0).mapToDouble(s -> s).average().orElse(1) * Const.MF);
-                filament.setWidth(customizedAvg);
+                filament.setWidth(Math.round(trimmedAverage(buffer, 1, count + 1) * Const.MF));
             } else {
                 FilamentSensor.debugMessage("Filament of Error case:length=" + filament.getLength() + ",points=" + filament.getPoints() + ",width=" + filament.getWidth());
                 filament.setPossibleError(true);
             }
-        });
+        }
+    }
+
+
+    /**
+     * Traces the crop of bin given by roi and maps the results back to the frame of bin:
+     * filaments are moved to frame coordinates, orientation field and width map are padded
+     * with -1 and 0 outside of roi. Outside of the frame the tracers see no black pixels, so
+     * roi should include a margin around the region of interest.
+     */
+    @Override
+    public List<AbstractFilament> scanFilaments(ImageProcessor bin, Rectangle roi, double tolerance, int min_length, int min_angle, int step) {
+        if (m_result_cache == null) {
+            return scanCrop(bin, roi, tolerance, min_length, min_angle, step);
+        }
+        String key = TracingResultCache.key(this, bin, roi, tolerance, min_length, min_angle, step);
+        TracingResultCache.Result cached = m_result_cache.get(key);
+        if (cached != null) {
+            m_partial = false;
+            m_filament_list = cached.getFilaments();
+            m_orientation_field = cached.getOrientationField();
+            m_width_map = cached.getWidthMap();
+            return m_filament_list;
+        }
+        List<AbstractFilament> filaments = scanCrop(bin, roi, tolerance, min_length, min_angle, step);
+        if (!m_partial) {
+            m_result_cache.put(key, new TracingResultCache.Result(filaments, m_orientation_field, m_width_map));
+        }
+        return filaments;
+    }
+
+    private List<AbstractFilament> scanCrop(ImageProcessor bin, Rectangle roi, double tolerance, int min_length, int min_angle, int step) {
+        final int x_size = bin.getWidth(), y_size = bin.getHeight();
+        Rectangle crop = (roi == null ? null : roi.intersection(new Rectangle(0, 0, x_size, y_size)));
+        if (crop == null || (crop.width == x_size && crop.height == y_size)) {
+            return scanFilaments(bin, tolerance, min_length, min_angle, step);
+        }
+        if (crop.isEmpty()) {
+            m_filament_list = new ArrayList<>();
+            m_orientation_field = toFrame(null, crop, x_size, y_size, -1);
+            m_width_map = toFrame(null, crop, x_size, y_size, 0);
+            return m_filament_list;
+        }
+
+        ImageProcessor cropped = bin.createProcessor(crop.width, crop.height);
+        cropped.copyBits(bin, -crop.x, -crop.y, Blitter.COPY);
+        List<AbstractFilament> filaments = scanFilaments(cropped, tolerance, min_length, min_angle, step);
+
+        filaments.forEach(filament -> filament.translate(crop.x, crop.y));
+        m_orientation_field = toFrame(m_orientation_field, crop, x_size, y_size, -1);
+        m_width_map = toFrame(m_width_map, crop, x_size, y_size, 0);
+        return filaments;
+    }
+
+    /**
+     * Copies a field of the crop into a field of the frame, filled with fill outside of the crop.
+     */
+    private static IntField toFrame(IntField field, Rectangle crop, int x_size, int y_size, int fill) {
+        IntField frame = new IntField(x_size, y_size, fill);
+        if (field != null) {
+            for (int y = 0; y < crop.height; y++) {
+                System.arraycopy(field.getData(), field.index(0, y), frame.getData(), frame.index(crop.x, crop.y + y), crop.width);
+            }
+        }
+        return frame;
     }
 
 
     protected void initOrientationField(int x_size, int y_size) {
         if (m_orientation_field == null) {
             // initialize orientation field
-            m_orientation_field = new int[x_size][y_size];
-            for (int x = 0; x < x_size; x++) {
-                for (int y = 0; y < y_size; y++) {
-                    m_orientation_field[x][y] = -1;
-                }
-            }
+            m_orientation_field = new IntField(x_size, y_size, -1);
         }
     }
 
     public IBinaryImage getPixelMask() {
-        return new BinaryImage(m_orientation_field, -1);
+        return new BinaryImage(m_orientation_field.toArray(), -1);
     }
 
 
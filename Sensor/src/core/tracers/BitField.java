@@ -0,0 +1,68 @@
+package core.tracers;
+
+/**
+ * Binary field stored row by row in a single array, the counterpart of IntField for masks.
+ */
+public class BitField {
+    private final int m_width, m_height, m_stride;
+    private final boolean[] m_data;
+
+    public BitField(int width, int height) {
+        m_width = width;
+        m_height = height;
+        m_stride = width;
+        m_data = new boolean[width * height];
+    }
+
+    /**
+     * @param array values indexed [x][y]
+     */
+    public static BitField fromArray(boolean[][] array) {
+        BitField field = new BitField(array.length, array.length == 0 ? 0 : array[0].length);
+        for (int x = 0; x < field.m_width; x++) {
+            for (int y = 0; y < field.m_height; y++) {
+                field.m_data[y * field.m_stride + x] = array[x][y];
+            }
+        }
+        return field;
+    }
+
+    /**
+     * @return copy of the values indexed [x][y]
+     */
+    public boolean[][] toArray() {
+        boolean[][] array = new boolean[m_width][m_height];
+        for (int y = 0; y < m_height; y++) {
+            final int row = y * m_stride;
+            for (int x = 0; x < m_width; x++) {
+                array[x][y] = m_data[row + x];
+            }
+        }
+        return array;
+    }
+
+    public int getWidth() {
+        return m_width;
+    }
+
+    public int getHeight() {
+        return m_height;
+    }
+
+    public int getStride() {
+        return m_stride;
+    }
+
+    public boolean[] getData() {
+        return m_data;
+    }
+
+    public boolean get(int x, int y) {
+        return m_data[y * m_stride + x];
+    }
+
+    public void set(int x, int y, boolean value) {
+        m_data[y * m_stride + x] = value;
+    }
+
+}
@@ -39,6 +39,7 @@ import java.awt.*;
 import java.util.*;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 
 public class CurveTracer extends AbstractTracer {
@@ -49,6 +50,8 @@ public class CurveTracer extends AbstractTracer {
     //    private static final int m_sense_depth = 20;
 //    private static final int m_step_size = 10;
     private static final double m_tolerance = 0.3;
+    // Number of scored lines after which the lines are drawn and the shorter ones cleaned up.
+    private static final int m_cleanup_interval = 10000;
 
     //former static ...
     private Point[][] m_lattice_sense, m_lattice_step;
@@ -70,21 +73,12 @@ public class CurveTracer extends AbstractTracer {
         m_lattice_step = null;
     }
 
-    public int[][] getOrientationField() {
-        return m_orientation_field;
-    }
-
-
-    public int[][] getWidthMap() {
-        return m_width_map;
-    }
-
-
     @Override
     public List<AbstractFilament> scanFilaments(ImageProcessor bin, double tolerance, int min_length, int min_angle, int step) {
         boolean[][] binImage = new BinaryImage(bin.getIntArray(), 254).toBoolean();
 
         reset();
+        startClock();
         initSpokeLattices(step, Math.max(2 * step, 20));//low performance impact
         // refresh map and get max_radius
         Map<Integer, List<Point>> width_list = getWidthMap(binImage, tolerance);//low performance impact 100ms > x > 0ms
@@ -100,7 +94,7 @@ public class CurveTracer extends AbstractTracer {
         AtomicInteger line_counter = new AtomicInteger(0);
         FilamentSensor.debugMessage("Start tracing, max width: " + m_max_width);
 
-        for (int width = m_max_width; width > 0; width--) {
+        for (int width = m_max_width; width > 0 && !isOverTime(); width--) {
             FilamentSensor.debugMessage("Tracing filaments, width " + width + "... ");
             List<Point> points = width_list.get(width);//Map.get no impact
             if (points != null) {
@@ -185,6 +179,28 @@ public class CurveTracer extends AbstractTracer {
     }
 
     /**
+     * Gathers the best line through a single point.
+     * Only reads m_width_map and the lattices, so it can run concurrently.
+     */
+    private Gatherer scanFilamentsTracePoint(Point p, int width) {
+        // Test lines for all directions.
+        Gatherer[] gatherers = new Gatherer[m_directions];
+        int[] scores = scanFilamentsInitScores(p, width, gatherers);
+        // Identify highest scoring pair of directions.
+        int[] best_pair = scanFilamentsGetBestPair(scores);
+        // Gather line by following best initial orientations.
+        return scanFilamentsGetGathererLine(gatherers, best_pair);
+    }
+
+    /**
+     * Traces lines through all points of one width that are not covered yet.
+     * <p>
+     * The orientation field only changes in cleanUpLines, which runs every m_cleanup_interval lines.
+     * So the points are processed in chunks that end with the next clean up: all points of a chunk
+     * that are uncovered at its start are traced, their lines are gathered in parallel and then added
+     * to scored_lines in point order. This gives the same lines, scores and clean ups as tracing the
+     * points one after another.
+     *
      * @param points
      * @param width
      * @param scored_lines
@@ -195,78 +211,41 @@ public class CurveTracer extends AbstractTracer {
      * @param bin
      */
     private void scanFilamentsHandlePoints(List<Point> points, int width, Map<Integer, List<Gatherer>> scored_lines, AtomicInteger max_score, AtomicInteger line_counter, int min_length, int min_angle, boolean[][] bin) {
-
-        points.stream().forEach(p -> {
-            if (m_orientation_field[p.x][p.y] > -1) {
-                return;
-            }
-            // Test lines for all directions.
-            Gatherer[] gatherers = new Gatherer[m_directions];
-            int[] scores = scanFilamentsInitScores(p, width, gatherers);
-            // Identify highest scoring pair of directions.
-            int[] best_pair = scanFilamentsGetBestPair(scores);
-            // Gather line by following best initial orientations.
-            Gatherer line = scanFilamentsGetGathererLine(gatherers, best_pair);
-            gatherers = null;
-
-            // Add line to map.
-            int score = line.score();
-            scored_lines.computeIfAbsent(score, k -> new ArrayList<>());
-            if (score > max_score.get()) {
-                max_score.set(score);
-            }
-            scored_lines.get(score).add(line);
-            if (line_counter.incrementAndGet() >= 10000) {
-                FilamentSensor.debugMessage(line_counter + " lines. Maximal score: " + max_score);
-                line_counter.set(cleanUpLines(scored_lines, max_score.get(), min_length, min_angle, bin));
-                for (int m = max_score.get(); m >= 0; m--) {
-                    if (scored_lines.get(m) != null) {
-                        max_score.set(m);
-                        m = 0;//loop is canceled without using break;
-                    }
+        int index = 0;
+        while (index < points.size() && !isOverTime()) {
+            // Number of lines until the next clean up.
+            int remaining = Math.max(1, m_cleanup_interval - line_counter.get());
+            List<Point> chunk = new ArrayList<>();
+            while (index < points.size() && chunk.size() < remaining) {
+                Point p = points.get(index++);
+                if (m_orientation_field.get(p.x, p.y) == -1) {
+                    chunk.add(p);
                 }
-                FilamentSensor.debugMessage(line_counter + " lines. Maximal score: " + max_score);
             }
 
-        });
-
+            List<Gatherer> lines = chunk.parallelStream().map(p -> scanFilamentsTracePoint(p, width)).collect(Collectors.toList());
 
-        /*for (Point p : points) {
-            if (m_orientation_field[p.x][p.y] > -1) {
-                continue;
-            }
-            // Test lines for all directions.
-            Gatherer[] gatherers = new Gatherer[m_directions];
-            int[] scores=scanFilamentsInitScores(p,width,gatherers);
-            // Identify highest scoring pair of directions.
-            int[] best_pair = scanFilamentsGetBestPair(scores);
-            // Gather line by following best initial orientations.
-            Gatherer line=scanFilamentsGetGathererLine(gatherers,best_pair);
-            gatherers=null;
-
-            // Add line to map.
-            int score = line.score();
-            if (!scored_lines.containsKey(score)) {
-                scored_lines.put(score, new ArrayList<>());
-            }
-            if (score > max_score.get()) {
-                max_score.set(score);
-            }
-            scored_lines.get(score).add(line);
-            if (line_counter.incrementAndGet() >= 10000) {
-                FilamentSensor.debugMessage(line_counter + " lines. Maximal score: " + max_score);
-                line_counter.set(cleanUpLines(scored_lines, max_score.get(), min_length, min_angle, bin));
-                for (int m = max_score.get(); m >= 0; m--) {
-                    if (scored_lines.get(m) != null) {
-                        max_score.set(m);
-                        m = 0;//loop is canceled without using break;
+            for (Gatherer line : lines) {
+                // Add line to map.
+                int score = line.score();
+                scored_lines.computeIfAbsent(score, k -> new ArrayList<>());
+                if (score > max_score.get()) {
+                    max_score.set(score);
+                }
+                scored_lines.get(score).add(line);
+                if (line_counter.incrementAndGet() >= m_cleanup_interval) {
+                    FilamentSensor.debugMessage(line_counter + " lines. Maximal score: " + max_score);
+                    line_counter.set(cleanUpLines(scored_lines, max_score.get(), min_length, min_angle, bin));
+                    for (int m = max_score.get(); m >= 0; m--) {
+                        if (scored_lines.get(m) != null) {
+                            max_score.set(m);
+                            m = 0;//loop is canceled without using break;
+                        }
                     }
+                    FilamentSensor.debugMessage(line_counter + " lines. Maximal score: " + max_score);
                 }
-                FilamentSensor.debugMessage(line_counter + " lines. Maximal score: " + max_score);
             }
-        }*/
-
-
+        }
     }
 
 
@@ -279,58 +258,18 @@ public class CurveTracer extends AbstractTracer {
      * For each white point in the binary image the width map entry
      * is the highest diameter at which the ratio of black pixels
      * to all pixels exceeds the tolerance, zero everywhere else.
+     *
+     * @see WidthMapCalculator
      */
     private Map<Integer, List<Point>> getWidthMap(boolean[][] bin, double tolerance) {
-        m_max_width = 0;
-        int x_size = bin.length, y_size = bin[0].length;
-        m_width_map = new int[x_size][y_size];
-        Map<Integer, List<Point>> width_list = new HashMap<>();
-
-        for (int x = 0; x < x_size; x++) {
-            for (int y = 0; y < y_size; y++) {
-                if (!bin[x][y]) { // false is white. If black, m_width_map[i][j] remains 0.
-                    int diameter = 1, count = 0, misses = 0;
-                    double ratio = 0.0;
-
-                    while (ratio <= tolerance) {
-                        diameter++;
-                        if (diameter > m_max_width) {
-                            m_max_width = diameter;
-                        }
+        WidthMapCalculator calculator = new WidthMapCalculator(bin, tolerance);
+        m_width_map = calculator.getWidthMap();
+        m_max_width = calculator.getMaxDiameter();
 
-                        if (diameter >= m_circle_masks.length) {
-                            System.out.println("RWCurveTracer --- recursive call");
-                            initCircleMasks(m_circle_masks.length * 2);
-                            return getWidthMap(bin, tolerance);
-                        }
-
-                        boolean[][] mask = m_circle_masks[diameter];
-                        int range = mask.length / 2;
-
-                        for (int dx = -range; dx < range + 1; dx++) {
-                            if (!(x + dx < 0 || x + dx > x_size - 1)) {
-                                for (int dy = -range; dy < range + 1; dy++) {
-                                    if (!(!mask[range + dx][range + dy] || y + dy < 0 || y + dy > y_size - 1)) {
-                                        count++;
-                                        // Count white points as misses.
-                                        if (bin[x + dx][y + dy]) {
-                                            misses++;
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                        // Ratio of misses.
-                        ratio = (double) misses / (double) count;
-                    }
-                    // Radius at which black pixel ratio exceeded the tolerance.
-                    m_width_map[x][y] = diameter - 1;
-                    width_list.computeIfAbsent(diameter - 1, k -> new ArrayList<>());
-                    width_list.get(diameter - 1).add(new Point(x, y));
-                }
-            }
+        if (m_max_width + 1 >= m_circle_masks.length) {
+            initCircleMasks(2 * (m_max_width + 1));
         }
-        return width_list;
+        return calculator.getWidthList();
     }
 
     public static int[][] makeFingerprint(double axis, int[][] orientationField) {
@@ -457,7 +396,7 @@ public class CurveTracer extends AbstractTracer {
         boolean shortened = false;
         while (!points.isEmpty()) {
             int[] p0 = points.get(0);
-            if (m_orientation_field[p0[0]][p0[1]] < 0 && p0[2] > 0) {
+            if (m_orientation_field.get(p0[0], p0[1]) < 0 && p0[2] > 0) {
                 break;
             }
             line.remove(0);
@@ -466,7 +405,7 @@ public class CurveTracer extends AbstractTracer {
         while (!points.isEmpty()) {
             int end = points.size() - 1;
             int[] p_end = points.get(end);
-            if (m_orientation_field[p_end[0]][p_end[1]] < 0 && p_end[2] > 0) {
+            if (m_orientation_field.get(p_end[0], p_end[1]) < 0 && p_end[2] > 0) {
                 break;
             }
             line.remove(end);
@@ -484,7 +423,7 @@ public class CurveTracer extends AbstractTracer {
         int already_present = 0;
         for (int[] p : line.points()) {
             int ori = (p[3] * m_direction_step) % 180,
-                    pre_ori = m_orientation_field[p[0]][p[1]];
+                    pre_ori = m_orientation_field.get(p[0], p[1]);
             if (pre_ori != -1) {
                 if (angle(ori, pre_ori) < min_angle) {
                     already_present++;
@@ -531,16 +470,16 @@ public class CurveTracer extends AbstractTracer {
             if (p[2] == 0) {
                 continue;
             }
-            boolean[][] circle = m_circle_masks[p[2] + 1];
-            int shift = circle.length / 2;
+            BitField circle = m_circle_masks[p[2] + 1];
+            int shift = circle.getWidth() / 2;
             int dx1 = p[0] - shift, dx2 = dx1 - x_min, dy1 = p[1] - shift, dy2 = dy1 - y_min;
-            for (int x = 0; x < circle.length; x++) {
-                for (int y = 0; y < circle.length; y++) {
+            for (int x = 0; x < circle.getWidth(); x++) {
+                for (int y = 0; y < circle.getHeight(); y++) {
                     if (x + dx2 < canvas.length && y + dy2 < canvas[0].length &&
                             x + dx1 < binary_image.length && y + dy1 < binary_image[0].length &&
                             x + dx2 >= 0 && y + dy2 >= 0 && x + dx1 >= 0 && y + dy1 >= 0)
                         canvas[x + dx2][y + dy2] = canvas[x + dx2][y + dy2] ||
-                                circle[x][y] && !binary_image[x + dx1][y + dy1];
+                                circle.get(x, y) && !binary_image[x + dx1][y + dy1];
                 }
             }
         }
@@ -586,7 +525,7 @@ public class CurveTracer extends AbstractTracer {
         for (int x = 0; x < ori_canvas.length; x++) {
             for (int y = 0; y < ori_canvas[x].length; y++) {
                 if (ori_canvas[x][y] > 0) {
-                    m_orientation_field[x + x_min][y + y_min] = ori_canvas[x][y] - 1;
+                    m_orientation_field.set(x + x_min, y + y_min, ori_canvas[x][y] - 1);
                 }
                 ori_canvas[x][y] -= 1;
             }
@@ -601,67 +540,9 @@ public class CurveTracer extends AbstractTracer {
         return diff;
     }
 
-    private void initCircleMasks(int size) {
-        m_circle_masks = new boolean[size + 1][][];
-        for (int i = 1; i <= size; i++) {
-            m_circle_masks[i] = Calc.circleMask(i);
-        }
-    }
-
-    // This method defines a "square" lattice.
     private void initSpokeLattices(int step_size, int sense_depth) {
-        Point[][] pre_lattice = new Point[m_directions][sense_depth];
-
-        final int eighth = m_directions / 8;
-
-        for (int j = 0; j < sense_depth; j++) {
-            pre_lattice[0][j] = new Point(j + 1, 0);
-            pre_lattice[2 * eighth][j] = new Point(0, j + 1);
-            pre_lattice[4 * eighth][j] = new Point(-j - 1, 0);
-            pre_lattice[6 * eighth][j] = new Point(0, -j - 1);
-
-            pre_lattice[1 * eighth][j] = new Point(j + 1, j + 1);
-            pre_lattice[3 * eighth][j] = new Point(-j - 1, j + 1);
-            pre_lattice[5 * eighth][j] = new Point(-j - 1, -j - 1);
-            pre_lattice[7 * eighth][j] = new Point(j + 1, -j - 1);
-        }
-
-        for (int i = 1; i < eighth; i++) {
-            double slope = Math.tan(Math.PI * i / ((double) m_orientations));
-            for (int j = 0; j < sense_depth; j++) {
-                int x = j + 1, y = (int) (Math.round(x * slope));
-                pre_lattice[i][j] = new Point(x, y);
-                pre_lattice[(2 * eighth) - i][j] = new Point(y, x);
-                pre_lattice[(2 * eighth) + i][j] = new Point(-y, x);
-                pre_lattice[(4 * eighth) - i][j] = new Point(-x, y);
-                pre_lattice[(4 * eighth) + i][j] = new Point(-x, -y);
-                pre_lattice[(6 * eighth) - i][j] = new Point(-y, -x);
-                pre_lattice[(6 * eighth) + i][j] = new Point(y, -x);
-                pre_lattice[(8 * eighth) - i][j] = new Point(x, -y);
-            }
-        }
-
-        Point[][][] lattices = new Point[2][m_directions][];
-        for (int i = 0; i < 2; i++) {
-            int depth = (i == 0 ? sense_depth : step_size);
-            for (int j = 0; j < m_directions; j++) {
-                List<Point> ray = new ArrayList<>();
-                double old_distance = 0, distance = 0;
-                for (int k = 0; k < sense_depth; k++) {
-                    Point p = pre_lattice[j][k];
-                    distance = Math.sqrt(p.x * p.x + p.y * p.y);
-                    if (Math.abs(distance - depth) > Math.abs(old_distance - depth)) {
-                        break;
-                    }
-                    old_distance = distance;
-
-                    ray.add(p);
-                }
-                lattices[i][j] = ray.toArray(new Point[0]);
-            }
-        }
-        m_lattice_sense = lattices[0];
-        m_lattice_step = lattices[1];
+        m_lattice_sense = TracerCache.getSpokeRays(m_directions, sense_depth, sense_depth);
+        m_lattice_step = TracerCache.getSpokeRays(m_directions, sense_depth, step_size);
     }
 
 }
\ No newline at end of file
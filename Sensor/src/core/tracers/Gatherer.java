@@ -42,7 +42,7 @@ public class Gatherer {
      * @param width_map
      * @return
      */
-    public int sense(int[][] width_map) {
+    public int sense(IntField width_map) {
         m_points = new ArrayList<>();
         m_points.add(m_start);
         m_score = m_start[2];
@@ -54,8 +54,8 @@ public class Gatherer {
         boolean one_black_pixel = false;
         for (Point p : ray) {
             int px = x + p.x, py = y + p.y;
-            if (px >= 0 && py >= 0 && px < width_map.length && py < width_map[0].length) {
-                int w = width_map[px][py];
+            if (width_map.contains(px, py)) {
+                int w = width_map.get(px, py);
                 // Accept at most one 0 in a row.
                 if (w == 0) {
                     if (one_black_pixel) {
@@ -86,7 +86,7 @@ public class Gatherer {
         return score;
     }
 
-    public void gather(int[][] width_map) {
+    public void gather(IntField width_map) {
         gather(m_points.get(m_points.size() - 1), width_map);//width_map,
     }
 
@@ -96,7 +96,7 @@ public class Gatherer {
      * @param start
      * @param m_width_map
      */
-    public void gather(int[] start, int[][] m_width_map)//int[][] width_map,
+    public void gather(int[] start, IntField m_width_map)//int[][] width_map,
     {
         int dir = m_direction;
 
@@ -117,8 +117,8 @@ public class Gatherer {
             boolean one_black_pixel = false;
             for (Point p : ray) {
                 int px = x + p.x, py = y + p.y;
-                if (px < m_width_map.length && py < m_width_map[0].length && px >= 0 && py >= 0) {//otherwise out of bounds could happen
-                    int w = m_width_map[px][py];
+                if (m_width_map.contains(px, py)) {//otherwise out of bounds could happen
+                    int w = m_width_map.get(px, py);
                     // Accept at most one 0 in a row.
                     if (w == 0) {
                         if (one_black_pixel) {
@@ -0,0 +1,89 @@
+package core.tracers;
+
+import java.util.Arrays;
+
+/**
+ * Int valued field of the size of an image, used for the orientation field and the width map.
+ * <p>
+ * The values are stored row by row in a single array, the value of (x, y) is at index
+ * y * stride + x. In contrast to int[x][y] there is one object per field, neighbours in x
+ * are neighbours in memory and getData() gives the raw array for inner loops.
+ */
+public class IntField {
+    private final int m_width, m_height, m_stride;
+    private final int[] m_data;
+
+    public IntField(int width, int height) {
+        m_width = width;
+        m_height = height;
+        m_stride = width;
+        m_data = new int[width * height];
+    }
+
+    public IntField(int width, int height, int fill) {
+        this(width, height);
+        if (fill != 0) {
+            Arrays.fill(m_data, fill);
+        }
+    }
+
+    /**
+     * @param array values indexed [x][y]
+     */
+    public static IntField fromArray(int[][] array) {
+        IntField field = new IntField(array.length, array.length == 0 ? 0 : array[0].length);
+        for (int x = 0; x < field.m_width; x++) {
+            for (int y = 0; y < field.m_height; y++) {
+                field.m_data[y * field.m_stride + x] = array[x][y];
+            }
+        }
+        return field;
+    }
+
+    /**
+     * @return copy of the values indexed [x][y], for callers working on int[][]
+     */
+    public int[][] toArray() {
+        int[][] array = new int[m_width][m_height];
+        for (int y = 0; y < m_height; y++) {
+            final int row = y * m_stride;
+            for (int x = 0; x < m_width; x++) {
+                array[x][y] = m_data[row + x];
+            }
+        }
+        return array;
+    }
+
+    public int getWidth() {
+        return m_width;
+    }
+
+    public int getHeight() {
+        return m_height;
+    }
+
+    public int getStride() {
+        return m_stride;
+    }
+
+    public int[] getData() {
+        return m_data;
+    }
+
+    public int index(int x, int y) {
+        return y * m_stride + x;
+    }
+
+    public boolean contains(int x, int y) {
+        return x >= 0 && y >= 0 && x < m_width && y < m_height;
+    }
+
+    public int get(int x, int y) {
+        return m_data[y * m_stride + x];
+    }
+
+    public void set(int x, int y, int value) {
+        m_data[y * m_stride + x] = value;
+    }
+
+}
@@ -0,0 +1,75 @@
+package core.tracers;
+
+import java.util.Arrays;
+
+/**
+ * Bucket queue of the line candidates in LineSensor.findOrientations.
+ * <p>
+ * Candidates are pixel indices x * height + y in one int array per line length. poll() returns
+ * the longest candidate, within a length the last one added first. Candidates that got covered
+ * in the meantime are not searched for, the caller skips them when they are polled, so adding
+ * and removing are amortized O(1).
+ */
+class LineCandidates {
+    private final int m_height;
+    private int[][] m_buckets;
+    private int[] m_sizes;
+    // Highest length that may have a non empty bucket.
+    private int m_top;
+    private int m_size;
+
+    /**
+     * @param height      image height, used to pack the coordinates
+     * @param max_length expected maximal line length, larger lengths grow the queue
+     */
+    LineCandidates(int height, int max_length) {
+        m_height = height;
+        m_buckets = new int[max_length + 1][];
+        m_sizes = new int[max_length + 1];
+        m_top = -1;
+        m_size = 0;
+    }
+
+    void add(int length, int x, int y) {
+        if (length >= m_buckets.length) {
+            int capacity = Math.max(length + 1, 2 * m_buckets.length);
+            m_buckets = Arrays.copyOf(m_buckets, capacity);
+            m_sizes = Arrays.copyOf(m_sizes, capacity);
+        }
+        int[] bucket = m_buckets[length];
+        if (bucket == null) {
+            bucket = m_buckets[length] = new int[16];
+        } else if (m_sizes[length] == bucket.length) {
+            bucket = m_buckets[length] = Arrays.copyOf(bucket, 2 * bucket.length);
+        }
+        bucket[m_sizes[length]++] = x * m_height + y;
+        if (length > m_top) {
+            m_top = length;
+        }
+        m_size++;
+    }
+
+    boolean isEmpty() {
+        return m_size == 0;
+    }
+
+    /**
+     * Removes the next candidate, see x(...) and y(...) to unpack it.
+     */
+    int poll() {
+        while (m_sizes[m_top] == 0) {
+            m_top--;
+        }
+        m_size--;
+        return m_buckets[m_top][--m_sizes[m_top]];
+    }
+
+    int x(int candidate) {
+        return candidate / m_height;
+    }
+
+    int y(int candidate) {
+        return candidate % m_height;
+    }
+
+}
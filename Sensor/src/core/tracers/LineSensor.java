@@ -39,9 +39,10 @@ import core.FilamentSensor;
 
 import java.awt.*;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 
 public class LineSensor extends AbstractTracer {
     // m_number_of_directions should be a multiple of 8.
@@ -55,6 +56,7 @@ public class LineSensor extends AbstractTracer {
 
     private int m_width, m_height;
     private int m_filament_number;
+    private int[] m_skipped_pixels;
 
 
     public LineSensor() {
@@ -73,41 +75,43 @@ public class LineSensor extends AbstractTracer {
         m_orientation_field = null;
     }
 
-    public int[][] getOrientationField() {
-        return m_orientation_field;
-    }
-
-
-    public int[][] getWidthMap() {
-        return m_width_map;
-    }
-
-
     /**
      * Traces filaments with width-support by wrapping LineSensor.
+     * <p>
+     * From one width to the next the input mask only gains white pixels, so the spoke
+     * results of the previous width are kept and only pixels that can see a newly white
+     * pixel are searched again, see updateSpokes(...).
      */
     @Override
     public List<AbstractFilament> scanFilaments(ImageProcessor bin, double tolerance, int min_length, int min_angle, int step) {
         reset();
+        startClock();
         // refresh map and get max_radius
         int max_diameter = calcWidthMap(bin, tolerance);
+        // the time budget can end the width loop before findOrientations(...) ran
+        initOrientationField(m_width, m_height);
 
-        for (int width = max_diameter; width > 0; width--) {
-            FilamentSensor.debugMessage("Tracing filaments, width " + width + "... ");
-
-            boolean[][] input = new boolean[m_width][m_height];
+        // Boolean mask where all smaller diameters than the current diameter(width) are true.
+        // Sensor interprets true as black and false as white pixels!
+        boolean[][] input = new boolean[m_width][m_height];
+        for (int i = 0; i < m_width; i++) {
+            Arrays.fill(input[i], true);
+        }
+        if (m_lattice == null) {
+            initSpokeLattice();
+        }
+        SpokeTable table = new SpokeTable(m_lattice, input);
+        LineInfo[][] spokes = new LineInfo[m_width][m_height];
+        m_skipped_pixels = new int[max_diameter + 1];
 
+        for (int width = max_diameter; width > 0 && !isOverTime(); width--) {
+            FilamentSensor.debugMessage("Tracing filaments, width " + width + "... ");
 
-            // Creates boolean mask where all smaller diameters than the current diameter(width) are true.
-            // Sensor interprets true as black and false as white pixels!
-            for (int i = 0; i < m_width; i++) {
-                for (int j = 0; j < m_height; j++) {
-                    input[i][j] = (m_width_map[i][j] < width);
-                }
-            }
+            m_skipped_pixels[width] = updateSpokes(input, table, spokes, width);
+            FilamentSensor.debugMessage("Spokes of " + m_skipped_pixels[width] + " pixels reused for width " + width + ".");
 
             // The lineSensor is invoked with the input mask as binary_image.
-            findOrientations(input, min_length, min_angle, width);
+            findOrientations(spokes, min_length, min_angle, width);
 
             if (m_filament_number <= 0) {
                 FilamentSensor.debugMessage("No filaments for width " + width + " found.");
@@ -121,6 +125,120 @@ public class LineSensor extends AbstractTracer {
         return m_filament_list;
     }
 
+    /**
+     * Number of white pixels per width whose spoke search of the previous width was reused
+     * by the last scanFilaments call, indexed by width.
+     */
+    public int[] getSkippedPixels() {
+        return m_skipped_pixels;
+    }
+
+    /**
+     * Turns all pixels of the given width white and updates the spoke results.
+     * <p>
+     * Pixels only turn white from one width to the next, so a ray can only change if the black
+     * pixel ending it turned white. Lattice point m has maximum norm m + 1 and the directions of
+     * a quadrant stay inside that quadrant, so per quadrant it suffices to look for changed pixels
+     * between the nearest and the farthest black ray end. This is checked with a summed area table
+     * over the changed pixels, all other white pixels keep their spokes.
+     *
+     * @return number of white pixels whose spokes were kept
+     */
+    private int updateSpokes(boolean[][] input, SpokeTable table, LineInfo[][] spokes, int width) {
+        int[][] changed = new int[m_width + 1][m_height + 1];
+        for (int i = 0; i < m_width; i++) {
+            for (int j = 0; j < m_height; j++) {
+                int value = 0;
+                if (m_width_map.get(i, j) == width) {
+                    input[i][j] = false;
+                    table.setWhite(i, j);
+                    value = 1;
+                }
+                changed[i + 1][j + 1] = value + changed[i][j + 1] + changed[i + 1][j] - changed[i][j];
+            }
+        }
+
+        AtomicInteger skipped = new AtomicInteger(0);
+        // The spoke search of a pixel only reads the binary image and the lattice, so the columns are
+        // searched in parallel. Every task writes its own column of spokes and the candidate map
+        // is built sequentially, so the result does not depend on the scheduling.
+        IntStream.range(0, m_width).parallel().forEach(i -> {//init lineInfo for each false pixel (false == white pixel)
+            int kept = 0;
+            for (int j = 0; j < m_height; j++) {
+                if (input[i][j]) {
+                    continue;
+                }
+                LineInfo info = spokes[i][j];
+                if (info != null && !blockerChanged(changed, info, i, j)) {
+                    kept++;
+                    continue;
+                }
+                spokes[i][j] = new LineInfo(table, new Point(i, j));
+            }
+            skipped.addAndGet(kept);
+        });
+        return skipped.get();
+    }
+
+    private boolean blockerChanged(int[][] changed, LineInfo info, int x, int y) {
+        for (int quadrant = 0; quadrant < 4; quadrant++) {
+            int far = info.blocked_max[quadrant], near = info.blocked_min[quadrant] - 1;
+            if (far == 0) {
+                continue;
+            }
+            if (quadrantSum(changed, x, y, quadrant, far) - quadrantSum(changed, x, y, quadrant, near) > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sum over the lattice points of the given quadrant up to maximum norm distance r,
+     * quadrant 0 starts with direction (1, 0), quadrant 1 with (0, 1) and so on.
+     */
+    private int quadrantSum(int[][] changed, int x, int y, int quadrant, int r) {
+        if (r <= 0) {
+            return 0;
+        }
+        int x0, x1, y0, y1;
+        switch (quadrant) {
+            case 0:
+                x0 = x + 1;
+                x1 = x + r;
+                y0 = y;
+                y1 = y + r;
+                break;
+            case 1:
+                x0 = x - r;
+                x1 = x;
+                y0 = y + 1;
+                y1 = y + r;
+                break;
+            case 2:
+                x0 = x - r;
+                x1 = x - 1;
+                y0 = y - r;
+                y1 = y;
+                break;
+            default:
+                x0 = x;
+                x1 = x + r;
+                y0 = y - r;
+                y1 = y - 1;
+                break;
+        }
+        // Clip to the image, the table has an extra leading row and column.
+        x0 = Math.max(x0, 0);
+        y0 = Math.max(y0, 0);
+        x1 = Math.min(x1, m_width - 1);
+        y1 = Math.min(y1, m_height - 1);
+        if (x0 > x1 || y0 > y1) {
+            return 0;
+        }
+        return changed[x1 + 1][y1 + 1] - changed[x0][y1 + 1] - changed[x1 + 1][y0] + changed[x0][y0];
+    }
+
     @Override
     public int calcWidthMap(ImageProcessor bin, double tolerance) {
         boolean[][] binImage = new BinaryImage(bin.getIntArray(), 254).toBoolean();
@@ -131,60 +249,20 @@ public class LineSensor extends AbstractTracer {
      * For each white point in the binary image the width map entry
      * is the highest diameter at which the ratio of black pixels
      * to all pixels exceeds the tolerance, zero everywhere else.
+     *
+     * @see WidthMapCalculator
      */
     public int calcWidthMap(boolean[][] bin, double tolerance) {
-        int max_observed_diameter = 0;
-
         m_width = bin.length;
         m_height = bin[0].length;
-        m_width_map = new int[m_width][m_height];
 
-        for (int x = 0; x < m_width; x++) {
-            for (int y = 0; y < m_height; y++) {
-                if (bin[x][y]) // false is white. If black, m_width_map[i][j] remains 0.
-                {
-                    continue;
-                }
-                int diameter = 1, count = 0, misses = 0;
-                double ratio = 0.0;
-
-                while (ratio <= tolerance) {
-                    diameter++;
-                    if (diameter > max_observed_diameter) {
-                        max_observed_diameter = diameter;
-                    }
-
-                    if (diameter >= m_circle_masks.length) {
-                        initCircleMasks(m_circle_masks.length * 2);
-                        return calcWidthMap(bin, tolerance);
-                    }
-
-                    boolean[][] mask = m_circle_masks[diameter];
-                    int range = mask.length / 2;
-
-                    for (int dx = -range; dx < range + 1; dx++) {
-                        if (x - dx < 0 || x + dx > m_width - 1) {
-                            continue;
-                        }
-
-                        for (int dy = -range; dy < range + 1; dy++) {
-                            if (!mask[range + dx][range + dy] || y - dy < 0 || y + dy > m_height - 1) {
-                                continue;
-                            }
-                            count++;
-                            // Count true points as misses.(white is false)
-                            if (bin[x + dx][y + dy]) {
-                                misses++;
-                            }
-                        }
-                    }
+        WidthMapCalculator calculator = new WidthMapCalculator(bin, tolerance);
+        m_width_map = calculator.getWidthMap();
+        int max_observed_diameter = calculator.getMaxDiameter();
 
-                    // Ratio of misses.
-                    ratio = (double) misses / (double) count;
-                }
-                // Radius at which black pixel ratio exceeded the tolerance.
-                m_width_map[x][y] = diameter - 1;
-            }
+        // markLines needs the mask one larger than the widest line.
+        if (max_observed_diameter + 1 >= m_circle_masks.length) {
+            initCircleMasks(2 * (max_observed_diameter + 1));
         }
         return max_observed_diameter;
     }
@@ -198,84 +276,54 @@ public class LineSensor extends AbstractTracer {
     /**
      * Finds Orientations and Filaments.
      * <p>
-     * Initialises LineInfo's for every white pixel.
-     * Creates a map of all points lying on lines whose length exceeds minimal_length.
-     * The points are sorted in lists by line length.
+     * Takes the LineInfo's of every white pixel (see updateSpokes(...)).
+     * Queues all points lying on lines whose length exceeds minimal_length by line length, see LineCandidates.
      * Run through all remaining lines (longest first) and mark them in m_orientation_field and add the resulting filament to filament-list.
      * --> @see markLines(...)
      *
-     * @param binary_image
+     * @param spokes             spoke results of the current input, these are not modified
      * @param minimal_length
      * @param minimal_angle_step
      * @param width
      */
-    private void findOrientations(boolean[][] binary_image, int minimal_length, int minimal_angle_step, int width) {
-        if (m_lattice == null) {
-            initSpokeLattice();
-        }
-
-        m_width = binary_image.length;
-        m_height = binary_image[0].length;
-
+    private void findOrientations(LineInfo[][] spokes, int minimal_length, int minimal_angle_step, int width) {
         initOrientationField(m_width, m_height);
 
+        // markLines shortens the line infos, so the candidates work on copies.
         LineInfo[][] line_info = new LineInfo[m_width][m_height];
 
-        for (int i = 0; i < m_width; i++) {//init lineInfo for each false pixel (false == white pixel)
-            for (int j = 0; j < m_height; j++) {
-                if (!binary_image[i][j]) {
-                    line_info[i][j] = new LineInfo(binary_image, new Point(i, j));
-                }
-            }
-        }
-
         FilamentSensor.debugMessage("senseLines done. ");
 
-        // Make a map of all points lying on lines whose length exceeds
-        // minimal_length. The points are sorted in lists by line length.
-        HashMap<Integer, List<Point>> map = new HashMap<>();
-        int maximal_length = 0;
+        // Queue all points lying on lines whose length exceeds
+        // minimal_length, by line length.
+        LineCandidates candidates = new LineCandidates(m_height, 2 * m_maximum_step + 1);
 
         for (int i = 0; i < m_width; i++) {
             for (int j = 0; j < m_height; j++) {
-                if (line_info[i][j] != null && m_orientation_field[i][j] == -1 &&
-                        (int) (line_info[i][j].head.distance(line_info[i][j].tail)) >= minimal_length) {
-                    int line_length = line_info[i][j].length;
-
-                    map.computeIfAbsent(line_length, k -> new ArrayList<>());
-                    map.get(line_length).add(new Point(i, j));
-
-                    if (line_length > maximal_length) {
-                        maximal_length = line_length;
-                    }
+                if (spokes[i][j] != null && m_orientation_field.get(i, j) == -1 &&
+                        (int) (spokes[i][j].head.distance(spokes[i][j].tail)) >= minimal_length) {
+                    line_info[i][j] = new LineInfo(spokes[i][j]);
+                    candidates.add(line_info[i][j].length, i, j);
                 }
             }
         }
 
         // Run through the lines, longest first, and mark them.
-        for (int i = maximal_length; i >= 0; i--) {
-            if (!map.containsKey(i)) {
-                continue;
-            }
-            List<Point> list = map.get(i);
-
-            for (int j = list.size() - 1; j >= 0; j--) {
-                Point point = list.get(j);
-                int x = point.x, y = point.y;
-
-                if (m_orientation_field[x][y] == -1) {
-                    int old_length = line_info[x][y].length;
-                    markLines(line_info[x][y], minimal_angle_step, new Point(x, y), width);
-                    //orientation fields and filament-list are updated here (markLines)
-
-                    // Shortened lines may be 3/4 the minimal length.
-                    if (line_info[x][y].length < old_length &&
-                            (int) (line_info[x][y].head.distance(line_info[x][y].tail)) >= 0.75 * minimal_length) {
-                        map.computeIfAbsent(line_info[x][y].length, k -> new ArrayList<>());
-                        map.get(line_info[x][y].length).add(new Point(x, y));
-                    } else {
-                        line_info[x][y] = null;
-                    }
+        while (!candidates.isEmpty()) {
+            int candidate = candidates.poll();
+            int x = candidates.x(candidate), y = candidates.y(candidate);
+
+            if (m_orientation_field.get(x, y) == -1) {
+                int old_length = line_info[x][y].length;
+                markLines(line_info[x][y], minimal_angle_step, new Point(x, y), width);
+                //orientation fields and filament-list are updated here (markLines)
+
+                // Shortened lines may be 3/4 the minimal length.
+                if (line_info[x][y].length < old_length &&
+                        (int) (line_info[x][y].head.distance(line_info[x][y].tail)) >= 0.75 * minimal_length) {
+                    candidates.add(line_info[x][y].length, x, y);
+                } else {
+                    line_info[x][y] = null;
                 }
             }
         }
@@ -299,8 +347,8 @@ public class LineSensor extends AbstractTracer {
         int length_in_opposite_direction = lineInfo.length_in_opposite_dir;
         Point head = new Point(lineInfo.head);
         Point tail = new Point(lineInfo.tail);
-        boolean[][] circle = m_circle_masks[width + 1];
-        int range = circle.length / 2;
+        BitField circle = m_circle_masks[width + 1];
+        int range = circle.getWidth() / 2;
 
         // Find points on the line that are already part of another line.
         // This is determined by the presence of an orientation.
@@ -308,8 +356,8 @@ public class LineSensor extends AbstractTracer {
             int tx = point.x + m_lattice[orientation][i].x;
             int ty = point.y + m_lattice[orientation][i].y;
 
-            if (m_orientation_field[tx][ty] != -1) {
-                int diff = angle(orientation, m_orientation_field[tx][ty]);
+            if (m_orientation_field.get(tx, ty) != -1) {
+                int diff = angle(orientation, m_orientation_field.get(tx, ty));
                 if (diff < minimal_angle_step) {
                     already_present++;
                 }
@@ -320,8 +368,8 @@ public class LineSensor extends AbstractTracer {
             int tx = point.x + m_lattice[orientation + m_orientations][i].x;
             int ty = point.y + m_lattice[orientation + m_orientations][i].y;
 
-            if (m_orientation_field[tx][ty] != -1) {
-                int diff = angle(orientation, m_orientation_field[tx][ty]);
+            if (m_orientation_field.get(tx, ty) != -1) {
+                int diff = angle(orientation, m_orientation_field.get(tx, ty));
                 if (diff < minimal_angle_step) {
                     already_present++;
                 }
@@ -336,10 +384,10 @@ public class LineSensor extends AbstractTracer {
                 int tx = point.x + m_lattice[orientation][length_in_maximum_direction - 1].x;
                 int ty = point.y + m_lattice[orientation][length_in_maximum_direction - 1].y;
 
-                if (m_orientation_field[tx][ty] == -1) {
+                if (m_orientation_field.get(tx, ty) == -1) {
                     break;
                 }
-                diff = angle(orientation, m_orientation_field[tx][ty]);
+                diff = angle(orientation, m_orientation_field.get(tx, ty));
                 if (diff < minimal_angle_step) {
                     length_in_maximum_direction--;
                 }
@@ -350,10 +398,10 @@ public class LineSensor extends AbstractTracer {
                 int tx = point.x + m_lattice[orientation + m_orientations][length_in_opposite_direction - 1].x;
                 int ty = point.y + m_lattice[orientation + m_orientations][length_in_opposite_direction - 1].y;
 
-                if (m_orientation_field[tx][ty] == -1) {
+                if (m_orientation_field.get(tx, ty) == -1) {
                     break;
                 }
-                diff = angle(orientation, m_orientation_field[tx][ty]);
+                diff = angle(orientation, m_orientation_field.get(tx, ty));
                 if (diff < minimal_angle_step) {
                     length_in_opposite_direction--;
                 }
@@ -381,18 +429,18 @@ public class LineSensor extends AbstractTracer {
             // Mark the line in the orientation field.
             for (int x = 0; x < 2 * range + 1; x++) {
                 for (int y = 0; y < 2 * range + 1; y++) {
-                    if (circle[x][y]) {
+                    if (circle.get(x, y)) {
                         int p_x = point.x + x - range, p_y = point.y + y - range;
 
                         if (p_x >= 0 && p_x < m_width && p_y >= 0 && p_y < m_height) {
-                            m_orientation_field[p_x][p_y] = orientation;
+                            m_orientation_field.set(p_x, p_y, orientation);
                         }
 
                         for (int i = 0; i < length_in_maximum_direction; i++) {
                             int tx = p_x + m_lattice[orientation][i].x;
                             int ty = p_y + m_lattice[orientation][i].y;
                             if (tx >= 0 && tx < m_width && ty >= 0 && ty < m_height) {
-                                m_orientation_field[tx][ty] = orientation;
+                                m_orientation_field.set(tx, ty, orientation);
                             }
                         }
 
@@ -400,7 +448,7 @@ public class LineSensor extends AbstractTracer {
                             int tx = p_x + m_lattice[orientation + m_orientations][i].x;
                             int ty = p_y + m_lattice[orientation + m_orientations][i].y;
                             if (tx >= 0 && tx < m_width && ty >= 0 && ty < m_height) {
-                                m_orientation_field[tx][ty] = orientation;
+                                m_orientation_field.set(tx, ty, orientation);
                             }
                         }
                     }
@@ -430,53 +478,8 @@ public class LineSensor extends AbstractTracer {
         return new Point(point);
     }
 
-    private void initCircleMasks(int size) {
-        m_circle_masks = new boolean[size + 1][][];
-        for (int i = 1; i <= size; i++) {
-            m_circle_masks[i] = Calc.circleMask(i);
-        }
-    }
-
-    // This method defines a "square" lattice.
     private void initSpokeLattice() {
-        m_lattice = new Point[m_directions][m_maximum_step];
-        final int eighth = m_directions / 8;
-
-        for (int j = 0; j < m_maximum_step; j++) {
-            m_lattice[0][j] = new Point(j + 1, 0);
-            m_lattice[1 * eighth][j] = new Point(j + 1, j + 1);
-            m_lattice[2 * eighth][j] = new Point(0, j + 1);
-            m_lattice[3 * eighth][j] = new Point(-j - 1, j + 1);
-            m_lattice[4 * eighth][j] = new Point(-j - 1, 0);
-            m_lattice[5 * eighth][j] = new Point(-j - 1, -j - 1);
-            m_lattice[6 * eighth][j] = new Point(0, -j - 1);
-            m_lattice[7 * eighth][j] = new Point(j + 1, -j - 1);
-        }
-
-        for (int i = 1; i < eighth; i++) {
-
-            //double slope = (double) i / eighth;
-            double slope = Math.tan(Math.PI * i / ((double) m_orientations));
-
-            for (int j = 0; j < m_maximum_step; j++) {
-                int x = j + 1;
-                int y = (int) (Math.round(x * slope));
-
-                m_lattice[i][j] = new Point(x, y);
-
-                m_lattice[(2 * eighth) - i][j] = new Point(y, x);
-                m_lattice[(2 * eighth) + i][j] = new Point(-y, x);
-
-                m_lattice[(4 * eighth) - i][j] = new Point(-x, y);
-                m_lattice[(4 * eighth) + i][j] = new Point(-x, -y);
-
-                m_lattice[(6 * eighth) - i][j] = new Point(-y, -x);
-                m_lattice[(6 * eighth) + i][j] = new Point(y, -x);
-
-                m_lattice[(8 * eighth) - i][j] = new Point(x, -y);
-
-            }
-        }
+        m_lattice = TracerCache.getSpokeLattice(m_directions, m_maximum_step);
     }
 
 
@@ -487,40 +490,38 @@ public class LineSensor extends AbstractTracer {
     private class LineInfo {
         private int length, orientation, length_in_max_dir, length_in_opposite_dir;
         private Point head, tail;
+        // Per quadrant the smallest and largest maximum norm distance of a black pixel ending a ray.
+        private int[] blocked_min, blocked_max;
+
+        private LineInfo(LineInfo other) {
+            length = other.length;
+            orientation = other.orientation;
+            length_in_max_dir = other.length_in_max_dir;
+            length_in_opposite_dir = other.length_in_opposite_dir;
+            head = other.head;
+            tail = other.tail;
+        }
 
         // This method identifies the filaments. It relies on
         // m_number_of_orientations = m_number_of_directions/2.
-        private LineInfo(boolean[][] binary_image, Point point) {
-            m_width = binary_image.length;
-            m_height = binary_image[0].length;
-            boolean color = false; // false denotes white pixels.
-            Point test_point = new Point(-1, -1);
-            Point[] line_end_points = new Point[m_directions];
-
+        private LineInfo(SpokeTable table, Point point) {
             int[] length_in_direction = new int[m_directions];
             int[] length_in_orientation = new int[m_orientations];
+            blocked_min = new int[]{Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE};
+            blocked_max = new int[4];
 
             for (int k = 0; k < m_directions; k++) {
-                int m = 0;
-                boolean go_on = true;
-                line_end_points[k] = new Point(point);
-
-                // This loop finds the last point in direction k, to which there is
+                // Number of lattice points in direction k, to which there is
                 // an uninterrupted line of white pixels from (i,j).
-                while (go_on && m < m_lattice[k].length) {
-                    test_point.x = point.x + m_lattice[k][m].x;
-                    test_point.y = point.y + m_lattice[k][m].y;
-
-                    if (test_point.x >= 0 && test_point.x < m_width && test_point.y >= 0 && test_point.y < m_height
-                            && binary_image[test_point.x][test_point.y] == color) {
-                        m++;
-                        line_end_points[k] = new Point(test_point);
-                    } else {
-                        go_on = false;
-                    }
-                }
+                int m = table.length(k, point.x, point.y);
 
                 length_in_direction[k] = m;
+                if (table.isBlocked(k, point.x, point.y, m)) {
+                    // Lattice point m lies at maximum norm distance m + 1.
+                    int quadrant = k / (m_directions / 4);
+                    blocked_min[quadrant] = Math.min(blocked_min[quadrant], m + 1);
+                    blocked_max[quadrant] = Math.max(blocked_max[quadrant], m + 1);
+                }
 
                 if (k < m_orientations) {
                     length_in_orientation[k] = m + 1; // Count starting pixel.
@@ -539,10 +540,10 @@ public class LineSensor extends AbstractTracer {
                 }
             }
 
-            head = new Point(line_end_points[orientation]);
-            tail = new Point(line_end_points[orientation + m_orientations]);
             length_in_max_dir = length_in_direction[orientation];
             length_in_opposite_dir = length_in_direction[orientation + m_orientations];
+            head = shift(point, orientation, length_in_max_dir);
+            tail = shift(point, orientation + m_orientations, length_in_opposite_dir);
         }
     }
 
@@ -0,0 +1,79 @@
+package core.tracers;
+
+import java.awt.*;
+import java.util.Arrays;
+
+/**
+ * Spoke lattice walks on a flat copy of the binary image.
+ * <p>
+ * Every direction of the lattice is stored as a table of offsets into a column major pixel
+ * buffer, which has a one pixel border of outside pixels. Consecutive lattice points are
+ * neighbours in maximum norm, so every ray stops at the border at the latest and the walk
+ * needs no bounds checks and allocates nothing.
+ * <p>
+ * The lattice is not translation invariant (the rounding depends on the start point), so
+ * ray lengths can not be shared between pixels and every ray is walked.
+ * Public for Development.benchmarkSpokeTable.
+ */
+public class SpokeTable {
+    static final byte WHITE = 0, BLACK = 1, OUTSIDE = 2;
+
+    private final int m_width, m_height, m_stride;
+    private final byte[] m_pixels;
+    private final int[][] m_offsets;
+
+    /**
+     * @param lattice      spoke lattice, lattice[k][m] is the m-th point in direction k
+     * @param binary_image false is white
+     */
+    public SpokeTable(Point[][] lattice, boolean[][] binary_image) {
+        m_width = binary_image.length;
+        m_height = binary_image[0].length;
+        m_stride = m_height + 2;
+        m_pixels = new byte[(m_width + 2) * m_stride];
+        Arrays.fill(m_pixels, OUTSIDE);
+        for (int x = 0; x < m_width; x++) {
+            for (int y = 0; y < m_height; y++) {
+                m_pixels[index(x, y)] = (binary_image[x][y] ? BLACK : WHITE);
+            }
+        }
+
+        m_offsets = new int[lattice.length][];
+        for (int k = 0; k < lattice.length; k++) {
+            m_offsets[k] = new int[lattice[k].length];
+            for (int m = 0; m < lattice[k].length; m++) {
+                m_offsets[k][m] = lattice[k][m].x * m_stride + lattice[k][m].y;
+            }
+        }
+    }
+
+    private int index(int x, int y) {
+        return (x + 1) * m_stride + y + 1;
+    }
+
+    void setWhite(int x, int y) {
+        m_pixels[index(x, y)] = WHITE;
+    }
+
+    /**
+     * @return number of consecutive white lattice points from (x, y) in direction k
+     */
+    public int length(int k, int x, int y) {
+        final int[] offsets = m_offsets[k];
+        final int start = index(x, y);
+        int m = 0;
+        while (m < offsets.length && m_pixels[start + offsets[m]] == WHITE) {
+            m++;
+        }
+        return m;
+    }
+
+    /**
+     * @return whether the ray of the given length in direction k was stopped by a black pixel
+     * of the image, in contrast to the image border or the end of the lattice
+     */
+    boolean isBlocked(int k, int x, int y, int length) {
+        return length < m_offsets[k].length && m_pixels[index(x, y) + m_offsets[k][length]] == BLACK;
+    }
+
+}
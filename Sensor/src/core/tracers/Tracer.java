@@ -5,6 +5,7 @@ import ij.process.ImageProcessor;
 import util.NotImplementedException;
 import core.image.IBinaryImage;
 
+import java.awt.*;
 import java.util.List;
 
 //it only defines methods ---> interface
@@ -17,6 +18,13 @@ public interface Tracer {
 
     List<AbstractFilament> scanFilaments(ImageProcessor bin, double tolerance, int min_length, int min_angle, int step);
 
+    /**
+     * Traces only inside roi, the results are in the coordinates of bin.
+     *
+     * @param roi region to trace, null traces the whole image
+     */
+    List<AbstractFilament> scanFilaments(ImageProcessor bin, Rectangle roi, double tolerance, int min_length, int min_angle, int step);
+
     int calcWidthMap(ImageProcessor bin, double tolerance);
 
     static int[][] makeFingerprint(double axis, int[][] orientationField) {
@@ -28,5 +36,24 @@ public interface Tracer {
      */
     void updateFilamentWidth(boolean[][] binImage);
 
+    /**
+     * Limits the time of the following scans.
+     *
+     * @param millis time per scan in milliseconds, 0 means no limit
+     */
+    void setTimeBudget(long millis);
+
+    /**
+     * @return true if the last scan ran out of time and only traced part of the widths
+     */
+    boolean isPartial();
+
+    /**
+     * Scans with a region of interest look up and store their results in the cache.
+     *
+     * @param cache null disables caching
+     */
+    void setResultCache(TracingResultCache cache);
+
 
 }
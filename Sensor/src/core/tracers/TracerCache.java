@@ -0,0 +1,170 @@
+package core.tracers;
+
+import core.Calc;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process wide cache of the spoke lattices and circle masks used by the tracers.
+ * <p>
+ * BatchProcessor creates a new tracer for every entry, which used to rebuild these tables for
+ * every image. The cached arrays are shared between all tracers and threads and must not be
+ * modified by the caller.
+ */
+public final class TracerCache {
+
+    private static final Map<Integer, BitField> s_circle_masks = new ConcurrentHashMap<>();
+    private static final Map<String, Point[][]> s_lattices = new ConcurrentHashMap<>();
+
+    private static final AtomicLong s_hits = new AtomicLong(), s_misses = new AtomicLong();
+
+    private TracerCache() {
+    }
+
+    public static long getHits() {
+        return s_hits.get();
+    }
+
+    public static long getMisses() {
+        return s_misses.get();
+    }
+
+    public static void resetCounters() {
+        s_hits.set(0);
+        s_misses.set(0);
+    }
+
+    /**
+     * Drops all cached tables, the counters are kept.
+     */
+    public static void clear() {
+        s_circle_masks.clear();
+        s_lattices.clear();
+    }
+
+    /**
+     * @return Calc.circleMask(diameter)
+     */
+    public static BitField getCircleMask(int diameter) {
+        BitField mask = s_circle_masks.get(diameter);
+        if (mask != null) {
+            s_hits.incrementAndGet();
+            return mask;
+        }
+        return s_circle_masks.computeIfAbsent(diameter, d -> {
+            s_misses.incrementAndGet();
+            return BitField.fromArray(Calc.circleMask(d));
+        });
+    }
+
+    /**
+     * @return array with the circle mask of diameter i at index i, for 1 <= i <= size
+     */
+    public static BitField[] getCircleMasks(int size) {
+        BitField[] masks = new BitField[size + 1];
+        for (int i = 1; i <= size; i++) {
+            masks[i] = getCircleMask(i);
+        }
+        return masks;
+    }
+
+    /**
+     * "Square" spoke lattice: lattice[k][j] is the (j+1)-th point of direction k, its longer
+     * coordinate has absolute value j+1.
+     *
+     * @param directions number of directions, a multiple of 8
+     * @param depth      number of points per direction
+     */
+    public static Point[][] getSpokeLattice(int directions, int depth) {
+        return get(directions + ":" + depth, () -> initSpokeLattice(directions, depth));
+    }
+
+    /**
+     * Rays of the spoke lattice getSpokeLattice(directions, depth), each cut off at the point
+     * whose euclidean distance is closest to length.
+     */
+    public static Point[][] getSpokeRays(int directions, int depth, int length) {
+        return get(directions + ":" + depth + ":" + length, () -> initSpokeRays(getSpokeLattice(directions, depth), length));
+    }
+
+    private interface Builder {
+        Point[][] build();
+    }
+
+    private static Point[][] get(String key, Builder builder) {
+        Point[][] lattice = s_lattices.get(key);
+        if (lattice != null) {
+            s_hits.incrementAndGet();
+            return lattice;
+        }
+        // Built outside of the map, since ray lattices are built from other cached lattices.
+        s_misses.incrementAndGet();
+        lattice = builder.build();
+        Point[][] previous = s_lattices.putIfAbsent(key, lattice);
+        return (previous != null ? previous : lattice);
+    }
+
+    private static Point[][] initSpokeLattice(int directions, int depth) {
+        Point[][] lattice = new Point[directions][depth];
+        final int eighth = directions / 8;
+        final int orientations = directions / 2;
+
+        for (int j = 0; j < depth; j++) {
+            lattice[0][j] = new Point(j + 1, 0);
+            lattice[1 * eighth][j] = new Point(j + 1, j + 1);
+            lattice[2 * eighth][j] = new Point(0, j + 1);
+            lattice[3 * eighth][j] = new Point(-j - 1, j + 1);
+            lattice[4 * eighth][j] = new Point(-j - 1, 0);
+            lattice[5 * eighth][j] = new Point(-j - 1, -j - 1);
+            lattice[6 * eighth][j] = new Point(0, -j - 1);
+            lattice[7 * eighth][j] = new Point(j + 1, -j - 1);
+        }
+
+        for (int i = 1; i < eighth; i++) {
+            double slope = Math.tan(Math.PI * i / ((double) orientations));
+            for (int j = 0; j < depth; j++) {
+                int x = j + 1;
+                int y = (int) (Math.round(x * slope));
+
+                lattice[i][j] = new Point(x, y);
+
+                lattice[(2 * eighth) - i][j] = new Point(y, x);
+                lattice[(2 * eighth) + i][j] = new Point(-y, x);
+
+                lattice[(4 * eighth) - i][j] = new Point(-x, y);
+                lattice[(4 * eighth) + i][j] = new Point(-x, -y);
+
+                lattice[(6 * eighth) - i][j] = new Point(-y, -x);
+                lattice[(6 * eighth) + i][j] = new Point(y, -x);
+
+                lattice[(8 * eighth) - i][j] = new Point(x, -y);
+            }
+        }
+        return lattice;
+    }
+
+    private static Point[][] initSpokeRays(Point[][] lattice, int length) {
+        Point[][] rays = new Point[lattice.length][];
+        for (int j = 0; j < lattice.length; j++) {
+            List<Point> ray = new ArrayList<>();
+            double old_distance = 0, distance = 0;
+            for (Point p : lattice[j]) {
+                distance = Math.sqrt(p.x * p.x + p.y * p.y);
+                if (Math.abs(distance - length) > Math.abs(old_distance - length)) {
+                    break;
+                }
+                old_distance = distance;
+
+                ray.add(p);
+            }
+            rays[j] = ray.toArray(new Point[0]);
+        }
+        return rays;
+    }
+
+}
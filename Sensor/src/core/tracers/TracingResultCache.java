@@ -0,0 +1,355 @@
+package core.tracers;
+
+import core.FilamentSensor;
+import core.filaments.AbstractFilament;
+import core.filaments.CurvedFilament;
+import core.filaments.Filament;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import util.Annotations.Nullable;
+
+import java.awt.*;
+import java.io.*;
+import java.lang.ref.SoftReference;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Content addressed cache of tracing results.
+ * <p>
+ * The key is a SHA-256 hash of the tracer type, the tracing parameters, the region of interest
+ * and the binary input as the tracers see it (pixel value above 254). All settings that change
+ * the input (Pre, Bin, ...) are therefore covered by the hash of the input itself, settings that
+ * only affect exports or tracking do not change the key.
+ * <p>
+ * Results are kept in memory as soft references and, if a directory is given, stored as one
+ * gzip file per key so that re-runs of a project skip the tracing. The stored files are limited
+ * to maxBytes, the results that were used least recently are deleted first.
+ */
+public class TracingResultCache {
+    private static final int MAGIC = 0x46535443, VERSION = 1;
+    private static final byte FILAMENT = 0, CURVED_FILAMENT = 1;
+
+    private static final String SUFFIX = ".trace.gz";
+    //default size limit of the stored results
+    public static final long DEFAULT_MAX_BYTES = 256L << 20;
+
+    private static final TracingResultCache s_memory_cache = new TracingResultCache(null);
+
+    private final File m_directory;
+    private final long m_max_bytes;
+    //bytes of the stored results, -1 until the directory was listed
+    private long m_stored = -1;
+    private final Map<String, SoftReference<Result>> m_memory = new ConcurrentHashMap<>();
+    private final AtomicLong m_hits = new AtomicLong(), m_misses = new AtomicLong();
+
+    /**
+     * @param directory directory of the stored results, null keeps them in memory only
+     */
+    public TracingResultCache(@Nullable File directory) {
+        this(directory, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param directory directory of the stored results, null keeps them in memory only
+     * @param maxBytes  size limit of the stored results
+     */
+    public TracingResultCache(@Nullable File directory, long maxBytes) {
+        m_directory = directory;
+        m_max_bytes = maxBytes;
+    }
+
+    /**
+     * @return process wide cache without directory
+     */
+    public static TracingResultCache getMemoryCache() {
+        return s_memory_cache;
+    }
+
+    public long getHits() {
+        return m_hits.get();
+    }
+
+    public long getMisses() {
+        return m_misses.get();
+    }
+
+    public static String key(Tracer tracer, ImageProcessor bin, @Nullable Rectangle roi, double tolerance, int min_length, int min_angle, int step) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        String parameters = tracer.getClass().getName() + ";" + VERSION + ";" + tolerance + ";" + min_length + ";" +
+                min_angle + ";" + step + ";" + (roi == null ? "-" : roi.x + "," + roi.y + "," + roi.width + "," + roi.height) +
+                ";" + bin.getWidth() + "x" + bin.getHeight();
+        digest.update(parameters.getBytes(StandardCharsets.UTF_8));
+
+        digest.update(packBlack(bin));
+
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) {
+            key.append(String.format("%02x", b));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Pixels above 254 as bits, one column after the other (x major) with (height + 7) / 8 bytes per column.
+     * Read in one pass over the rows of the processor instead of copying the frame with getIntArray().
+     */
+    private static byte[] packBlack(ImageProcessor bin) {
+        final int width = bin.getWidth(), height = bin.getHeight(), column = (height + 7) / 8;
+        byte[] bits = new byte[width * column];
+        byte[] bytes = (bin instanceof ByteProcessor) ? (byte[]) bin.getPixels() : null;
+        for (int y = 0, index = 0; y < height; y++) {
+            final int offset = y >> 3;
+            final byte bit = (byte) (1 << (y & 7));
+            for (int x = 0; x < width; x++, index++) {
+                if ((bytes != null) ? (bytes[index] & 0xff) > 254 : bin.get(index) > 254) {
+                    bits[x * column + offset] |= bit;
+                }
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * @return copy of the stored result or null
+     */
+    public Result get(String key) {
+        SoftReference<Result> reference = m_memory.get(key);
+        Result result = (reference == null ? null : reference.get());
+        if (result == null && m_directory != null) {
+            result = read(key);
+            if (result != null) {
+                m_memory.put(key, new SoftReference<>(result));
+            }
+        }
+        if (result == null) {
+            m_misses.incrementAndGet();
+            return null;
+        }
+        m_hits.incrementAndGet();
+        return result.copy();
+    }
+
+    /**
+     * Stores a copy of the result, results with other filament types than Filament and CurvedFilament are not cached.
+     */
+    public void put(String key, Result result) {
+        if (!result.m_filaments.stream().allMatch(f -> f.getClass() == Filament.class || f.getClass() == CurvedFilament.class)) {
+            return;
+        }
+        Result copy = result.copy();
+        m_memory.put(key, new SoftReference<>(copy));
+        if (m_directory != null) {
+            write(key, copy);
+        }
+    }
+
+    private File file(String key) {
+        return new File(m_directory, key + SUFFIX);
+    }
+
+    private void write(String key, Result result) {
+        if (!m_directory.isDirectory() && !m_directory.mkdirs()) {
+            FilamentSensor.debugError("TracingResultCache: could not create " + m_directory);
+            return;
+        }
+        File target = file(key), tmp = new File(m_directory, key + ".tmp" + Thread.currentThread().getId());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmp))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeField(out, result.m_orientation_field);
+            writeField(out, result.m_width_map);
+            out.writeInt(result.m_filaments.size());
+            for (AbstractFilament filament : result.m_filaments) {
+                writeFilament(out, filament);
+            }
+        } catch (IOException e) {
+            FilamentSensor.debugError("TracingResultCache: could not write " + target + ": " + e.getMessage());
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(target)) {
+            tmp.delete();
+            return;
+        }
+        trim(target.length());
+    }
+
+    /**
+     * Deletes the least recently used results until the stored results fit into m_max_bytes,
+     * the directory is only listed when the limit is exceeded.
+     */
+    private synchronized void trim(long added) {
+        if (m_stored >= 0) {
+            m_stored += added;
+            if (m_stored <= m_max_bytes) {
+                return;
+            }
+        }
+        File[] files = m_directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (files == null) {
+            return;
+        }
+        //the modification times are read once, get(...) touches files while they are sorted
+        Map<File, Long> used = new HashMap<>();
+        m_stored = 0;
+        for (File file : files) {
+            used.put(file, file.lastModified());
+            m_stored += file.length();
+        }
+        Arrays.sort(files, Comparator.comparingLong(used::get));
+        for (int i = 0; i < files.length && m_stored > m_max_bytes; i++) {
+            long length = files[i].length();
+            if (files[i].delete()) {
+                m_stored -= length;
+            }
+        }
+    }
+
+    private Result read(String key) {
+        File source = file(key);
+        if (!source.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(source))))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            IntField orientation_field = readField(in), width_map = readField(in);
+            int size = in.readInt();
+            List<AbstractFilament> filaments = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                filaments.add(readFilament(in));
+            }
+            //marks the result as used for trim(...)
+            source.setLastModified(System.currentTimeMillis());
+            return new Result(filaments, orientation_field, width_map);
+        } catch (IOException e) {
+            FilamentSensor.debugError("TracingResultCache: could not read " + source + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static void writeField(DataOutputStream out, IntField field) throws IOException {
+        out.writeInt(field.getWidth());
+        out.writeInt(field.getHeight());
+        for (int value : field.getData()) {
+            out.writeInt(value);
+        }
+    }
+
+    private static IntField readField(DataInputStream in) throws IOException {
+        IntField field = new IntField(in.readInt(), in.readInt());
+        int[] data = field.getData();
+        for (int i = 0; i < data.length; i++) {
+            data[i] = in.readInt();
+        }
+        return field;
+    }
+
+    private static void writeFilament(DataOutputStream out, AbstractFilament filament) throws IOException {
+        boolean curved = filament instanceof CurvedFilament;
+        out.writeByte(curved ? CURVED_FILAMENT : FILAMENT);
+        out.writeInt(filament.getNumber());
+        out.writeBoolean(filament.isKeep());
+        out.writeLong(filament.getWidth());
+        List<Point> points = filament.getPoints();
+        out.writeInt(points.size());
+        for (Point p : points) {
+            out.writeInt(p.x);
+            out.writeInt(p.y);
+        }
+        if (curved) {
+            CurvedFilament curved_filament = (CurvedFilament) filament;
+            out.writeInt(filament.getCenter().x);
+            out.writeInt(filament.getCenter().y);
+            out.writeLong(filament.getLength());
+            out.writeLong(filament.getOrientation());
+            out.writeLong(curved_filament.getSignedCurvature());
+            out.writeLong(curved_filament.getAbsoluteCurvature());
+        }
+    }
+
+    private static AbstractFilament readFilament(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        int number = in.readInt();
+        boolean keep = in.readBoolean();
+        long width = in.readLong();
+        int size = in.readInt();
+        List<Point> points = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            points.add(new Point(in.readInt(), in.readInt()));
+        }
+        AbstractFilament filament;
+        if (type == CURVED_FILAMENT) {
+            Point center = new Point(in.readInt(), in.readInt());
+            long length = in.readLong(), orientation = in.readLong();
+            filament = new CurvedFilament(points, center, length, orientation, width, in.readLong(), in.readLong(), keep);
+        } else if (type == FILAMENT && size == 2) {
+            filament = new Filament(points.get(0), points.get(1), width, keep);
+        } else {
+            throw new IOException("unknown filament type " + type);
+        }
+        filament.setNumber(number);
+        return filament;
+    }
+
+    /**
+     * Filaments, orientation field and width map of one tracing run.
+     */
+    public static class Result {
+        private final List<AbstractFilament> m_filaments;
+        private final IntField m_orientation_field, m_width_map;
+
+        public Result(List<AbstractFilament> filaments, IntField orientation_field, IntField width_map) {
+            m_filaments = filaments;
+            m_orientation_field = orientation_field;
+            m_width_map = width_map;
+        }
+
+        public List<AbstractFilament> getFilaments() {
+            return m_filaments;
+        }
+
+        public IntField getOrientationField() {
+            return m_orientation_field;
+        }
+
+        public IntField getWidthMap() {
+            return m_width_map;
+        }
+
+        private Result copy() {
+            List<AbstractFilament> filaments = new ArrayList<>(m_filaments.size());
+            for (AbstractFilament filament : m_filaments) {
+                AbstractFilament copy = (AbstractFilament) filament.clone();
+                copy.setNumber(filament.getNumber());
+                filaments.add(copy);
+            }
+            return new Result(filaments, copy(m_orientation_field), copy(m_width_map));
+        }
+
+        private static IntField copy(IntField field) {
+            IntField copy = new IntField(field.getWidth(), field.getHeight());
+            System.arraycopy(field.getData(), 0, copy.getData(), 0, field.getData().length);
+            return copy;
+        }
+    }
+
+}
@@ -0,0 +1,239 @@
+package core.tracers;
+
+import core.Calc;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Width map used by the tracers.
+ * <p>
+ * For each white (false) pixel the width is grown diameter by diameter: for every diameter d
+ * the pixels of Calc.circleMask(d) around the point are counted and the black ones are added
+ * as misses. Count and misses accumulate over all diameters and the width is the last diameter
+ * before misses/count exceeded the tolerance. This is the definition the tracers always used,
+ * but instead of re-scanning the full circle mask for every diameter
+ * <ul>
+ * <li>an exact Euclidean distance transform tells for each pixel up to which diameter the mask
+ * holds no black pixel at all; those diameters only add precomputed mask sizes,</li>
+ * <li>the remaining diameters are corrected by scanning just the ring that mask d adds to mask d-1.</li>
+ * </ul>
+ * The result is identical to the circle growing approach; mask samples outside of the image
+ * are neither counted nor treated as misses. Where that approach never ends (e.g. on a frame
+ * without black pixels), growing stops at the first diameter whose mask holds every black pixel
+ * with a ratio misses/count of that mask within the tolerance: later rings add no misses, so
+ * the accumulated ratio can't exceed the tolerance any more.
+ */
+public class WidthMapCalculator {
+
+    /**
+     * Ring offsets of mask d minus mask d-1, ring[2] is the complete mask of diameter 2.
+     */
+    private static volatile Rings s_rings = new Rings(64);
+
+    private final IntField m_width_map;
+    private int m_max_diameter;
+
+    public WidthMapCalculator(boolean[][] bin, double tolerance) {
+        final int x_size = bin.length, y_size = bin[0].length;
+        m_width_map = new IntField(x_size, y_size);
+        m_max_diameter = 0;
+
+        int[][] distance = Calc.squaredDistanceTransform(bin);
+        Rings rings = s_rings;
+
+        // Bounding box of the black pixels, empty if there are none.
+        int black_x0 = x_size, black_x1 = -1, black_y0 = y_size, black_y1 = -1;
+        for (int x = 0; x < x_size; x++) {
+            for (int y = 0; y < y_size; y++) {
+                if (bin[x][y]) {
+                    black_x0 = Math.min(black_x0, x);
+                    black_x1 = Math.max(black_x1, x);
+                    black_y0 = Math.min(black_y0, y);
+                    black_y1 = Math.max(black_y1, y);
+                }
+            }
+        }
+
+        for (int x = 0; x < x_size; x++) {
+            for (int y = 0; y < y_size; y++) {
+                if (bin[x][y]) { // false is white. If black, m_width_map[x][y] remains 0.
+                    continue;
+                }
+                int diameter = 1, misses = 0, count = 0;
+                long total_misses = 0, total_count = 0;
+                double ratio = 0.0;
+                // Squared distance to the farthest corner of the black bounding box, -1 without black pixels.
+                long farthest = -1;
+                if (black_x1 >= 0) {
+                    long dx = Math.max(x - black_x0, black_x1 - x), dy = Math.max(y - black_y0, black_y1 - y);
+                    farthest = dx * dx + dy * dy;
+                }
+
+                // Skip all diameters whose circle mask lies inside the image and contains no black pixel.
+                int border = Math.min(Math.min(x, x_size - 1 - x), Math.min(y, y_size - 1 - y));
+                int skip = maxClearDiameter(distance[x][y], 2 * border + 1);
+                if (tolerance >= 0 && skip >= 2) {
+                    if (skip + 1 >= rings.m_x.length) {
+                        rings = getRings(skip + 1);
+                    }
+                    diameter = skip;
+                    count = rings.m_mask_size[skip];
+                    total_count = rings.m_mask_size_sum[skip];
+                }
+
+                while (ratio <= tolerance) {
+                    diameter++;
+                    if (diameter >= rings.m_x.length) {
+                        rings = getRings(2 * diameter);
+                    }
+                    int[] ring_x = rings.m_x[diameter], ring_y = rings.m_y[diameter];
+                    int added = 0;
+                    for (int i = 0; i < ring_x.length; i++) {
+                        int px = x + ring_x[i], py = y + ring_y[i];
+                        if (px < 0 || py < 0 || px >= x_size || py >= y_size) {
+                            continue;
+                        }
+                        added++;
+                        // Count black points as misses.
+                        if (bin[px][py]) {
+                            misses++;
+                        }
+                    }
+                    count += added;
+                    total_count += count;
+                    total_misses += misses;
+                    ratio = (double) total_misses / (double) total_count;
+
+                    // The mask holds every black pixel, the ratio converges to misses / count from here on.
+                    if (threshold(diameter) > farthest && (double) misses / count <= tolerance) {
+                        break;
+                    }
+                }
+                if (diameter > m_max_diameter) {
+                    m_max_diameter = diameter;
+                }
+                // Radius at which black pixel ratio exceeded the tolerance.
+                m_width_map.set(x, y, diameter - 1);
+            }
+        }
+    }
+
+    public IntField getWidthMap() {
+        return m_width_map;
+    }
+
+    /**
+     * @return the highest diameter reached during growing, i.e. the maximal width plus one
+     */
+    public int getMaxDiameter() {
+        return m_max_diameter;
+    }
+
+    /**
+     * Lists the points of the width map by width, in column major order.
+     */
+    public Map<Integer, List<Point>> getWidthList() {
+        Map<Integer, List<Point>> width_list = new HashMap<>();
+        for (int x = 0; x < m_width_map.getWidth(); x++) {
+            for (int y = 0; y < m_width_map.getHeight(); y++) {
+                int width = m_width_map.get(x, y);
+                if (width > 0) {
+                    width_list.computeIfAbsent(width, k -> new ArrayList<>()).add(new Point(x, y));
+                }
+            }
+        }
+        return width_list;
+    }
+
+    /**
+     * Mask of diameter d consists of the points with x^2 + y^2 < threshold(d), see Calc.circleMask.
+     */
+    private static long threshold(long diameter) {
+        return (diameter * diameter + diameter + 3) / 4;
+    }
+
+    /**
+     * Largest diameter up to limit whose circle mask contains only points closer than the nearest black pixel.
+     */
+    private static int maxClearDiameter(int squared_distance, int limit) {
+        if (threshold(limit) <= squared_distance) {
+            return limit;
+        }
+        int diameter = (int) Math.min(limit, Math.sqrt(4.0 * squared_distance));
+        while (diameter > 0 && threshold(diameter) > squared_distance) {
+            diameter--;
+        }
+        while (diameter < limit && threshold(diameter + 1) <= squared_distance) {
+            diameter++;
+        }
+        return diameter;
+    }
+
+    private static Rings getRings(int size) {
+        Rings rings = s_rings;
+        if (rings.m_x.length <= size) {
+            synchronized (WidthMapCalculator.class) {
+                rings = s_rings;
+                if (rings.m_x.length <= size) {
+                    rings = new Rings(Math.max(size + 1, 2 * rings.m_x.length));
+                    s_rings = rings;
+                }
+            }
+        }
+        return rings;
+    }
+
+
+    private static class Rings {
+        private final int[][] m_x, m_y;
+        private final int[] m_mask_size;
+        private final long[] m_mask_size_sum;
+
+        private Rings(int size) {
+            m_x = new int[size][];
+            m_y = new int[size][];
+            m_mask_size = new int[size];
+            m_mask_size_sum = new long[size];
+            m_x[0] = m_y[0] = m_x[1] = m_y[1] = new int[0];
+
+            for (int d = 2; d < size; d++) {
+                int range = d / 2;
+                long inner = (d == 2 ? 0 : threshold(d - 1)), outer = threshold(d);
+                List<int[]> ring = new ArrayList<>();
+                for (int dx = -range; dx <= range; dx++) {
+                    // |dy| runs from the first value reaching inner to the last one staying below outer.
+                    long low = inner - (long) dx * dx, high = outer - (long) dx * dx;
+                    if (high <= 0) {
+                        continue;
+                    }
+                    int dy_min = (low <= 0 ? 0 : (int) Math.sqrt(low)), dy_max = (int) Math.sqrt(high);
+                    while ((long) dy_min * dy_min < low) {
+                        dy_min++;
+                    }
+                    while ((long) dy_max * dy_max >= high) {
+                        dy_max--;
+                    }
+                    for (int dy = dy_min; dy <= dy_max; dy++) {
+                        ring.add(new int[]{dx, dy});
+                        if (dy > 0) {
+                            ring.add(new int[]{dx, -dy});
+                        }
+                    }
+                }
+                m_x[d] = new int[ring.size()];
+                m_y[d] = new int[ring.size()];
+                for (int i = 0; i < ring.size(); i++) {
+                    m_x[d][i] = ring.get(i)[0];
+                    m_y[d][i] = ring.get(i)[1];
+                }
+                m_mask_size[d] = m_mask_size[d - 1] + ring.size();
+                m_mask_size_sum[d] = m_mask_size_sum[d - 1] + m_mask_size[d];
+            }
+        }
+    }
+
+}
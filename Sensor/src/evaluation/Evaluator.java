@@ -185,8 +185,9 @@ public class Evaluator {
             clustersTruth = listListPair.getValue();
 
         } else {
-            clustersEval = Calc.largestObject(toEvaluate, 1);
-            clustersTruth = Calc.largestObject(groundTruth, 1);
+            //BinaryImage's of the whole image, the comparison works on their bits
+            clustersEval = Calc.largestObject(toEvaluate, 1, false);
+            clustersTruth = Calc.largestObject(groundTruth, 1, false);
         }
         if (clustersEval.size() == 0) {
             System.out.println("DEBUG");
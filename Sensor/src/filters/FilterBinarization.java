@@ -3,11 +3,12 @@ package filters;
 import core.Calc;
 import ij.process.ImageProcessor;
 import javafx.beans.property.*;
-import util.ArrayCopy;
 
 import java.awt.*;
+import java.util.HashMap;
+import java.util.Map;
 
-public class FilterBinarization implements IImageFilter, IFilterPrecalc {
+public class FilterBinarization implements ITileableFilter, IBufferFilter, IFilterPrecalc {
     public static final String methodArea = "area";
     public static final String methodRod = "directions";
 
@@ -103,11 +104,16 @@ public class FilterBinarization implements IImageFilter, IFilterPrecalc {
 
 
     public int[][] combinedMethod(int[][] image) {
+        return combinedMethod(image, new int[image.length][image[0].length]);
+    }
 
-
+    /**
+     * @param out array of the size of image, every pixel is overwritten
+     * @return out
+     */
+    public int[][] combinedMethod(int[][] image, int[][] out) {
         final int width = image.length,
                 height = image[0].length;
-        int[][] out = new int[width][height];
 
         for (int i = 0; i < gauss_range; i++) {
             for (int j = 0; j < height; j++) {
@@ -131,50 +137,83 @@ public class FilterBinarization implements IImageFilter, IFilterPrecalc {
             }
         }
 
+        // Box sums and gaussian means are taken from one precalculation, their cost does not
+        // depend on the window size. Decisions closer than tolerance to the threshold (and means
+        // close to the next integer, which select the weight of the area filter) are made with
+        // the direct window sums, so the result is the same as summing every window. Such
+        // decisions mostly come from constant windows, their results only depend on the value.
+        final LocalStatistics statistics = new LocalStatistics(image);
+        final double[] kernel = new double[2 * gauss_range + 1];
+        for (int a = 0; a < kernel.length; a++) {
+            kernel[a] = gauss[a][gauss_range] / Math.sqrt(gauss[gauss_range][gauss_range]);
+        }
+        final double[] gauss_sums = statistics.separableSum(kernel, false);
+        final double[] gauss_square_sums = (squares != null ? statistics.separableSum(kernel, true) : null);
+        double sum_gauss = 0.0;
+        int max_value = 0;
+        for (int a = -gauss_range; a <= gauss_range; a++) {
+            for (int b = -gauss_range; b <= gauss_range; b++) {
+                sum_gauss += gauss[a + gauss_range][b + gauss_range];
+            }
+        }
+        for (int[] column : image) {
+            for (int value : column) {
+                max_value = Math.max(max_value, Math.abs(value));
+            }
+        }
+        final double tolerance = 1e-9 * (1.0 + max_value);
+        final Map<Integer, Double> constant_means = new HashMap<>();
+        final Map<Integer, Boolean> constant_areas = new HashMap<>();
 
         for (int x = gauss_range; x < width - gauss_range; x++) {
-            int bright = 0;
             for (int y = gauss_range; y < height - gauss_range; y++) {
 
                 // Neighborhood mean thresholding
-                if (y == gauss_range) {
-                    bright = 0;
-                    for (int a = -mean_range; a <= mean_range; a++) {
-                        for (int b = -mean_range; b <= mean_range; b++) {
-                            bright += image[x + a][y + b];
-                        }
-                    }
-                } else {
-                    for (int a = -mean_range; a <= mean_range; a++) {
-                        bright += (image[x + a][y + mean_range] - image[x + a][y - mean_range - 1]);
-                    }
-                }
-
-                if (bright < step) {
+                if (statistics.boxSum(x, y, mean_range) < step) {
                     out[x][y] = HIGH;
                 } else {
                     // Gaussian adaptive means
-                    double gauss_mean = 0.0;
-                    double sum_gauss = 0.0;
-
-                    for (int a = -gauss_range; a <= gauss_range; a++) {
-                        for (int b = -gauss_range; b <= gauss_range; b++) {
-                            int i = x + a;
-                            int j = y + b;
-                            gauss_mean += (gauss[a + gauss_range][b + gauss_range] * image[i][j]);
-                            sum_gauss += gauss[a + gauss_range][b + gauss_range];
+                    final int idx = x * height + y;
+                    double gauss_mean = gauss_sums[idx] / sum_gauss;
+                    final boolean direct = Math.abs(image[x][y] - gauss_mean) <= tolerance ||
+                            (squares != null && Math.abs(gauss_mean - Math.rint(gauss_mean)) <= tolerance);
+                    final boolean constant = direct && statistics.isConstant(x, y, gauss_range);
+                    if (constant) {
+                        Double mean = constant_means.get(image[x][y]);
+                        if (mean == null) {
+                            mean = gaussMean(image, x, y, sum_gauss);
+                            constant_means.put(image[x][y], mean);
                         }
+                        gauss_mean = mean;
+                    } else if (direct) {
+                        gauss_mean = gaussMean(image, x, y, sum_gauss);
                     }
 
-                    gauss_mean /= sum_gauss;
                     if (image[x][y] <= gauss_mean) {
                         out[x][y] = HIGH;
                     } else {
                         // Statistical area filter
-                        if (methodArea.equals(getMethod()))
-                            out[x][y] = (area(x, y, squares, sum_gauss, gauss_mean)) ? HIGH : LOW;
-                            // Statistical rod filter
+                        if (methodArea.equals(getMethod())) {
+                            double lhs = 10000.0 * gauss_square_sums[idx] / sum_gauss,
+                                    rhs = 10000.0 * gauss_mean * gauss_mean + weights[(int) gauss_mean] * sign;
+                            if (constant) {
+                                Boolean high = constant_areas.get(image[x][y]);
+                                if (high == null) {
+                                    high = area(x, y, squares, sum_gauss, gauss_mean);
+                                    constant_areas.put(image[x][y], high);
+                                }
+                                out[x][y] = high ? HIGH : LOW;
+                            } else if (direct || Math.abs(lhs - rhs) <= 1e-9 * (Math.abs(lhs) + Math.abs(rhs) + 1.0)) {
+                                gauss_mean = (direct ? gauss_mean : gaussMean(image, x, y, sum_gauss));
+                                out[x][y] = (area(x, y, squares, sum_gauss, gauss_mean)) ? HIGH : LOW;
+                            } else {
+                                out[x][y] = (lhs <= rhs) ? HIGH : LOW;
+                            }
+                        }
+                        // Statistical rod filter
                         else if (methodRod.equals(getMethod())) out[x][y] = (rod(image, x, y)) ? HIGH : LOW;
+                        // No statistical filter, LOW as in a freshly allocated out
+                        else out[x][y] = LOW;
                     }
                 }
             }
@@ -184,6 +223,20 @@ public class FilterBinarization implements IImageFilter, IFilterPrecalc {
     }
 
 
+    /**
+     * Gaussian mean of the window at (x,y), summed pixel by pixel.
+     */
+    private double gaussMean(int[][] image, int x, int y, double sum_gauss) {
+        double gauss_mean = 0.0;
+        for (int a = -gauss_range; a <= gauss_range; a++) {
+            for (int b = -gauss_range; b <= gauss_range; b++) {
+                gauss_mean += (gauss[a + gauss_range][b + gauss_range] * image[x + a][y + b]);
+            }
+        }
+        return gauss_mean / sum_gauss;
+    }
+
+
     private boolean area(int x, int y, int[][] squares, double sum_gauss, double gauss_mean) {
         double gauss_squares = 0;
         for (int a = -gauss_range; a <= gauss_range; a++) {
@@ -229,6 +282,11 @@ public class FilterBinarization implements IImageFilter, IFilterPrecalc {
     }
 
 
+    @Override
+    public int getHaloRadius() {
+        return gauss_range;
+    }
+
     @Override
     public boolean forceParallel() {
         return false;
@@ -236,8 +294,15 @@ public class FilterBinarization implements IImageFilter, IFilterPrecalc {
 
     @Override
     public void run(ImageProcessor image) {
-        int[][] input = image.getIntArray();
-        image.setIntArray(combinedMethod(ArrayCopy.copy(input)));
+        FilterBuffer buffer = new FilterBuffer(image);
+        run(buffer);
+        buffer.writeTo(image);
+    }
+
+    @Override
+    public void run(FilterBuffer buffer) {
+        combinedMethod(buffer.getData(), buffer.getSpare());
+        buffer.swap();
     }
 
 
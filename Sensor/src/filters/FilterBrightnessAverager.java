@@ -62,6 +62,7 @@ public class FilterBrightnessAverager implements IStackFilter {
                     img[x][y] = val;
                 }
             ip.setIntArray(img);
+            stack.setProcessor(ip, i);//virtual stacks only return copies of the frames
         }
         FilamentSensor.debugPerformance("Time taken:", time);
         //get brightness each image, calc avg per image (sum(processor.getIntArray))/(width*height)
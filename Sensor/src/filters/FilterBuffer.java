@@ -0,0 +1,135 @@
+package filters;
+
+import core.image.IBinaryImage;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import util.Annotations.Nullable;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pixel values of one frame as int[x][y], handed from one IBufferFilter to the next.
+ * <p>
+ * Filters that can not work in place write into getSpare() and call swap(), the replaced array
+ * becomes the spare of the next filter. Between two filters normalize() keeps the values in the
+ * range of the processor, like writing them into it and reading them again would.
+ * <p>
+ * The counters cover the frame sized arrays and the conversions from and to ImageProcessor of
+ * all buffers, they show how much FilterQueue saves by fusing filters.
+ */
+public class FilterBuffer {
+    private static final AtomicLong s_allocations = new AtomicLong(), s_conversions = new AtomicLong();
+
+    private final int m_width, m_height;
+    //bits the processor keeps of an int, 0 for processors without fused support
+    private final int m_bits;
+    private int[][] m_data, m_spare;
+    private IBinaryImage m_area;
+
+    public FilterBuffer(ImageProcessor image) {
+        m_width = image.getWidth();
+        m_height = image.getHeight();
+        m_bits = bitsOf(image);
+        m_data = image.getIntArray();
+        s_allocations.incrementAndGet();
+        s_conversions.incrementAndGet();
+    }
+
+    /**
+     * @return true if values of the processor survive normalize(), e.g. 8 and 16 bit images
+     */
+    public static boolean supports(ImageProcessor image) {
+        return bitsOf(image) != 0;
+    }
+
+    private static int bitsOf(ImageProcessor image) {
+        if (image instanceof ByteProcessor) {
+            return 0xff;
+        } else if (image instanceof ShortProcessor) {
+            return 0xffff;
+        }
+        return 0;
+    }
+
+    public int getWidth() {
+        return m_width;
+    }
+
+    public int getHeight() {
+        return m_height;
+    }
+
+    public int[][] getData() {
+        return m_data;
+    }
+
+    /**
+     * @return array of the frame size with undefined content
+     */
+    public int[][] getSpare() {
+        if (m_spare == null) {
+            m_spare = allocate(m_width, m_height);
+        }
+        return m_spare;
+    }
+
+    /**
+     * Makes the spare array the data of this buffer.
+     */
+    public void swap() {
+        int[][] tmp = m_data;
+        m_data = getSpare();
+        m_spare = tmp;
+    }
+
+    /**
+     * Area of IImageFilterAreaDependant filters, null applies them to the whole frame.
+     */
+    @Nullable
+    public IBinaryImage getArea() {
+        return m_area;
+    }
+
+    public void setArea(@Nullable IBinaryImage area) {
+        m_area = area;
+    }
+
+    /**
+     * Cuts the values to the bits the processor stores, see ImageProcessor.setIntArray().
+     */
+    public void normalize() {
+        if (m_bits == 0) {
+            return;
+        }
+        for (int[] column : m_data) {
+            for (int y = 0; y < column.length; y++) {
+                column[y] &= m_bits;
+            }
+        }
+    }
+
+    public void writeTo(ImageProcessor image) {
+        image.setIntArray(m_data);
+        s_conversions.incrementAndGet();
+    }
+
+    public static int[][] allocate(int width, int height) {
+        s_allocations.incrementAndGet();
+        return new int[width][height];
+    }
+
+    public static long getAllocations() {
+        return s_allocations.get();
+    }
+
+    public static long getConversions() {
+        return s_conversions.get();
+    }
+
+    public static void resetCounters() {
+        s_allocations.set(0);
+        s_conversions.set(0);
+    }
+
+}
@@ -11,6 +11,7 @@ import util.Annotations;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.Arrays;
 
 
 /**
@@ -21,7 +22,7 @@ import java.io.ObjectOutputStream;
  * ObjectOutputStream/InputStream does not need Getter/Setter.
  */
 @Annotations.FilterUI()
-public class FilterCrossCorrelation implements IImageFilter, IFilterPrecalc, IFilterObservable {
+public class FilterCrossCorrelation implements IImageFilter, IBufferFilter, IFilterPrecalc, IFilterObservable {
 
     @Annotations.FilterUIField(type = Annotations.FilterUIType.slider, label = "Zero(%)")
     @Annotations.Min(0)
@@ -48,6 +49,9 @@ public class FilterCrossCorrelation implements IImageFilter, IFilterPrecalc, IFi
     private int range_vertical;
     private double area;
 
+    //derived from m_masks, rebuilt when the masks change
+    private transient MaskCorrelator correlator;
+
 
     public FilterCrossCorrelation() {
         zeroCrossing = new SimpleDoubleProperty();
@@ -125,36 +129,51 @@ public class FilterCrossCorrelation implements IImageFilter, IFilterPrecalc, IFi
     }
 
 
+    private synchronized MaskCorrelator getCorrelator() {
+        if (correlator == null || correlator.getMasks() != m_masks) {
+            correlator = new MaskCorrelator(m_masks);
+        }
+        return correlator;
+    }
+
     @Override
     public boolean forceParallel() {
         return false;
     }
 
+    private boolean isApplicable(int width, int height) {
+        return !(m_masks == null || width <= 0 || height <= 0 ||
+                m_masks.length <= 0 || m_masks[0].length <= 0 || m_masks[0][0].length <= 0 ||
+                width < m_masks[0].length || height < m_masks[0][0].length ||
+                m_masks[0].length % 2 == 0 || m_masks[0][0].length % 2 == 0);
+    }
+
     @Override
     public void run(ImageProcessor imp) {
+        if (imp == null || !isApplicable(imp.getWidth(), imp.getHeight())) {
+            return;
+        }
+        FilterBuffer buffer = new FilterBuffer(imp);
+        run(buffer);
+        buffer.writeTo(imp);
+    }
 
-
-        if (imp == null || m_masks == null || imp.getWidth() <= 0 || imp.getHeight() <= 0 ||
-                m_masks.length <= 0 || m_masks[0].length <= 0 || m_masks[0][0].length <= 0 ||
-                imp.getWidth() < m_masks[0].length || imp.getHeight() < m_masks[0][0].length ||
-                m_masks[0].length % 2 == 0 || m_masks[0][0].length % 2 == 0) {
+    @Override
+    public void run(FilterBuffer buffer) {
+        if (!isApplicable(buffer.getWidth(), buffer.getHeight())) {
             return;
         }
 
-        final int width = imp.getWidth(),
-                height = imp.getHeight(),
-                n_masks = m_masks.length;
+        final int width = buffer.getWidth(),
+                height = buffer.getHeight();
 
 
-        final int[][] image = imp.getIntArray();
+        final int[][] image = buffer.getData();
 
         //****************Copy Array****************************************************
-        int[][] out = new int[image.length][];
+        int[][] out = buffer.getSpare();
         for (int i = 0; i < image.length; i++) {
-            int[] aMatrix = image[i];
-            int aLength = aMatrix.length;
-            out[i] = new int[aLength];
-            System.arraycopy(aMatrix, 0, out[i], 0, aLength);
+            System.arraycopy(image[i], 0, out[i], 0, image[i].length);
         }
         //******************************************************************************
 
@@ -183,9 +202,9 @@ public class FilterCrossCorrelation implements IImageFilter, IFilterPrecalc, IFi
         }*/
 
 
-        // Calculate the maximum cross correlation for each point.
-        double total_min = Double.MAX_VALUE;
-        double total_max = Double.MIN_VALUE;
+        // Sliding window sums for the normalization of each point.
+        final double[] window_sums = new double[width * height], factors = new double[width * height];
+        final boolean[] valid = new boolean[width * height];
         double first_sum = 0.0;
         double first_square_sum = 0.0;
         for (int a = 0; a <= 2 * range_horizontal; a++) {
@@ -217,34 +236,51 @@ public class FilterCrossCorrelation implements IImageFilter, IFilterPrecalc, IFi
                     }
                 }
 
-                double max = Double.MIN_VALUE;
                 if (window_square_sum == 0.0) {
                     out[i][j] = 0;
                     continue;
                 }
+                final int idx = i * height + j;
+                valid[idx] = true;
+                window_sums[idx] = window_sum;
+                factors[idx] = 1 / Math.sqrt(area * window_square_sum - (double) window_sum * window_sum);
+            }
+        }
 
-                double factor = 1 / Math.sqrt(area * window_square_sum - (double) window_sum * window_sum);
-                for (int m = 0; m < n_masks; m++) {
-                    double cross_sum = 0.0;
-                    for (int a = -range_horizontal; a <= range_horizontal; a++) {
-                        for (int b = -range_vertical; b <= range_vertical; b++) {
-                            cross_sum += image[i + a][j + b] *
-                                    m_masks[m][range_horizontal + a][range_vertical + b];
+        // Calculate the maximum cross correlation for each point, the cross sums of every mask
+        // come from the backend MaskCorrelator chose for it.
+        final double[] max = new double[width * height];
+        Arrays.fill(max, Double.MIN_VALUE);
+        getCorrelator().correlate(image, (m, cross, x0, x1, y0, y1) -> {
+            for (int i = x0; i < x1; i++) {
+                for (int j = y0; j < y1; j++) {
+                    final int idx = i * height + j;
+                    if (valid[idx]) {
+                        double correlation = factors[idx] * (factor1[m] * cross[idx] - factor2[m] * window_sums[idx]);
+                        if (correlation > max[idx]) {
+                            max[idx] = correlation;
                         }
                     }
-                    double correlation = factor * (factor1[m] * cross_sum - factor2[m] * window_sum);
-                    if (correlation > max) {
-                        max = correlation;
-                    }
                 }
-                if (max < total_min) {
-                    total_min = max;
+            }
+        });
+
+        double total_min = Double.MAX_VALUE;
+        double total_max = Double.MIN_VALUE;
+        for (int i = range_horizontal; i < width - range_horizontal; i++) {
+            for (int j = range_vertical; j < height - range_vertical; j++) {
+                final int idx = i * height + j;
+                if (!valid[idx]) {
+                    continue;
+                }
+                if (max[idx] < total_min) {
+                    total_min = max[idx];
                 }
-                if (max > total_max) {
-                    total_max = max;
+                if (max[idx] > total_max) {
+                    total_max = max[idx];
                 }
 
-                out[i][j] = (int) (Const.M * max);
+                out[i][j] = (int) (Const.M * max[idx]);
             }
         }
 
@@ -258,8 +294,7 @@ public class FilterCrossCorrelation implements IImageFilter, IFilterPrecalc, IFi
             }
         }
 
-        imp.setIntArray(out);
-
+        buffer.swap();
     }
 
 
@@ -15,7 +15,7 @@ import static util.Annotations.*;
  * for detailed explanation(transient, writeObject) see FilterCrossCorrelation
  */
 @FilterUI()
-public class FilterGauss implements IImageFilter, IFilterObservable {
+public class FilterGauss implements ITileableFilter, IFilterObservable {
 
     @FilterUIField(type = FilterUIType.slider, label = "Sigma")
     @Min(0)
@@ -57,6 +57,18 @@ public class FilterGauss implements IImageFilter, IFilterObservable {
         this.sigma.set(sigma);
     }
 
+    /**
+     * Kernel radius of ImageJ's GaussianBlur at its highest accuracy. Larger sigmas are blurred on
+     * a downscaled image, whose grid depends on the tile position, so they are not tiled.
+     */
+    @Override
+    public int getHaloRadius() {
+        if (getSigma() > 4.5) {
+            return -1;
+        }
+        return (int) Math.ceil(getSigma() * Math.sqrt(-2 * Math.log(0.0002))) + 1;
+    }
+
     @Override
     public boolean forceParallel() {
         return true;
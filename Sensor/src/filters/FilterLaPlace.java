@@ -14,7 +14,7 @@ import java.io.ObjectOutputStream;
  * for detailed explanation(transient, writeObject) see FilterCrossCorrelation
  */
 @Annotations.FilterUI()
-public class FilterLaPlace implements IImageFilter, IFilterPrecalc, IFilterObservable {
+public class FilterLaPlace implements ITileableFilter, IFilterPrecalc, IFilterObservable {
 
     public static final int MaskTypeA = 0;
     public static final int MaskTypeB = 1;
@@ -81,6 +81,11 @@ public class FilterLaPlace implements IImageFilter, IFilterPrecalc, IFilterObser
         this.maskType.set(maskType);
     }
 
+    @Override
+    public int getHaloRadius() {
+        return 1;//3x3 mask
+    }
+
     @Override
     public boolean forceParallel() {
         return false;
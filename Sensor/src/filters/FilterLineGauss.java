@@ -15,12 +15,13 @@ import java.awt.*;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.stream.IntStream;
 
 /**
  * for detailed explanation(transient, writeObject) see FilterCrossCorrelation
  */
 @Annotations.FilterUI()
-public class FilterLineGauss implements IImageFilterAreaDependant, IFilterPrecalc, IFilterObservable {
+public class FilterLineGauss implements IImageFilterAreaDependant, IBufferFilter, IFilterPrecalc, IFilterObservable {
 
     @Annotations.FilterUIField(type = Annotations.FilterUIType.slider, label = "Sigma")
     @Annotations.Min(0)
@@ -105,44 +106,75 @@ public class FilterLineGauss implements IImageFilterAreaDependant, IFilterPrecal
 
     @Override
     public void run(ImageProcessor image, @Nullable IBinaryImage m_cell_area) {
-        final int width = image.getWidth(), height = image.getHeight();
-        int[][] img = image.getIntArray();
-        int[][] imgExtended = new int[width + 2 * getRange()][height + 2 * getRange()];
-        for (int i = range; i < width + range; i++) {
-            for (int j = range; j < height + range; j++) {
-                imgExtended[i][j] = img[i - range][j - range];
+        FilterBuffer buffer = new FilterBuffer(image);
+        buffer.setArea(m_cell_area);
+        run(buffer);
+        buffer.writeTo(image);
+    }
+
+    @Override
+    public void run(FilterBuffer buffer) {
+        final int width = buffer.getWidth(), height = buffer.getHeight();
+        final int r = getRange();
+        final IBinaryImage m_cell_area = buffer.getArea();
+        int[][] img = buffer.getData();
+        //copied image to larger array, now none of the original image is cropped
+        //the extended image is stored row by row, so a line offset (dx,dy) is one index offset
+        final int ext_width = width + 2 * r, ext_height = height + 2 * r;
+        final int[] imgExtended = new int[ext_width * ext_height];
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                imgExtended[(y + r) * ext_width + x + r] = img[x][y];
             }
         }
-        int tmp[][] = new int[width][height];
+        int tmp[][] = buffer.getSpare();
         for (int i = 0; i < img.length; i++) {
             System.arraycopy(img[i], 0, tmp[i], 0, img[i].length);
         }
+
+        //offsets and weights of the line samples per orientation, sums are taken in the same
+        //order as before, so the result does not change
+        final int orientations = 4 * r;
+        final int[][] offsets = new int[orientations][r];
+        final double[][] weights = new double[orientations][r];
+        final double[] gauss_sums = new double[orientations];
+        for (int ori = 0; ori < orientations; ori++) {
+            double gauss_sum = mask[0][0];
+            for (int dist = 1; dist <= r; dist++) {
+                int dx = lines[ori][dist].x, dy = lines[ori][dist].y;
+                offsets[ori][dist - 1] = dy * ext_width + dx;
+                weights[ori][dist - 1] = mask[Math.abs(dx)][Math.abs(dy)];
+                gauss_sum += 2 * weights[ori][dist - 1];
+            }
+            gauss_sums[ori] = gauss_sum;
+        }
+
         // In case cell area is given as null, apply filter everywhere.
-        //previous:x=range;x<width-range - analog mit y
-        //copied image to larger array, now none of the original image is cropped
-        for (int x = range; x < width + range; x++) {
-            for (int y = range; y < height + range; y++) {
-                if (m_cell_area == null || m_cell_area.getPixel(x - range, y - range)) {
+        // Rows are independent, every task writes its own pixels of tmp.
+        IntStream.range(0, height).parallel().forEach(y -> {
+            final int row = (y + r) * ext_width + r;
+            for (int x = 0; x < width; x++) {
+                if (m_cell_area == null || m_cell_area.getPixel(x, y)) {
+                    final int center = row + x;
+                    final double center_mean = imgExtended[center] * mask[0][0];
                     double max_ori_mean = -1;
-                    for (int ori = 0; ori < 4 * range; ori++) {
-                        double mean = imgExtended[x][y] * mask[0][0], gauss_sum = mask[0][0];
-                        for (int dist = 1; dist <= range; dist++) {
-                            int dx = lines[ori][dist].x, dy = lines[ori][dist].y,
-                                    mx = Math.abs(dx), my = Math.abs(dy);
-
-                            mean += (imgExtended[x + dx][y + dy] + imgExtended[x - dx][y - dy]) * mask[mx][my];
-                            gauss_sum += 2 * mask[mx][my];
+                    for (int ori = 0; ori < orientations; ori++) {
+                        final int[] offset = offsets[ori];
+                        final double[] weight = weights[ori];
+                        double mean = center_mean;
+                        for (int d = 0; d < r; d++) {
+                            mean += (imgExtended[center + offset[d]] + imgExtended[center - offset[d]]) * weight[d];
                         }
-                        mean /= gauss_sum;
+                        mean /= gauss_sums[ori];
                         if (mean > max_ori_mean) {
                             max_ori_mean = mean;
                         }
                     }
-                    tmp[x - range][y - range] = (max_ori_mean >= 0 ? (int) max_ori_mean : imgExtended[x][y]);
+                    tmp[x][y] = (max_ori_mean >= 0 ? (int) max_ori_mean : imgExtended[center]);
                 }
             }
-        }
-        image.setIntArray(tmp);
+        });
+        buffer.swap();
     }
 
     @Override
@@ -5,11 +5,16 @@ import ij.process.ImageProcessor;
 import static filters.FilterBinarization.HIGH;
 import static filters.FilterBinarization.LOW;
 
-public class FilterRemovePixels implements IImageFilter {
+public class FilterRemovePixels implements ITileableFilter, IBufferFilter {
 
     public FilterRemovePixels() {
     }
 
+    @Override
+    public int getHaloRadius() {
+        return 1;
+    }
+
     @Override
     public boolean forceParallel() {
         return false;
@@ -17,16 +22,22 @@ public class FilterRemovePixels implements IImageFilter {
 
     @Override
     public void run(ImageProcessor image) {
-        int[][] imageData = image.getIntArray();
-        for (int i = 1; i < image.getWidth() - 1; i++) {
-            for (int j = 1; j < image.getHeight() - 1; j++) {
+        FilterBuffer buffer = new FilterBuffer(image);
+        run(buffer);
+        buffer.writeTo(image);
+    }
+
+    @Override
+    public void run(FilterBuffer buffer) {
+        int[][] imageData = buffer.getData();
+        for (int i = 1; i < buffer.getWidth() - 1; i++) {
+            for (int j = 1; j < buffer.getHeight() - 1; j++) {
                 if (imageData[i][j] == HIGH && imageData[i - 1][j] != HIGH && imageData[i][j - 1] != HIGH
                         && imageData[i + 1][j] != HIGH && imageData[i][j + 1] != HIGH) {
                     imageData[i][j] = LOW;
                 }
             }
         }
-        image.setIntArray(imageData);
     }
 
 }
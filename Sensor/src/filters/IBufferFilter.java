@@ -0,0 +1,14 @@
+package filters;
+
+/**
+ * Filter that works on the pixel array of a FilterBuffer. FilterQueue runs consecutive buffer
+ * filters on one buffer per frame and converts from and to the ImageProcessor only once.
+ * Implementations are IImageFilter or IImageFilterAreaDependant as well.
+ */
+public interface IBufferFilter extends IFilter {
+
+    /**
+     * Changes the data of buffer, buffer.getArea() is the area of area dependant filters.
+     */
+    void run(FilterBuffer buffer);
+}
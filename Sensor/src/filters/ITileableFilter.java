@@ -0,0 +1,16 @@
+package filters;
+
+/**
+ * Image filter whose result in a pixel only depends on the pixels within a halo around it.
+ * FilterQueue runs such filters on overlapping tiles of a frame in parallel, see TiledFilterRunner.
+ */
+public interface ITileableFilter extends IImageFilter {
+
+    /**
+     * Called after preCalc(), the filter has to be thread safe since tiles run concurrently.
+     *
+     * @return radius of the neighbourhood a pixel depends on, negative if the current
+     * parameters do not allow tiling
+     */
+    int getHaloRadius();
+}
@@ -0,0 +1,95 @@
+package filters;
+
+/**
+ * Local window statistics of an image, used by FilterBinarization.
+ * <p>
+ * Box sums and variances come from summed area tables of the values and their squares,
+ * gaussian weighted sums from two one dimensional passes over the image. After the
+ * precalculation every window costs O(1), independent of its size. Arrays are indexed x * height + y like the int[x][y] images of the filters.
+ */
+final class LocalStatistics {
+    private final int[][] m_image;
+    private final int m_width, m_height;
+    //summed area tables of (width + 1) x (height + 1), m_sums[x][y] is the sum of image[<x][<y]
+    private final long[] m_sums, m_square_sums;
+
+    LocalStatistics(int[][] image) {
+        m_image = image;
+        m_width = image.length;
+        m_height = image[0].length;
+        final int stride = m_height + 1;
+        m_sums = new long[(m_width + 1) * stride];
+        m_square_sums = new long[(m_width + 1) * stride];
+        for (int x = 0; x < m_width; x++) {
+            long column = 0, square_column = 0;
+            for (int y = 0; y < m_height; y++) {
+                final long value = image[x][y];
+                column += value;
+                square_column += value * value;
+                m_sums[(x + 1) * stride + y + 1] = m_sums[x * stride + y + 1] + column;
+                m_square_sums[(x + 1) * stride + y + 1] = m_square_sums[x * stride + y + 1] + square_column;
+            }
+        }
+    }
+
+    /**
+     * @return sum of the image over the window of size 2*range+1 centered at (x,y)
+     */
+    long boxSum(int x, int y, int range) {
+        return boxSum(m_sums, x, y, range);
+    }
+
+    /**
+     * @return true if all pixels of the window of size 2*range+1 centered at (x,y) are equal,
+     * that is its variance is 0
+     */
+    boolean isConstant(int x, int y, int range) {
+        final long n = (2L * range + 1) * (2L * range + 1), sum = boxSum(m_sums, x, y, range);
+        return n * boxSum(m_square_sums, x, y, range) == sum * sum;
+    }
+
+    private long boxSum(long[] table, int x, int y, int range) {
+        final int stride = m_height + 1;
+        final int x0 = (x - range) * stride, x1 = (x + range + 1) * stride;
+        final int y0 = y - range, y1 = y + range + 1;
+        return table[x1 + y1] - table[x0 + y1] - table[x1 + y0] + table[x0 + y0];
+    }
+
+    /**
+     * Weighted sums with the separable mask kernel[a] * kernel[b] for all pixels whose window
+     * is inside of the image, the border stays 0.
+     *
+     * @param squared weight the squares of the pixel values instead of the values
+     */
+    double[] separableSum(double[] kernel, boolean squared) {
+        final int width = m_width, height = m_height, range = (kernel.length - 1) / 2;
+        final double[] values = new double[height];
+        final double[] vertical = new double[width * height], out = new double[width * height];
+        //both passes add shifted rows scaled by one weight, which the jit can vectorize
+        for (int x = 0; x < width; x++) {
+            final int[] column = m_image[x];
+            for (int y = 0; y < height; y++) {
+                values[y] = (squared ? (double) column[y] * column[y] : column[y]);
+            }
+            final int row = x * height;
+            for (int b = -range; b <= range; b++) {
+                final double weight = kernel[range + b];
+                for (int y = range; y < height - range; y++) {
+                    vertical[row + y] += weight * values[y + b];
+                }
+            }
+        }
+        for (int x = range; x < width - range; x++) {
+            final int row = x * height;
+            for (int a = -range; a <= range; a++) {
+                final double weight = kernel[range + a];
+                final int shifted = row + a * height;
+                for (int y = range; y < height - range; y++) {
+                    out[row + y] += weight * vertical[shifted + y];
+                }
+            }
+        }
+        return out;
+    }
+
+}
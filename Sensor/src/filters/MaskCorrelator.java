@@ -0,0 +1,474 @@
+package filters;
+
+import java.util.Arrays;
+
+/**
+ * Cross sums of an image with a set of masks, used by FilterCrossCorrelation:
+ * cross(i,j) = sum over a,b of image[i+a][j+b] * mask[range+a][range+b]
+ * for all pixels whose window lies inside of the image.
+ * <p>
+ * Every mask gets the backend with the lowest estimated cost per pixel:
+ * <ul>
+ * <li>DIRECT sums the window as before, cost (2*range+1)^2</li>
+ * <li>SEPARABLE splits the mask into rank one terms (column * row), cost 2*(2*range+1) per term,
+ * used for masks with a low rank, e.g. the horizontal and vertical lines</li>
+ * <li>FFT correlates tiles of the image in the frequency domain (overlap save), the cost per
+ * pixel hardly depends on the mask size</li>
+ * </ul>
+ * The separable and the fft backend give the direct sums up to rounding errors.
+ * Public for Development.testMaskCorrelator and Development.benchmarkMaskCorrelator.
+ */
+public final class MaskCorrelator {
+
+    public enum Backend {DIRECT, SEPARABLE, FFT}
+
+    /**
+     * Receives the cross sums of one mask, cross is indexed x * height + y and valid
+     * for x0 <= x < x1, y0 <= y < y1.
+     */
+    public interface Consumer {
+        void accept(int mask, double[] cross, int x0, int x1, int y0, int y1);
+    }
+
+    //relative size of the rest of a separable mask, that is considered zero
+    private static final double RANK_TOLERANCE = 1e-13;
+    //estimated cost per pixel of one fft mask in units of one multiply-add of the direct sum,
+    //per log2 of the tile area
+    private static final double FFT_COST = 1.5;
+    private static final int MIN_TILE = 32, MAX_TILE = 256;
+
+    private final double[][][] m_masks;
+    private final int m_range;
+    private final Backend[] m_backends;
+
+    //separable masks: m_columns[m][k][a] * m_rows[m][k][b] summed over k is mask[a][b]
+    private final double[][][] m_columns, m_rows;
+
+    //fft masks, paired so that the inverse transform of one pair gives two masks
+    private final int[] m_fft_masks;
+    private final double[] m_mask_sums;
+    private Spectra m_spectra;
+
+    public MaskCorrelator(double[][][] masks) {
+        this(masks, null);
+    }
+
+    /**
+     * @param backend backend for all masks, null chooses for each mask; FFT falls back to DIRECT for masks that do
+     *                not leave an inner part in the largest tile (range >= MAX_TILE / 2)
+     */
+    public MaskCorrelator(double[][][] masks, Backend backend) {
+        m_masks = masks;
+        m_range = (masks[0].length - 1) / 2;
+        m_backends = new Backend[masks.length];
+        m_columns = new double[masks.length][][];
+        m_rows = new double[masks.length][][];
+        m_mask_sums = new double[masks.length];
+
+        final int size = 2 * m_range + 1;
+        final double direct_cost = size * size;
+        final int max_tile = tileFor(m_range, Integer.MAX_VALUE);
+        final double fft_cost = FFT_COST * 2 * log2(max_tile) * overlap(m_range, max_tile);
+        int n_fft = 0;
+        for (int m = 0; m < masks.length; m++) {
+            decompose(m);
+            double separable_cost = 2.0 * size * m_columns[m].length;
+            Backend choice = backend;
+            if (choice == null) {
+                choice = Backend.DIRECT;
+                double cost = direct_cost;
+                if (separable_cost < cost) {
+                    choice = Backend.SEPARABLE;
+                    cost = separable_cost;
+                }
+                if (fft_cost < cost) {
+                    choice = Backend.FFT;
+                }
+            } else if (choice == Backend.FFT && max_tile - 2 * m_range <= 0) {
+                //the tiles of correlateFFT would not advance
+                choice = Backend.DIRECT;
+            }
+            m_backends[m] = choice;
+            if (choice == Backend.FFT) {
+                n_fft++;
+            }
+            for (double[] column : masks[m]) {
+                for (double value : column) {
+                    m_mask_sums[m] += value;
+                }
+            }
+        }
+        m_fft_masks = new int[n_fft];
+        for (int m = 0, i = 0; m < masks.length; m++) {
+            if (m_backends[m] == Backend.FFT) {
+                m_fft_masks[i++] = m;
+            }
+        }
+    }
+
+    public double[][][] getMasks() {
+        return m_masks;
+    }
+
+    public Backend getBackend(int mask) {
+        return m_backends[mask];
+    }
+
+    public void correlate(int[][] image, Consumer consumer) {
+        final int width = image.length, height = image[0].length;
+        double[] cross = new double[width * height];
+        double[] tmp = null;
+        for (int m = 0; m < m_masks.length; m++) {
+            if (m_backends[m] == Backend.DIRECT) {
+                correlateDirect(image, m, cross);
+            } else if (m_backends[m] == Backend.SEPARABLE) {
+                if (tmp == null) {
+                    tmp = new double[width * height];
+                }
+                correlateSeparable(image, m, cross, tmp);
+            } else {
+                continue;
+            }
+            consumer.accept(m, cross, m_range, width - m_range, m_range, height - m_range);
+        }
+        if (m_fft_masks.length > 0) {
+            correlateFFT(image, cross, consumer);
+        }
+    }
+
+    private void correlateDirect(int[][] image, int m, double[] cross) {
+        final int width = image.length, height = image[0].length, range = m_range;
+        final double[][] mask = m_masks[m];
+        for (int i = range; i < width - range; i++) {
+            for (int j = range; j < height - range; j++) {
+                double cross_sum = 0.0;
+                for (int a = -range; a <= range; a++) {
+                    for (int b = -range; b <= range; b++) {
+                        cross_sum += image[i + a][j + b] * mask[range + a][range + b];
+                    }
+                }
+                cross[i * height + j] = cross_sum;
+            }
+        }
+    }
+
+    private void correlateSeparable(int[][] image, int m, double[] cross, double[] tmp) {
+        final int width = image.length, height = image[0].length, range = m_range;
+        final double[][] columns = m_columns[m], rows = m_rows[m];
+        for (int i = range; i < width - range; i++) {
+            final int row = i * height;
+            for (int j = range; j < height - range; j++) {
+                cross[row + j] = 0.0;
+            }
+        }
+        for (int k = 0; k < columns.length; k++) {
+            final double[] column = columns[k], vertical = rows[k];
+            //vertical pass: tmp[x][j] = sum over b of image[x][j+b] * row[range+b]
+            for (int x = 0; x < width; x++) {
+                final int[] image_column = image[x];
+                final int row = x * height;
+                for (int j = range; j < height - range; j++) {
+                    double sum = 0.0;
+                    for (int b = -range; b <= range; b++) {
+                        sum += image_column[j + b] * vertical[range + b];
+                    }
+                    tmp[row + j] = sum;
+                }
+            }
+            //horizontal pass
+            for (int i = range; i < width - range; i++) {
+                final int row = i * height;
+                for (int a = -range; a <= range; a++) {
+                    final double weight = column[range + a];
+                    if (weight == 0.0) {
+                        continue;
+                    }
+                    final int shifted = row + a * height;
+                    for (int j = range; j < height - range; j++) {
+                        cross[row + j] += tmp[shifted + j] * weight;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Overlap save: every tile gives the cross sums of its inner part, the
+     * image spectrum of a tile is shared by all masks.
+     */
+    private void correlateFFT(int[][] image, double[] cross, Consumer consumer) {
+        final int width = image.length, height = image[0].length, range = m_range;
+        final Spectra spectra = getSpectra(Math.max(width, height));
+        final FFT fft = spectra.m_fft;
+        final int tile = spectra.m_tile, step = tile - 2 * range;
+        final double[] re = new double[tile * tile], im = new double[tile * tile];
+        final double[] product_re = new double[tile * tile], product_im = new double[tile * tile];
+
+        for (int tx = 0; tx + 2 * range < width; tx += step) {
+            for (int ty = 0; ty + 2 * range < height; ty += step) {
+                final int x_end = Math.min(tx + tile, width), y_end = Math.min(ty + tile, height);
+                //the tile mean is removed to keep the rounding errors small
+                double mean = 0;
+                for (int x = tx; x < x_end; x++) {
+                    for (int y = ty; y < y_end; y++) {
+                        mean += image[x][y];
+                    }
+                }
+                mean /= (x_end - tx) * (y_end - ty);
+                Arrays.fill(re, 0.0);
+                Arrays.fill(im, 0.0);
+                for (int x = tx; x < x_end; x++) {
+                    final int row = (x - tx) * tile - ty;
+                    for (int y = ty; y < y_end; y++) {
+                        re[row + y] = image[x][y] - mean;
+                    }
+                }
+                fft.transform2D(re, im, false);
+
+                final int x0 = tx + range, x1 = Math.min(tx + tile - range, width - range),
+                        y0 = ty + range, y1 = Math.min(ty + tile - range, height - range);
+                for (int p = 0; p < spectra.m_re.length; p++) {
+                    final double[] pair_re = spectra.m_re[p], pair_im = spectra.m_im[p];
+                    for (int k = 0; k < re.length; k++) {
+                        product_re[k] = re[k] * pair_re[k] - im[k] * pair_im[k];
+                        product_im[k] = re[k] * pair_im[k] + im[k] * pair_re[k];
+                    }
+                    fft.transform2D(product_re, product_im, true);
+
+                    for (int half = 0; half < 2 && 2 * p + half < m_fft_masks.length; half++) {
+                        final int m = m_fft_masks[2 * p + half];
+                        final double[] result = (half == 0 ? product_re : product_im);
+                        final double offset = mean * m_mask_sums[m];
+                        for (int x = x0; x < x1; x++) {
+                            final int row = x * height, tile_row = (x - tx) * tile - ty;
+                            for (int y = y0; y < y1; y++) {
+                                cross[row + y] = result[tile_row + y] + offset;
+                            }
+                        }
+                        consumer.accept(m, cross, x0, x1, y0, y1);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return spectra of the fft masks for the tile size used with an image of the given size
+     */
+    private synchronized Spectra getSpectra(int image_size) {
+        final int tile = tileFor(m_range, image_size);
+        if (m_spectra == null || m_spectra.m_tile != tile) {
+            m_spectra = new Spectra(tile);
+        }
+        return m_spectra;
+    }
+
+    /**
+     * Mask spectra of one tile size, two masks a and b are combined to conj(F(a)) + i * conj(F(b)).
+     */
+    private final class Spectra {
+        private final int m_tile;
+        private final FFT m_fft;
+        private final double[][] m_re, m_im;
+
+        Spectra(int tile) {
+            m_tile = tile;
+            m_fft = new FFT(tile);
+            final int pairs = (m_fft_masks.length + 1) / 2, range = m_range;
+            m_re = new double[pairs][];
+            m_im = new double[pairs][];
+            for (int p = 0; p < pairs; p++) {
+                final double[] re = new double[tile * tile], im = new double[tile * tile];
+                for (int half = 0; half < 2 && 2 * p + half < m_fft_masks.length; half++) {
+                    final double[][] mask = m_masks[m_fft_masks[2 * p + half]];
+                    final double[] target = (half == 0 ? re : im);
+                    for (int a = -range; a <= range; a++) {
+                        for (int b = -range; b <= range; b++) {
+                            target[((a + tile) % tile) * tile + (b + tile) % tile] = mask[range + a][range + b];
+                        }
+                    }
+                }
+                //F(a + i*b) = F(a) + i*F(b), with the symmetry F(x)[-k] = conj(F(x)[k]) of real x
+                //conj(F(a)) + i*conj(F(b)) is F(a + i*b) at -k
+                m_fft.transform2D(re, im, false);
+                m_re[p] = new double[tile * tile];
+                m_im[p] = new double[tile * tile];
+                for (int u = 0; u < tile; u++) {
+                    for (int v = 0; v < tile; v++) {
+                        final int source = ((tile - u) % tile) * tile + (tile - v) % tile;
+                        m_re[p][u * tile + v] = re[source];
+                        m_im[p][u * tile + v] = im[source];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Splits mask m into rank one terms by gaussian elimination with complete pivoting.
+     */
+    private void decompose(int m) {
+        final int size = 2 * m_range + 1;
+        double[][] rest = new double[size][];
+        double norm = 0;
+        for (int a = 0; a < size; a++) {
+            rest[a] = m_masks[m][a].clone();
+            for (double value : rest[a]) {
+                norm = Math.max(norm, Math.abs(value));
+            }
+        }
+        double[][] columns = new double[size][], rows = new double[size][];
+        int rank = 0;
+        while (rank < size) {
+            int pivot_a = 0, pivot_b = 0;
+            double pivot = 0;
+            for (int a = 0; a < size; a++) {
+                for (int b = 0; b < size; b++) {
+                    if (Math.abs(rest[a][b]) > Math.abs(pivot)) {
+                        pivot = rest[a][b];
+                        pivot_a = a;
+                        pivot_b = b;
+                    }
+                }
+            }
+            if (Math.abs(pivot) <= RANK_TOLERANCE * norm) {
+                break;
+            }
+            double[] column = new double[size], row = new double[size];
+            for (int a = 0; a < size; a++) {
+                column[a] = rest[a][pivot_b];
+            }
+            for (int b = 0; b < size; b++) {
+                row[b] = rest[pivot_a][b] / pivot;
+            }
+            for (int a = 0; a < size; a++) {
+                for (int b = 0; b < size; b++) {
+                    rest[a][b] -= column[a] * row[b];
+                }
+            }
+            columns[rank] = column;
+            rows[rank] = row;
+            rank++;
+        }
+        m_columns[m] = Arrays.copyOf(columns, rank);
+        m_rows[m] = Arrays.copyOf(rows, rank);
+    }
+
+    /**
+     * Power of two of at least 8 times the mask width, but not larger than needed for the image.
+     */
+    private static int tileFor(int range, int image_size) {
+        int tile = MIN_TILE;
+        while (tile < 8 * (2 * range + 1) && tile < MAX_TILE) {
+            tile *= 2;
+        }
+        while (tile / 2 >= MIN_TILE && tile / 2 > 2 * range && tile / 2 - 2 * range >= image_size) {
+            tile /= 2;
+        }
+        return tile;
+    }
+
+    /**
+     * @return ratio of tile area to the area of its valid inner part, infinite if there is no inner part
+     */
+    private static double overlap(int range, int tile) {
+        double inner = tile - 2 * range;
+        if (inner <= 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return (double) tile * tile / (inner * inner);
+    }
+
+    private static int log2(int value) {
+        return 31 - Integer.numberOfLeadingZeros(value);
+    }
+
+    /**
+     * Radix 2 fft of square n x n arrays stored row by row.
+     */
+    private static final class FFT {
+        private final int m_n;
+        private final double[] m_cos, m_sin;
+        private final int[] m_reversed;
+
+        FFT(int n) {
+            m_n = n;
+            m_cos = new double[n / 2];
+            m_sin = new double[n / 2];
+            for (int k = 0; k < n / 2; k++) {
+                m_cos[k] = Math.cos(2 * Math.PI * k / n);
+                m_sin[k] = Math.sin(2 * Math.PI * k / n);
+            }
+            m_reversed = new int[n];
+            final int bits = log2(n);
+            for (int k = 0; k < n; k++) {
+                m_reversed[k] = Integer.reverse(k) >>> (32 - bits);
+            }
+        }
+
+        /**
+         * In place transform, the inverse includes the factor 1/n^2.
+         */
+        void transform2D(double[] re, double[] im, boolean inverse) {
+            final int n = m_n;
+            double[] line_re = new double[n], line_im = new double[n];
+            for (int row = 0; row < n; row++) {
+                System.arraycopy(re, row * n, line_re, 0, n);
+                System.arraycopy(im, row * n, line_im, 0, n);
+                transform(line_re, line_im, inverse);
+                System.arraycopy(line_re, 0, re, row * n, n);
+                System.arraycopy(line_im, 0, im, row * n, n);
+            }
+            for (int column = 0; column < n; column++) {
+                for (int k = 0; k < n; k++) {
+                    line_re[k] = re[k * n + column];
+                    line_im[k] = im[k * n + column];
+                }
+                transform(line_re, line_im, inverse);
+                for (int k = 0; k < n; k++) {
+                    re[k * n + column] = line_re[k];
+                    im[k * n + column] = line_im[k];
+                }
+            }
+            if (inverse) {
+                final double scale = 1.0 / ((double) n * n);
+                for (int k = 0; k < re.length; k++) {
+                    re[k] *= scale;
+                    im[k] *= scale;
+                }
+            }
+        }
+
+        private void transform(double[] re, double[] im, boolean inverse) {
+            final int n = m_n;
+            for (int k = 0; k < n; k++) {
+                final int r = m_reversed[k];
+                if (r > k) {
+                    double t = re[k];
+                    re[k] = re[r];
+                    re[r] = t;
+                    t = im[k];
+                    im[k] = im[r];
+                    im[r] = t;
+                }
+            }
+            final double sign = (inverse ? 1 : -1);
+            for (int length = 2; length <= n; length *= 2) {
+                final int half = length / 2, stride = n / length;
+                for (int start = 0; start < n; start += length) {
+                    for (int k = 0; k < half; k++) {
+                        final double w_re = m_cos[k * stride], w_im = sign * m_sin[k * stride];
+                        final int p = start + k, q = p + half;
+                        final double t_re = re[q] * w_re - im[q] * w_im;
+                        final double t_im = re[q] * w_im + im[q] * w_re;
+                        re[q] = re[p] - t_re;
+                        im[q] = im[p] - t_im;
+                        re[p] += t_re;
+                        im[p] += t_im;
+                    }
+                }
+            }
+        }
+    }
+
+}
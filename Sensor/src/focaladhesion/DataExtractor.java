@@ -40,16 +40,25 @@ public class DataExtractor {
      *
      * @param binaryImage
      * @param histWhite   index in the histogram-array which represents white value
+     * @param runLength   store the pixel area as RunLengthImage
      * @return
      */
-    private static FocalAdhesion preProcessBinary(IBinaryImage binaryImage, int histWhite, Settings dp) {
+    private static FocalAdhesion preProcessBinary(IBinaryImage binaryImage, int histWhite, boolean runLength, Settings dp) {
         if (Prefs.blackBackground) binaryImage.setTrueValue(255);
-        ByteProcessor processor = binaryImage.getByteProcessor();
         //keep the original amount of pixels set
         FocalAdhesion focalAdhesion = new FocalAdhesion();
+        if (binaryImage instanceof CroppedBinaryImage) {
+            //no ByteProcessor of the whole image, the outline is done on the bounding box
+            CroppedBinaryImage cropped = (CroppedBinaryImage) binaryImage;
+            focalAdhesion.setArea(cropped.getHistogram()[histWhite]);
+            focalAdhesion.setPixelArea(runLength ? RunLengthImage.of(binaryImage) : binaryImage.clone());
+            cropped.outline();
+            return focalAdhesion;
+        }
+        ByteProcessor processor = binaryImage.getByteProcessor();
         int[] hist = processor.getHistogram();
         focalAdhesion.setArea(hist[histWhite]);
-        focalAdhesion.setPixelArea(binaryImage.clone());
+        focalAdhesion.setPixelArea(runLength ? RunLengthImage.of(binaryImage) : binaryImage.clone());
 
         //do some processing, like closing gaps
         //outline reduces the number of points used to get the convex hull
@@ -214,7 +223,7 @@ public class DataExtractor {
                 //MixedUtils.getStream(listAdhesion, false).//when extractAdhesionData uses MixedUtils.getStream, this method shouldn't
                 listAdhesion.stream().
                         map(binaryImage -> {
-                            FocalAdhesion focalAdhesion = preProcessBinary(binaryImage, histWhite, dp);
+                            FocalAdhesion focalAdhesion = preProcessBinary(binaryImage, histWhite, correlationData.isRunLength(), dp);
                             List<Point2D> convexHull = PointUtils.getConvexHull(binaryImage.getPoints());
                             focalAdhesion.setConvexHull(convexHull);
                             if (convexHull == null)
@@ -276,6 +285,7 @@ public class DataExtractor {
 
         //adhesion's with too small and too large areas are discarded
         FocalAdhesionContainer correlationData = new FocalAdhesionContainer();
+        correlationData.setRunLength(dp.getValueAsBoolean(FocAdh.runLengthMasks, false));
         if (listAdhesion.size() > dp.getValue(FocAdh.maxClusterAmount))
             return correlationData;//too many clusters(raw focal adhesion's) return because the image is too noisy
         //"too noisy" is defined by the user (setting parameter maxClusterAmount)
@@ -18,6 +18,9 @@ public class FocalAdhesionContainer implements CorrelationData {
 
     private List<FocalAdhesion> data;
 
+    //pixel areas of the focal adhesion's are stored as RunLengthImage
+    private boolean runLength;
+
 
     //add the settings in here? so they are stored in xml? like boolean bothEnds and int neighborHoodSize
     //actually not directly related to the FocalAdhesion itself, its related to the verification process
@@ -31,6 +34,14 @@ public class FocalAdhesionContainer implements CorrelationData {
         this.data.addAll(data);
     }
 
+    public boolean isRunLength() {
+        return runLength;
+    }
+
+    public void setRunLength(boolean runLength) {
+        this.runLength = runLength;
+    }
+
     public List<FocalAdhesion> getData() {
         return data;
     }
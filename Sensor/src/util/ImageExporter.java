@@ -213,7 +213,7 @@ public class ImageExporter {
 
 
         if (binImage != null) {
-            System.out.println("ImageExporter::addArea() --- isInMemoryState=" + ((BinaryImage) binImage).isInMemoryState());
+            System.out.println("ImageExporter::addArea() --- isInMemoryState=" + binImage.isInMemoryState());
             graphics2d.setColor(colorArea);
             addOutlines(graphics2d, binImage);
         }
@@ -5,6 +5,7 @@ import filters.*;
 import javafx.beans.property.DoubleProperty;
 import core.calculation.MeanBrightnessCalc;
 import core.cell.CellPlugin;
+import core.cell.DataFilaments;
 import core.cell.ShapeContainer;
 import core.image.IBinaryImage;
 import core.image.ImageDependency;
@@ -13,6 +14,7 @@ import core.settings.*;
 import core.tracers.CurveTracer;
 import core.tracers.LineSensor;
 import core.tracers.Tracer;
+import core.tracers.TracingResultCache;
 import core.FilterQueue;
 import util.Annotations.NotNull;
 
@@ -63,11 +65,15 @@ public class ProcessingUtils {
                 } else {
                     tracer = new LineSensor();
                 }
+                if (parameters.getValue(Trace.cache, 0) != 0) {
+                    tracer.setResultCache(TracingResultCache.getMemoryCache());
+                }
                 //System.out.println("ImageWrapper::scanFilaments --- start " + entry.getPath());
                 ShapeContainer shape = entry.getShape();
                 IBinaryImage tmpBin = null;
                 if (shape != null && shape.getSelectedArea() != null) tmpBin = shape.getSelectedArea().getBinaryImage();
-                IBinaryImage interior = entry.getDataFilament().scanFilaments(entry.getProcessor(), tmpBin, parameters, tracer);
+                IBinaryImage interior = entry.getDataFilament().scanFilaments(entry.getProcessor(), tmpBin,
+                        DataFilaments.getTracingRoi(shape, parameters), parameters, tracer);
                 entry.getOrientationFieldContainer().setOrientationField(tracer.getOrientationField());
                 if (parameters.getValue(Trace.split) * parameters.getValue(Trace.curve) > 0) {
                     entry.getDataFilament().splitToLinear(parameters.getValue(Trace.step)); //10 fixed value before, now depending on parameter
@@ -209,6 +215,13 @@ public class ProcessingUtils {
         Objects.requireNonNull(line, "ProcessingUtils::() line-ImageWrapper is null");
         Objects.requireNonNull(fil, "ProcessingUtils::() fil-ImageWrapper is null");
 
+        final int memoSize = parameters.getValue(Pre.filter_memo, FilterQueueMemo.DEFAULT_MEGABYTES);
+        if (memoSize > 0) {
+            //parameter changes in the gui re-run the queues, unchanged prefixes are restored from the memo
+            preQueue.useMemo(new FilterQueueMemo(memoSize * 1024L * 1024L));
+            lineQueue.useMemo(new FilterQueueMemo(memoSize * 1024L * 1024L));
+        }
+
         ImageDependency origDependency = new ImageDependency(pre,
                 (src, tgt) -> {
                     try {